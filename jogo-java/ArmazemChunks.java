@@ -0,0 +1,109 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+// Armazém dos chunks alterados que o Mapa descartou da memória (ver Mapa.configuraDescarte).
+// Cada chunk guardado é acrescentado ao fim do arquivo como um registro (inteiros big-endian):
+// cx, cy, as Chunk.NUM_CELULAS células de 2 bytes e o bitset das células reveladas. Um índice
+// em memória aponta para o registro mais recente de cada chunk; os anteriores ficam como lixo
+// no arquivo, que só vale durante a execução (não é um formato de gravação do mapa).
+public class ArmazemChunks implements AutoCloseable {
+    private static final int BYTES_REGISTRO = 8 + Chunk.NUM_CELULAS * 2 + Chunk.NUM_CELULAS / 8;
+
+    private final FileChannel canal;
+    private final Map<Long, Long> posicoes = new HashMap<>(); // (cx, cy) -> início do registro
+    private final ByteBuffer buffer = ByteBuffer.allocate(BYTES_REGISTRO);
+    private long tamanho;
+
+    // Armazém em um arquivo temporário, apagado ao final da execução
+    public ArmazemChunks() throws IOException {
+        this(Files.createTempFile("chunks", ".armazem"));
+    }
+
+    public ArmazemChunks(Path arquivo) throws IOException {
+        arquivo.toFile().deleteOnExit();
+        canal = FileChannel.open(arquivo, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static long chave(int cx, int cy) {
+        return (long) cy << 32 | (cx & 0xFFFFFFFFL);
+    }
+
+    public synchronized void guarda(int cx, int cy, Chunk chunk) {
+        buffer.clear();
+        buffer.putInt(cx).putInt(cy);
+        buffer.asCharBuffer().put(chunk.celulas);
+        buffer.position(buffer.position() + Chunk.NUM_CELULAS * 2);
+        buffer.asLongBuffer().put(chunk.revelado);
+        buffer.clear();
+        try {
+            long inicio = tamanho;
+            while (buffer.hasRemaining())
+                canal.write(buffer, inicio + buffer.position());
+            tamanho += BYTES_REGISTRO;
+            posicoes.put(chave(cx, cy), inicio);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Retorna uma cópia do chunk guardado, ou null se ele nunca foi descartado alterado
+    public synchronized Chunk carrega(int cx, int cy) {
+        Long inicio = posicoes.get(chave(cx, cy));
+        return inicio != null ? carregaRegistro(inicio, cx, cy) : null;
+    }
+
+    // Registros mais recentes de cada chunk, como pares (cx, cy) e início do registro, para um
+    // salvamento (ver SalvamentoMundo). Continuam válidos depois que os chunks voltam a ser
+    // guardados, pois o arquivo só cresce
+    public synchronized long[] capturaRegistros() {
+        long[] registros = new long[posicoes.size() * 2];
+        int n = 0;
+        for (Map.Entry<Long, Long> registro : posicoes.entrySet()) {
+            registros[n++] = registro.getKey();
+            registros[n++] = registro.getValue();
+        }
+        return registros;
+    }
+
+    public synchronized Chunk carregaRegistro(long inicio, int cx, int cy) {
+        buffer.clear();
+        try {
+            while (buffer.hasRemaining()) {
+                if (canal.read(buffer, inicio + buffer.position()) < 0)
+                    throw new IOException("Armazém de chunks truncado");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.flip();
+        if (buffer.getInt() != cx || buffer.getInt() != cy)
+            throw new IllegalStateException("Registro do armazém fora de lugar: " + cx + ", " + cy);
+        Chunk chunk = new Chunk();
+        buffer.asCharBuffer().get(chunk.celulas);
+        buffer.position(buffer.position() + Chunk.NUM_CELULAS * 2);
+        buffer.asLongBuffer().get(chunk.revelado);
+        chunk.modificado = true; // Continua diferente do que a fonte geraria
+        return chunk;
+    }
+
+    public synchronized int getNumChunks() {
+        return posicoes.size();
+    }
+
+    public synchronized long getTamanhoArquivo() {
+        return tamanho;
+    }
+
+    @Override
+    public void close() throws IOException {
+        canal.close();
+    }
+}
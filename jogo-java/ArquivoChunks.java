@@ -0,0 +1,138 @@
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+// Formato binário de mapa dividido em chunks, lido com FileChannel.map: o sistema operacional
+// só traz para a memória as páginas dos chunks efetivamente acessados.
+//
+// Cabeçalho (inteiros big-endian): mágico, versão, bits do chunk, colunas, linhas,
+// x e y iniciais do personagem, reservado. Em seguida os chunks em ordem de linha,
+// cada um com Chunk.NUM_CELULAS caracteres de 2 bytes.
+public class ArquivoChunks implements FonteChunks {
+    public static final int MAGICO = 0x4D415043; // "MAPC"
+    public static final int VERSAO = 1;
+    private static final int TAMANHO_CABECALHO = 32;
+    private static final int BYTES_CHUNK = Chunk.NUM_CELULAS * 2;
+    private static final int CHUNKS_POR_SEGMENTO = (1 << 30) / BYTES_CHUNK; // Segmentos de 1 GiB
+
+    private final int numColunas;
+    private final int numLinhas;
+    private final int xInicial;
+    private final int yInicial;
+    private final int chunksX;
+    private final CharBuffer[] segmentos; // Visões dos trechos mapeados do arquivo
+
+    public ArquivoChunks(String arquivo) throws IOException {
+        try (FileChannel canal = FileChannel.open(Paths.get(arquivo), StandardOpenOption.READ)) {
+            ByteBuffer cabecalho = ByteBuffer.allocate(TAMANHO_CABECALHO);
+            canal.read(cabecalho, 0);
+            cabecalho.flip();
+            if (cabecalho.remaining() < TAMANHO_CABECALHO || cabecalho.getInt() != MAGICO)
+                throw new IOException("Arquivo de chunks inválido: " + arquivo);
+            int versao = cabecalho.getInt();
+            int bits = cabecalho.getInt();
+            if (versao != VERSAO || bits != Chunk.BITS)
+                throw new IOException("Versão de arquivo de chunks não suportada: " + versao);
+            numColunas = cabecalho.getInt();
+            numLinhas = cabecalho.getInt();
+            xInicial = cabecalho.getInt();
+            yInicial = cabecalho.getInt();
+
+            chunksX = (numColunas + Chunk.MASCARA) >> Chunk.BITS;
+            long numChunks = (long) chunksX * ((numLinhas + Chunk.MASCARA) >> Chunk.BITS);
+            int numSegmentos = (int) ((numChunks + CHUNKS_POR_SEGMENTO - 1) / CHUNKS_POR_SEGMENTO);
+            if (canal.size() < TAMANHO_CABECALHO + numChunks * BYTES_CHUNK)
+                throw new IOException("Arquivo de chunks truncado: " + arquivo);
+
+            // O mapeamento continua válido depois que o canal é fechado
+            segmentos = new CharBuffer[numSegmentos];
+            for (int s = 0; s < numSegmentos; s++) {
+                long inicio = TAMANHO_CABECALHO + (long) s * CHUNKS_POR_SEGMENTO * BYTES_CHUNK;
+                long tamanho = Math.min(numChunks - (long) s * CHUNKS_POR_SEGMENTO, CHUNKS_POR_SEGMENTO) * BYTES_CHUNK;
+                MappedByteBuffer trecho = canal.map(FileChannel.MapMode.READ_ONLY, inicio, tamanho);
+                segmentos[s] = trecho.asCharBuffer();
+            }
+        }
+    }
+
+    public int getNumColunas() {
+        return numColunas;
+    }
+
+    public int getNumLinhas() {
+        return numLinhas;
+    }
+
+    public int getXInicial() {
+        return xInicial;
+    }
+
+    public int getYInicial() {
+        return yInicial;
+    }
+
+    @Override
+    public Chunk carregaChunk(int cx, int cy) {
+        long indice = (long) cy * chunksX + cx;
+        CharBuffer segmento = segmentos[(int) (indice / CHUNKS_POR_SEGMENTO)];
+        Chunk chunk = new Chunk();
+        // Leitura absoluta: não altera a posição do buffer e pode ocorrer em paralelo
+        segmento.get((int) (indice % CHUNKS_POR_SEGMENTO) * Chunk.NUM_CELULAS, chunk.celulas);
+        return chunk;
+    }
+
+    // Verifica pelo número mágico se o arquivo está no formato de chunks
+    public static boolean ehArquivoChunks(String arquivo) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(arquivo))) {
+            return in.readInt() == MAGICO;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Grava um mapa no formato de chunks. Cada linha de chunks é obtida da fonte em paralelo, no
+    // pool comum de fork-join, e gravada em ordem; a fonte deve aceitar chamadas concorrentes
+    public static void escreve(String arquivo, int numColunas, int numLinhas, int xInicial, int yInicial,
+                               FonteChunks fonte) throws IOException {
+        try (FileChannel canal = FileChannel.open(Paths.get(arquivo), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer cabecalho = ByteBuffer.allocate(TAMANHO_CABECALHO);
+            cabecalho.putInt(MAGICO).putInt(VERSAO).putInt(Chunk.BITS)
+                    .putInt(numColunas).putInt(numLinhas).putInt(xInicial).putInt(yInicial).putInt(0);
+            cabecalho.flip();
+            while (cabecalho.hasRemaining())
+                canal.write(cabecalho);
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BYTES_CHUNK);
+            int chunksX = (numColunas + Chunk.MASCARA) >> Chunk.BITS;
+            int chunksY = (numLinhas + Chunk.MASCARA) >> Chunk.BITS;
+            Chunk[] linha = new Chunk[chunksX];
+            for (int cy = 0; cy < chunksY; cy++) {
+                int y = cy;
+                IntStream.range(0, chunksX).parallel().forEach(cx -> linha[cx] = fonte.carregaChunk(cx, y));
+                for (int cx = 0; cx < chunksX; cx++) {
+                    buffer.clear();
+                    buffer.asCharBuffer().put(linha[cx].celulas);
+                    while (buffer.hasRemaining())
+                        canal.write(buffer);
+                }
+            }
+        }
+    }
+
+    // Importa um mapa no formato texto: java ArquivoChunks mapa.txt mapa.chunks
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Uso: java ArquivoChunks <mapa.txt> <mapa.chunks>");
+            return;
+        }
+        new Mapa(args[0], 1).salvaChunks(args[1]);
+    }
+}
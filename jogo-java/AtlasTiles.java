@@ -0,0 +1,82 @@
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+// Cache de glifos pré-renderizados: cada tile é rasterizado uma única vez para o tamanho
+// de célula atual e depois apenas copiado com drawImage a cada redesenho
+public class AtlasTiles {
+    private static final int NUM_IDS = 256; // Identificadores de célula com imagem em cache
+    private final BufferedImage[] tiles = new BufferedImage[NUM_IDS];
+    private final Font fonte;
+    private final FontMetrics metricas;
+    private final int tamanhoCelula;
+    private final BufferedImage nevoa;
+    private final char[] glifo = new char[1]; // Usado apenas para ids fora do cache
+
+    public AtlasTiles(Font fonte, int tamanhoCelula, Color corNevoa) {
+        this.fonte = fonte;
+        this.tamanhoCelula = tamanhoCelula;
+
+        // Obtém as métricas da fonte a partir de uma imagem auxiliar
+        Graphics2D g = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+        this.metricas = g.getFontMetrics(fonte);
+        g.dispose();
+
+        // A névoa é um quadrado semitransparente do tamanho da célula
+        int lado = Math.max(1, tamanhoCelula);
+        nevoa = new BufferedImage(lado, lado, BufferedImage.TYPE_INT_ARGB);
+        g = nevoa.createGraphics();
+        g.setColor(corNevoa);
+        g.fillRect(0, 0, lado, lado);
+        g.dispose();
+    }
+
+    public Font getFonte() {
+        return fonte;
+    }
+
+    public int getTamanhoCelula() {
+        return tamanhoCelula;
+    }
+
+    // Desenha o glifo do tile 'id' com a linha de base em (x, yBase), como drawString faria
+    public void desenhaGlifo(Graphics g, char id, char simbolo, Color cor, int x, int yBase) {
+        if (id >= NUM_IDS) {
+            g.setColor(cor);
+            g.setFont(fonte);
+            glifo[0] = simbolo;
+            g.drawChars(glifo, 0, 1, x, yBase);
+            return;
+        }
+
+        BufferedImage tile = tiles[id];
+        if (tile == null) {
+            tile = rasteriza(simbolo, cor);
+            tiles[id] = tile;
+        }
+        g.drawImage(tile, x, yBase - metricas.getAscent(), null);
+    }
+
+    public void desenhaElemento(Graphics g, char id, ElementoMapa elemento, int x, int yBase) {
+        desenhaGlifo(g, id, elemento.getSimbolo(), elemento.getCor(), x, yBase);
+    }
+
+    public void desenhaNevoa(Graphics g, int x, int y) {
+        g.drawImage(nevoa, x, y, null);
+    }
+
+    private BufferedImage rasteriza(char simbolo, Color cor) {
+        int largura = Math.max(1, metricas.charWidth(simbolo));
+        int altura = Math.max(1, metricas.getAscent() + metricas.getDescent());
+        BufferedImage imagem = new BufferedImage(largura, altura, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = imagem.createGraphics();
+        g.setFont(fonte);
+        g.setColor(cor);
+        g.drawString(String.valueOf(simbolo), 0, metricas.getAscent());
+        g.dispose();
+        return imagem;
+    }
+}
@@ -0,0 +1,16 @@
+// Ator que anda no máximo uma célula por tick e é atualizado em duas fases (ver
+// AtualizacaoDuasFases): primeiro todos decidem o passo sobre o mapa ainda inalterado, depois
+// os conflitos são resolvidos e os passos aceitos são aplicados.
+public interface AtorDuasFases {
+    // Coluna e linha ocupadas pelo ator no mapa
+    int getX();
+
+    int getY();
+
+    // Fase 1: decide o passo deste tick apenas lendo o mapa; nulo se o ator fica parado.
+    // Pode ser chamado em paralelo com o de outros atores
+    Direcao intencao();
+
+    // Fase 2: informa se o passo pedido foi feito; só então o ator atualiza seu estado
+    void confirma(boolean movido);
+}
@@ -0,0 +1,338 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+// Atualização dos atores de um tick em duas fases, paralela e reprodutível:
+//
+// 1. Intenções: os atores, agrupados por chunk para aproveitar a cache, decidem o passo em
+//    paralelo no ForkJoinPool lendo o mapa, que ninguém altera nesta fase.
+// 2. Resolução: na thread do tick, cada célula disputada fica com o ator que vem de origem
+//    menor (em ordem de linha), e um passo para uma célula ocupada por outro ator só é aceito
+//    se esse ator também sair dela; ciclos (ex.: dois atores trocando de lugar) são recusados.
+//    Os passos aceitos são aplicados em níveis, os que entram em células livres primeiro e os
+//    que entram em células desocupadas no nível anterior em seguida, cada nível em paralelo
+//    por região (as travas do Mapa são de regiões distintas na maior parte do tempo).
+//
+// Como a decisão só depende do mapa no início do tick e das posições de origem, o resultado é
+// o mesmo com qualquer número de threads. Deve ser executada na thread do tick (ver
+// Escalonador.registraFase).
+public class AtualizacaoDuasFases implements Runnable {
+    private static final int BITS_INDICE = 22; // Até 4 milhões de atores
+    private static final long MASCARA_INDICE = (1L << BITS_INDICE) - 1;
+    private static final int[] DX = {0, 0, -1, 1}; // Na ordem de Direcao: CIMA, BAIXO, ESQUERDA, DIREITA
+    private static final int[] DY = {-1, 1, 0, 0};
+    private static final int MINIMO_PARALELO = 256; // Níveis menores são aplicados na própria thread
+    private static final int TICKS_REAGRUPA = 64; // Os atores andam pouco: reagrupa por chunk de tempos em tempos
+    private static final int LOTE_MEDIDO = 256; // Atores por leitura da memória alocada, com as métricas ativas
+    private static final byte PENDENTE = 0, ACEITO = 1, RECUSADO = 2, VISITANDO = 3;
+
+    private final Mapa mapa;
+    private final ForkJoinPool pool;
+    private final List<AtorDuasFases> atores = new CopyOnWriteArrayList<>();
+    private final AtomicInteger versao = new AtomicInteger(); // Muda a cada ator registrado ou removido
+    private int versaoLista = -1;
+    private int ticksDesdeAgrupamento;
+    private int numAtores;
+    private volatile long numMovimentos; // Passos feitos desde a criação; escrito só pela thread do tick
+
+    // Vetores do tick, por posição em 'lista', reaproveitados enquanto couberem
+    private AtorDuasFases[] lista = new AtorDuasFases[0];
+    private long[] ordenacao = new long[0];
+    private int[] origemX = new int[0], origemY = new int[0];
+    private int[] destinoX = new int[0], destinoY = new int[0];
+    private long[] origem = new long[0]; // Célula de origem em ordem de linha
+    private long[] destino = new long[0]; // Célula pretendida; -1 se o ator fica parado
+    private int[] entidade = new int[0]; // Identificador do ator no mapa
+    private byte[] estado = new byte[0];
+    private boolean[] movido = new boolean[0];
+    private int[] nivel = new int[0];
+    private int[] pilha = new int[0];
+    private int[] ordem = new int[0]; // Atores aceitos agrupados por nível
+    private int[] atorDaEntidade = new int[0]; // Identificador no mapa -> posição em 'lista' + 1
+    private long[] celulasDisputa = new long[0]; // Tabela aberta destino -> ator que fica com ele
+    private int[] vencedores = new int[0];
+
+    public AtualizacaoDuasFases(Mapa mapa, int numThreads) {
+        this.mapa = mapa;
+        this.pool = new ForkJoinPool(numThreads);
+    }
+
+    public void registra(AtorDuasFases ator) {
+        atores.add(ator);
+        versao.incrementAndGet();
+    }
+
+    public void remove(AtorDuasFases ator) {
+        atores.remove(ator);
+        versao.incrementAndGet();
+    }
+
+    public int getNumAtores() {
+        return atores.size();
+    }
+
+    public long getNumMovimentos() {
+        return numMovimentos;
+    }
+
+    public int getNumThreads() {
+        return pool.getParallelism();
+    }
+
+    public void encerra() {
+        pool.shutdownNow();
+    }
+
+    @Override
+    public void run() {
+        long inicio = Metricas.ATIVAS ? System.nanoTime() : 0;
+        preparaLista();
+        int n = numAtores;
+        if (n == 0)
+            return;
+
+        // Fase 1: intenções, em paralelo
+        if (Metricas.ATIVAS)
+            executaMedido(n, this::calculaIntencao, inicio);
+        else
+            pool.submit(() -> IntStream.range(0, n).parallel().forEach(this::calculaIntencao)).join();
+
+        // Fase 2: resolução na thread do tick e aplicação em níveis
+        recusaDisputas(n);
+        resolveCadeias(n);
+        aplicaPorNivel(n);
+        if (Metricas.ATIVAS)
+            executaMedido(n, this::confirma, 0);
+        else
+            pool.submit(() -> IntStream.range(0, n).parallel().forEach(this::confirma)).join();
+    }
+
+    // Como o laço paralelo de uma fase, mas em lotes que registram quanto as threads do pool
+    // alocaram (o Escalonador só mede a thread do tick) e, se 'inicio' não for 0, quanto cada
+    // ator esperou desde o início da atualização, que abre o tick
+    private void executaMedido(int n, IntConsumer passo, long inicio) {
+        int numLotes = (n + LOTE_MEDIDO - 1) / LOTE_MEDIDO;
+        pool.submit(() -> IntStream.range(0, numLotes).parallel().forEach(lote -> {
+            long alocadoInicio = Metricas.alocadoNaThread();
+            int termino = Math.min(n, (lote + 1) * LOTE_MEDIDO);
+            for (int i = lote * LOTE_MEDIDO; i < termino; i++) {
+                if (inicio != 0)
+                    Metricas.ATRASO_ATOR.registra(System.nanoTime() - inicio);
+                passo.accept(i);
+            }
+            Metricas.registraAlocado(Metricas.alocadoNaThread() - alocadoInicio);
+        })).join();
+    }
+
+    // Refaz a lista de atores, agrupada pelo chunk em que cada um está, quando atores entram
+    // ou saem e periodicamente; entre um agrupamento e outro a ordem continua quase agrupada
+    private void preparaLista() {
+        int versaoAtual = versao.get();
+        if (versaoAtual == versaoLista && ++ticksDesdeAgrupamento < TICKS_REAGRUPA)
+            return;
+        versaoLista = versaoAtual;
+        ticksDesdeAgrupamento = 0;
+
+        AtorDuasFases[] atuais = atores.toArray(new AtorDuasFases[0]);
+        int n = atuais.length;
+        if (n > MASCARA_INDICE)
+            throw new IllegalStateException("Atores demais: " + n);
+        if (lista.length < n)
+            aloca(n);
+        long chunksX = (mapa.getNumColunas() + Chunk.MASCARA) >> Chunk.BITS;
+        for (int i = 0; i < n; i++) {
+            int x = atuais[i].getX(), y = atuais[i].getY();
+            long regiao = (y >> Chunk.BITS) * chunksX + (x >> Chunk.BITS);
+            ordenacao[i] = regiao << BITS_INDICE | i;
+        }
+        Arrays.sort(ordenacao, 0, n);
+        for (int i = 0; i < n; i++)
+            lista[i] = atuais[(int) (ordenacao[i] & MASCARA_INDICE)];
+        if (numAtores > n)
+            Arrays.fill(lista, n, numAtores, null);
+        numAtores = n;
+    }
+
+    private void aloca(int n) {
+        int capacidade = Math.max(n, lista.length * 2);
+        lista = Arrays.copyOf(lista, capacidade);
+        ordenacao = new long[capacidade];
+        origemX = new int[capacidade];
+        origemY = new int[capacidade];
+        destinoX = new int[capacidade];
+        destinoY = new int[capacidade];
+        origem = new long[capacidade];
+        destino = new long[capacidade];
+        entidade = new int[capacidade];
+        estado = new byte[capacidade];
+        movido = new boolean[capacidade];
+        nivel = new int[capacidade];
+        pilha = new int[capacidade];
+        ordem = new int[capacidade];
+        celulasDisputa = new long[Integer.highestOneBit(capacidade) * 4];
+        vencedores = new int[celulasDisputa.length];
+    }
+
+    private long celula(int x, int y) {
+        return (long) y * mapa.getNumColunas() + x;
+    }
+
+    private void calculaIntencao(int i) {
+        AtorDuasFases ator = lista[i];
+        int x = ator.getX(), y = ator.getY();
+        origemX[i] = x;
+        origemY[i] = y;
+        origem[i] = celula(x, y);
+        entidade[i] = mapa.getIdEntidade(x, y);
+        destino[i] = -1;
+        estado[i] = RECUSADO;
+        movido[i] = false;
+        Direcao direcao;
+        try {
+            direcao = ator.intencao();
+        } catch (RuntimeException e) {
+            Registrador.registra(Registrador.Nivel.ERRO, "Exceção em ator", e);
+            return;
+        }
+        if (direcao == null)
+            return;
+        int nx = x + DX[direcao.ordinal()], ny = y + DY[direcao.ordinal()];
+        if (nx < 0 || ny < 0 || nx >= mapa.getNumColunas() || ny >= mapa.getNumLinhas())
+            return;
+        destinoX[i] = nx;
+        destinoY[i] = ny;
+        destino[i] = celula(nx, ny);
+        estado[i] = PENDENTE;
+    }
+
+    // Em cada célula pretendida por mais de um ator, fica o de menor origem. Também monta a
+    // tabela que leva do identificador no mapa ao ator, usada ao seguir as cadeias
+    private void recusaDisputas(int n) {
+        int numEntidades = mapa.getNumEntidades();
+        if (atorDaEntidade.length <= numEntidades)
+            atorDaEntidade = new int[Math.max(numEntidades + 1, atorDaEntidade.length * 2)];
+        Arrays.fill(vencedores, -1);
+        int mascara = vencedores.length - 1;
+        for (int i = 0; i < n; i++) {
+            if (entidade[i] != 0)
+                atorDaEntidade[entidade[i]] = i + 1;
+            if (estado[i] != PENDENTE)
+                continue;
+            int h = (int) (destino[i] * 0x9E3779B97F4A7C15L >>> 40) & mascara;
+            while (vencedores[h] >= 0 && celulasDisputa[h] != destino[i])
+                h = (h + 1) & mascara;
+            int outro = vencedores[h];
+            if (outro < 0) {
+                celulasDisputa[h] = destino[i];
+                vencedores[h] = i;
+            } else if (origem[i] < origem[outro]) {
+                estado[outro] = RECUSADO;
+                vencedores[h] = i;
+            } else {
+                estado[i] = RECUSADO;
+            }
+        }
+    }
+
+    // Decide os passos que dependem de outro ator sair do destino, seguindo a cadeia até uma
+    // célula livre, um ator parado ou um ciclo
+    private void resolveCadeias(int n) {
+        for (int i = 0; i < n; i++) {
+            if (estado[i] != PENDENTE)
+                continue;
+            int topo = 0, j = i;
+            byte resultado;
+            int base = -1;
+            while (true) {
+                if (estado[j] == ACEITO) {
+                    resultado = ACEITO;
+                    base = nivel[j];
+                    break;
+                }
+                if (estado[j] == RECUSADO || estado[j] == VISITANDO) {
+                    resultado = RECUSADO;
+                    break;
+                }
+                estado[j] = VISITANDO;
+                pilha[topo++] = j;
+                int ocupante = mapa.getIdEntidade(destinoX[j], destinoY[j]);
+                if (ocupante == 0) {
+                    resultado = ACEITO;
+                    break;
+                }
+                int k = ocupante < atorDaEntidade.length ? atorDaEntidade[ocupante] - 1 : -1;
+                if (k < 0) {
+                    resultado = RECUSADO; // Entidade que não é ator deste tick (ex.: jogador)
+                    break;
+                }
+                j = k;
+            }
+            while (topo > 0) {
+                int k = pilha[--topo];
+                estado[k] = resultado;
+                if (resultado == ACEITO)
+                    nivel[k] = ++base;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            if (entidade[i] != 0)
+                atorDaEntidade[entidade[i]] = 0;
+        }
+    }
+
+    // Agrupa os passos aceitos por nível, mantendo a ordem por chunk dentro de cada nível, e
+    // aplica um nível de cada vez
+    private void aplicaPorNivel(int n) {
+        int maxNivel = -1;
+        for (int i = 0; i < n; i++) {
+            if (estado[i] == ACEITO)
+                maxNivel = Math.max(maxNivel, nivel[i]);
+            else if (destino[i] >= 0 && Metricas.ATIVAS)
+                Metricas.registraMovimento(false);
+        }
+        int[] inicio = new int[maxNivel + 2];
+        for (int i = 0; i < n; i++) {
+            if (estado[i] == ACEITO)
+                inicio[nivel[i] + 1]++;
+        }
+        for (int l = 0; l <= maxNivel; l++)
+            inicio[l + 1] += inicio[l];
+        int[] proximo = Arrays.copyOf(inicio, inicio.length);
+        for (int i = 0; i < n; i++) {
+            if (estado[i] == ACEITO)
+                ordem[proximo[nivel[i]]++] = i;
+        }
+
+        for (int l = 0; l <= maxNivel; l++) {
+            int a = inicio[l], b = inicio[l + 1];
+            if (b - a < MINIMO_PARALELO) {
+                for (int t = a; t < b; t++)
+                    aplica(ordem[t]);
+            } else {
+                pool.submit(() -> IntStream.range(a, b).parallel().forEach(t -> aplica(ordem[t]))).join();
+            }
+        }
+        int movidos = 0;
+        for (int t = 0; t < inicio[maxNivel + 1]; t++) {
+            if (movido[ordem[t]])
+                movidos++;
+        }
+        numMovimentos += movidos;
+    }
+
+    private void aplica(int i) {
+        movido[i] = mapa.moveElemento(origemX[i], origemY[i], destinoX[i], destinoY[i]);
+    }
+
+    private void confirma(int i) {
+        try {
+            lista[i].confirma(movido[i]);
+        } catch (RuntimeException e) {
+            Registrador.registra(Registrador.Nivel.ERRO, "Exceção em ator", e);
+        }
+    }
+}
@@ -0,0 +1,417 @@
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+// Bancada de medição dos caminhos críticos do jogo, no estilo do JMH: para cada caso e cada
+// combinação de parâmetros (tamanho do mapa e número de atores), faz iterações de aquecimento
+// e depois de medição, cada uma repetindo a operação em lotes calibrados para durar cerca de
+// 1 ms, e relata a média e o desvio padrão em ns por operação. Os resultados de cada operação
+// são acumulados em 'sumidouro' para que o JIT não elimine o trabalho medido.
+//
+// Como os forks do JMH, cada caso com cada combinação de parâmetros roda em uma JVM filha própria
+// (com as mesmas opções da JVM atual), sobre um Estado novo: o perfil do JIT, o heap e o mapa
+// alterado por um caso não influenciam a medição dos seguintes. Com -mesma-jvm os casos rodam na
+// própria JVM, ainda cada um sobre um Estado novo; é assim que as filhas são invocadas.
+//
+// make bench ou java -Djava.awt.headless=true Bancada [filtro] [-tamanhos 256,1024] [-atores 0,1000]
+//   [-mesma-jvm]
+// O filtro seleciona os casos cujo nome o contém, ou só o caso de nome igual a ele, se houver.
+public class Bancada {
+    private static final int ITERACOES_AQUECIMENTO = 3;
+    private static final int ITERACOES_MEDICAO = 5;
+    private static final long DURACAO_ITERACAO = 300_000_000L; // ns
+    private static final long DURACAO_LOTE = 1_000_000L; // ns
+    private static final int NUM_POSICOES = 4096; // Posições aleatórias pré-calculadas por caso
+
+    static volatile long sumidouro;
+
+    // Uma operação medida: executa 'repeticoes' vezes e retorna um valor a consumir
+    private interface Operacao {
+        long executa(int repeticoes);
+    }
+
+    private interface Caso {
+        Operacao prepara(Estado estado);
+    }
+
+    // Mapa e simulação de uma combinação de parâmetros, alterados pelo caso medido
+    private static final class Estado {
+        final int tamanho;
+        final int numAtores;
+        final Simulacao simulacao;
+        final Mapa mapa;
+        final int[] livresX = new int[NUM_POSICOES]; // Células vazias, para escrever
+        final int[] livresY = new int[NUM_POSICOES];
+        final SplittableRandom aleatorio = new SplittableRandom(42);
+
+        Estado(int tamanho, int numAtores) throws IOException {
+            this.tamanho = tamanho;
+            this.numAtores = numAtores;
+            File arquivo = geraMapa(tamanho, numAtores, 42);
+            this.mapa = new Mapa(arquivo.getPath(), 10);
+            this.simulacao = new Simulacao(mapa, 1, true);
+            arquivo.delete();
+            for (int i = 0; i < NUM_POSICOES; ) {
+                int x = aleatorio.nextInt(tamanho);
+                int y = aleatorio.nextInt(tamanho);
+                if (mapa.getIdCelula(x, y) == ' ') {
+                    livresX[i] = x;
+                    livresY[i] = y;
+                    i++;
+                }
+            }
+        }
+    }
+
+    private static final String[] NOMES = {
+            "getElemento", "setElemento", "moveElemento", "atualizaCelulasReveladas", "move",
+            "distribuiMoedas", "generateMaze", "desenhaMapa", "executaTick"
+    };
+
+    private static final Caso[] CASOS = {
+            Bancada::getElemento, Bancada::setElemento, Bancada::moveElemento,
+            Bancada::atualizaCelulasReveladas, Bancada::move, Bancada::distribuiMoedas,
+            Bancada::generateMaze, Bancada::desenhaMapa, Bancada::executaTick
+    };
+
+    private static Operacao getElemento(Estado e) {
+        int[] xs = new int[NUM_POSICOES];
+        int[] ys = new int[NUM_POSICOES];
+        for (int i = 0; i < NUM_POSICOES; i++) {
+            xs[i] = e.aleatorio.nextInt(e.tamanho);
+            ys[i] = e.aleatorio.nextInt(e.tamanho);
+        }
+        return repeticoes -> {
+            long soma = 0;
+            for (int r = 0; r < repeticoes; r++) {
+                int i = r & (NUM_POSICOES - 1);
+                if (e.mapa.getElemento(xs[i], ys[i]) != null)
+                    soma++;
+            }
+            return soma;
+        };
+    }
+
+    // Coloca e retira uma moeda alternadamente em células vazias
+    private static Operacao setElemento(Estado e) {
+        return repeticoes -> {
+            long soma = 0;
+            for (int r = 0; r < repeticoes; r++) {
+                int i = (r >> 1) & (NUM_POSICOES - 1);
+                if (e.mapa.setElemento((r & 1) == 0 ? 'M' : ' ', e.livresX[i], e.livresY[i]))
+                    soma++;
+            }
+            return soma;
+        };
+    }
+
+    // Move uma entidade própria em passos aleatórios, sem o relógio da simulação
+    private static Operacao moveElemento(Estado e) {
+        int[] posicao = {e.livresX[0], e.livresY[0]};
+        e.mapa.adicionaEntidade('B', new Vegetacao('b', Color.GRAY), posicao[0], posicao[1]);
+        int[] dx = {0, 0, -1, 1};
+        int[] dy = {-1, 1, 0, 0};
+        return repeticoes -> {
+            long soma = 0;
+            for (int r = 0; r < repeticoes; r++) {
+                int d = e.aleatorio.nextInt(4);
+                int nx = posicao[0] + dx[d];
+                int ny = posicao[1] + dy[d];
+                if (e.mapa.moveElemento(posicao[0], posicao[1], nx, ny)) {
+                    posicao[0] = nx;
+                    posicao[1] = ny;
+                    soma++;
+                }
+            }
+            return soma;
+        };
+    }
+
+    private static Operacao atualizaCelulasReveladas(Estado e) {
+        return repeticoes -> {
+            for (int r = 0; r < repeticoes; r++)
+                e.mapa.atualizaCelulasReveladas();
+            return e.mapa.getPosX();
+        };
+    }
+
+    // Ida e volta do personagem; inclui podeMover e a atualização da névoa
+    private static Operacao move(Estado e) {
+        return repeticoes -> {
+            long soma = 0;
+            for (int r = 0; r < repeticoes; r++) {
+                if (e.mapa.move((r & 1) == 0 ? Direcao.DIREITA : Direcao.ESQUERDA))
+                    soma++;
+            }
+            return soma;
+        };
+    }
+
+    // Distribui 100 moedas e as recolhe, para que cada repetição encontre o mapa igual
+    private static Operacao distribuiMoedas(Estado e) {
+        return repeticoes -> {
+            long soma = 0;
+            for (int r = 0; r < repeticoes; r++) {
+                e.simulacao.distribuiMoedas(100, r);
+                Random aleatorio = new Random(r);
+                for (int i = 0; i < 100; i++) {
+                    int x = aleatorio.nextInt(e.mapa.getNumColunas());
+                    int y = aleatorio.nextInt(e.mapa.getNumLinhas());
+                    if ((e.mapa.getFlags(x, y) & TiposCelula.COLETAVEL) != 0) {
+                        e.mapa.apagaElemento(x, y);
+                        soma++;
+                    }
+                }
+            }
+            return soma;
+        };
+    }
+
+    private static Operacao generateMaze(Estado e) {
+        return repeticoes -> {
+            long soma = 0;
+            for (int r = 0; r < repeticoes; r++)
+                soma += MazeGenerator.generateMaze()[1][1];
+            return soma;
+        };
+    }
+
+    // Redesenha uma janela de 800x600 ao redor do personagem em uma imagem fora da tela
+    private static Operacao desenhaMapa(Estado e) {
+        int tamanhoCelula = 10;
+        Font fonte = new Font("Roboto", Font.BOLD, tamanhoCelula / 10 * 12);
+        RenderizadorMapa renderizador = new RenderizadorMapa(e.mapa, new Color(192, 192, 192, 150));
+        renderizador.setAtlas(new AtlasTiles(fonte, tamanhoCelula, new Color(192, 192, 192, 150)));
+        BufferedImage imagem = new BufferedImage(800, 600, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = imagem.createGraphics();
+        g.setFont(fonte);
+        int x0 = Math.max(0, e.mapa.getPosX() - 400);
+        int y0 = Math.max(0, e.mapa.getPosY() - 300);
+        g.translate(-x0, -y0);
+        g.setClip(x0, y0, 800, 600);
+        return repeticoes -> {
+            for (int r = 0; r < repeticoes; r++)
+                renderizador.desenha(g);
+            return imagem.getRGB(0, 0);
+        };
+    }
+
+    private static Operacao executaTick(Estado e) {
+        return repeticoes -> {
+            for (int r = 0; r < repeticoes; r++)
+                e.simulacao.executaTick();
+            return e.simulacao.getNumTicks();
+        };
+    }
+
+    // Paredes e personagem do mapa de geraMapa, antes dos inimigos
+    private static char[][] geraParedes(int tamanho, SplittableRandom aleatorio) {
+        char[][] celulas = new char[tamanho][tamanho];
+        for (char[] linha : celulas) {
+            for (int x = 0; x < tamanho; x++)
+                linha[x] = aleatorio.nextInt(5) == 0 ? '#' : ' ';
+        }
+        celulas[tamanho / 2][tamanho / 2] = 'P';
+        celulas[tamanho / 2][tamanho / 2 + 1] = ' ';
+        return celulas;
+    }
+
+    // Células vazias do mapa de geraMapa antes de colocar os inimigos, para validar os parâmetros
+    // antes de gerá-lo
+    static int celulasLivres(int tamanho, long semente) {
+        int livres = 0;
+        for (char[] linha : geraParedes(tamanho, new SplittableRandom(semente))) {
+            for (char c : linha) {
+                if (c == ' ')
+                    livres++;
+            }
+        }
+        return livres;
+    }
+
+    // Mapa quadrado com 20% de paredes, 'numAtores' inimigos e o personagem no centro
+    static File geraMapa(int tamanho, int numAtores, long semente) throws IOException {
+        int livres = celulasLivres(tamanho, semente);
+        if (numAtores > livres)
+            throw new IllegalArgumentException(numAtores + " inimigos não cabem nas " + livres
+                    + " células livres do mapa " + tamanho + "x" + tamanho);
+        SplittableRandom aleatorio = new SplittableRandom(semente);
+        char[][] celulas = geraParedes(tamanho, aleatorio);
+        for (int i = 0; i < numAtores; ) {
+            int x = aleatorio.nextInt(tamanho);
+            int y = aleatorio.nextInt(tamanho);
+            if (celulas[y][x] == ' ') {
+                celulas[y][x] = 'I';
+                i++;
+            }
+        }
+        File arquivo = File.createTempFile("bancada", ".txt");
+        try (BufferedWriter saida = new BufferedWriter(new FileWriter(arquivo))) {
+            for (char[] linha : celulas) {
+                saida.write(linha);
+                saida.newLine();
+            }
+        }
+        return arquivo;
+    }
+
+    // Executa as iterações de um caso e retorna {média, desvio padrão} em ns por operação
+    private static double[] mede(Operacao operacao) {
+        // Calibra o lote para durar cerca de DURACAO_LOTE
+        int lote = 1;
+        while (true) {
+            long inicio = System.nanoTime();
+            sumidouro += operacao.executa(lote);
+            if (System.nanoTime() - inicio >= DURACAO_LOTE || lote >= 1 << 24)
+                break;
+            lote *= 2;
+        }
+
+        double[] medias = new double[ITERACOES_MEDICAO];
+        for (int it = -ITERACOES_AQUECIMENTO; it < ITERACOES_MEDICAO; it++) {
+            long operacoes = 0;
+            long inicio = System.nanoTime();
+            long decorrido;
+            do {
+                sumidouro += operacao.executa(lote);
+                operacoes += lote;
+                decorrido = System.nanoTime() - inicio;
+            } while (decorrido < DURACAO_ITERACAO);
+            if (it >= 0)
+                medias[it] = (double) decorrido / operacoes;
+        }
+
+        double media = 0;
+        for (double m : medias)
+            media += m;
+        media /= medias.length;
+        double variancia = 0;
+        for (double m : medias)
+            variancia += (m - media) * (m - media);
+        return new double[]{media, Math.sqrt(variancia / (medias.length - 1))};
+    }
+
+    static int[] leLista(String valor) {
+        String[] partes = valor.split(",");
+        int[] numeros = new int[partes.length];
+        for (int i = 0; i < partes.length; i++)
+            numeros[i] = Integer.parseInt(partes[i].trim());
+        return numeros;
+    }
+
+    // Casos selecionados pelo filtro: o de nome igual a ele ou, se não houver, os que o contêm
+    private static List<Integer> selecionaCasos(String filtro) {
+        List<Integer> casos = new ArrayList<>();
+        for (int c = 0; c < NOMES.length; c++) {
+            if (NOMES[c].equals(filtro))
+                return List.of(c);
+            if (NOMES[c].contains(filtro))
+                casos.add(c);
+        }
+        return casos;
+    }
+
+    // Mede o caso nesta JVM, sobre um Estado novo, e retorna a linha do resultado
+    private static String medeAqui(int caso, int tamanho, int numAtores) throws IOException {
+        Estado estado = new Estado(tamanho, numAtores);
+        try {
+            double[] resultado = mede(CASOS[caso].prepara(estado));
+            return String.format(Locale.ROOT, "%-26s %8d %8d %14.1f ± %.1f",
+                    NOMES[caso], tamanho, numAtores, resultado[0], resultado[1]);
+        } finally {
+            estado.simulacao.encerra();
+        }
+    }
+
+    // Mede o caso em uma JVM filha, que executa "Bancada <caso> -tamanhos N -atores M -mesma-jvm"
+    // com o classpath e as opções da JVM atual, e retorna as linhas de resultado que ela escreveu
+    private static List<String> medeEmFilha(int caso, int tamanho, int numAtores)
+            throws IOException, InterruptedException {
+        List<String> comando = new ArrayList<>();
+        comando.add(new File(System.getProperty("java.home"), "bin" + File.separator + "java").getPath());
+        comando.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        comando.add("-cp");
+        comando.add(System.getProperty("java.class.path"));
+        comando.add(Bancada.class.getName());
+        comando.add(NOMES[caso]);
+        comando.add("-tamanhos");
+        comando.add(String.valueOf(tamanho));
+        comando.add("-atores");
+        comando.add(String.valueOf(numAtores));
+        comando.add("-mesma-jvm");
+        Process filha = new ProcessBuilder(comando).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+
+        List<String> linhas = new ArrayList<>();
+        try (BufferedReader entrada = new BufferedReader(new InputStreamReader(filha.getInputStream()))) {
+            entrada.readLine(); // Cabeçalho
+            for (String linha = entrada.readLine(); linha != null; linha = entrada.readLine())
+                linhas.add(linha);
+        }
+        int codigo = filha.waitFor();
+        if (codigo != 0)
+            throw new IOException("JVM filha de " + NOMES[caso] + " terminou com código " + codigo);
+        return linhas;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String filtro = "";
+        int[] tamanhos = {256, 1024};
+        int[] atores = {0, 1000};
+        boolean mesmaJvm = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-tamanhos":
+                    tamanhos = leLista(args[++i]);
+                    break;
+                case "-atores":
+                    atores = leLista(args[++i]);
+                    break;
+                case "-mesma-jvm":
+                    mesmaJvm = true;
+                    break;
+                default:
+                    filtro = args[i];
+            }
+        }
+        // Os casos escolhem posições entre as células que ficam vazias: ao menos uma deve sobrar
+        for (int tamanho : tamanhos) {
+            int livres = celulasLivres(tamanho, 42);
+            for (int numAtores : atores) {
+                if (numAtores >= livres) {
+                    System.err.println("-atores " + numAtores + ": o mapa " + tamanho + "x" + tamanho
+                            + " tem só " + livres + " células livres");
+                    System.exit(2);
+                }
+            }
+        }
+
+        List<String> resultados = new ArrayList<>();
+        for (int tamanho : tamanhos) {
+            for (int numAtores : atores) {
+                for (int caso : selecionaCasos(filtro)) {
+                    if (mesmaJvm)
+                        resultados.add(medeAqui(caso, tamanho, numAtores));
+                    else
+                        resultados.addAll(medeEmFilha(caso, tamanho, numAtores));
+                }
+            }
+        }
+
+        System.out.println(String.format("%-26s %8s %8s %14s", "Caso", "Tamanho", "Atores", "ns/op"));
+        for (String linha : resultados)
+            System.out.println(linha);
+    }
+}
@@ -0,0 +1,143 @@
+import java.util.Arrays;
+
+// Busca A* para alvos individuais de um inimigo, com número de nós limitado. Trabalha apenas com
+// vetores primitivos sobre uma janela de (2 * raio + 1)² células ao redor da origem, reutilizados
+// entre buscas; por isso cada thread deve usar sua própria instância.
+public class BuscaCaminho {
+    private static final Direcao[] DIRECOES = Direcao.values();
+    private static final int[] DX = {0, 0, -1, 1}; // Na ordem de Direcao: CIMA, BAIXO, ESQUERDA, DIREITA
+    private static final int[] DY = {-1, 1, 0, 0};
+
+    private final int raio;
+    private final int lado;
+    private final int maxNos; // Máximo de nós expandidos por busca
+    private final int[] custo; // Passos desde a origem
+    private final int[] vistoEm; // Geração da busca em que o nó recebeu custo
+    private final int[] fechadoEm; // Geração da busca em que o nó foi expandido
+    private final byte[] primeiroPasso; // Direção (índice + 1) do primeiro passo no melhor caminho até o nó
+    private final int[] heapNo; // Fila de prioridade (heap binário) com entradas repetidas permitidas
+    private final int[] heapPrioridade;
+    private int tamanhoHeap;
+    private int geracao;
+
+    public BuscaCaminho(int raio, int maxNos) {
+        this.raio = raio;
+        this.lado = 2 * raio + 1;
+        this.maxNos = maxNos;
+        int numCelulas = lado * lado;
+        custo = new int[numCelulas];
+        vistoEm = new int[numCelulas];
+        fechadoEm = new int[numCelulas];
+        primeiroPasso = new byte[numCelulas];
+        heapNo = new int[4 * maxNos + 1];
+        heapPrioridade = new int[4 * maxNos + 1];
+    }
+
+    // Retorna a direção do primeiro passo do menor caminho de (xOrigem, yOrigem) até (xDestino, yDestino);
+    // nula se o destino está fora da janela, é a própria origem ou não foi alcançado dentro do limite de nós
+    public Direcao primeiroPasso(Mapa mapa, int xOrigem, int yOrigem, int xDestino, int yDestino) {
+        int x0 = xOrigem - raio;
+        int y0 = yOrigem - raio;
+        int destino = indice(x0, y0, xDestino, yDestino);
+        int origem = indice(x0, y0, xOrigem, yOrigem);
+        if (destino < 0 || destino == origem)
+            return null;
+
+        novaGeracao();
+        tamanhoHeap = 0;
+        custo[origem] = 0;
+        vistoEm[origem] = geracao;
+        insere(origem, heuristica(xOrigem, yOrigem, xDestino, yDestino));
+
+        int expandidos = 0;
+        while (tamanhoHeap > 0) {
+            int atual = removeMinimo();
+            if (fechadoEm[atual] == geracao)
+                continue;
+            fechadoEm[atual] = geracao;
+            if (atual == destino)
+                return DIRECOES[primeiroPasso[atual] - 1];
+            if (++expandidos > maxNos)
+                return null;
+
+            int cx = x0 + atual % lado;
+            int cy = y0 + atual / lado;
+            for (int d = 0; d < 4; d++) {
+                int nx = cx + DX[d];
+                int ny = cy + DY[d];
+                int vizinho = indice(x0, y0, nx, ny);
+                if (vizinho < 0 || fechadoEm[vizinho] == geracao)
+                    continue;
+                if (vizinho != destino && !mapa.estaLivreParaEntidade(nx, ny))
+                    continue;
+                int novoCusto = custo[atual] + 1;
+                if (vistoEm[vizinho] == geracao && custo[vizinho] <= novoCusto)
+                    continue;
+                if (tamanhoHeap == heapNo.length)
+                    return null;
+                vistoEm[vizinho] = geracao;
+                custo[vizinho] = novoCusto;
+                primeiroPasso[vizinho] = atual == origem ? (byte) (d + 1) : primeiroPasso[atual];
+                insere(vizinho, novoCusto + heuristica(nx, ny, xDestino, yDestino));
+            }
+        }
+        return null;
+    }
+
+    private int indice(int x0, int y0, int x, int y) {
+        int dx = x - x0;
+        int dy = y - y0;
+        if (dx < 0 || dx >= lado || dy < 0 || dy >= lado)
+            return -1;
+        return dy * lado + dx;
+    }
+
+    private static int heuristica(int x, int y, int xDestino, int yDestino) {
+        return Math.abs(xDestino - x) + Math.abs(yDestino - y);
+    }
+
+    // As marcas de geração evitam limpar os vetores a cada busca
+    private void novaGeracao() {
+        if (++geracao == Integer.MAX_VALUE) {
+            Arrays.fill(vistoEm, 0);
+            Arrays.fill(fechadoEm, 0);
+            geracao = 1;
+        }
+    }
+
+    private void insere(int no, int prioridade) {
+        int i = tamanhoHeap++;
+        while (i > 0) {
+            int pai = (i - 1) >>> 1;
+            if (heapPrioridade[pai] <= prioridade)
+                break;
+            heapNo[i] = heapNo[pai];
+            heapPrioridade[i] = heapPrioridade[pai];
+            i = pai;
+        }
+        heapNo[i] = no;
+        heapPrioridade[i] = prioridade;
+    }
+
+    private int removeMinimo() {
+        int minimo = heapNo[0];
+        int no = heapNo[--tamanhoHeap];
+        int prioridade = heapPrioridade[tamanhoHeap];
+        int i = 0;
+        while (true) {
+            int filho = 2 * i + 1;
+            if (filho >= tamanhoHeap)
+                break;
+            if (filho + 1 < tamanhoHeap && heapPrioridade[filho + 1] < heapPrioridade[filho])
+                filho++;
+            if (heapPrioridade[filho] >= prioridade)
+                break;
+            heapNo[i] = heapNo[filho];
+            heapPrioridade[i] = heapPrioridade[filho];
+            i = filho;
+        }
+        heapNo[i] = no;
+        heapPrioridade[i] = prioridade;
+        return minimo;
+    }
+}
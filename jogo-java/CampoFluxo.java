@@ -0,0 +1,229 @@
+import java.util.Arrays;
+
+// Campo de fluxo compartilhado por todos os inimigos: uma busca em largura a partir da célula
+// do alvo (o personagem local ou um jogador em rede), limitada a uma janela que cobre ao menos
+// alcance células em cada direção, guarda para cada célula a distância até o alvo. O passo de
+// um inimigo é o vizinho um passo mais perto, uma consulta O(1) a quatro distâncias. O campo é
+// atualizado uma única vez a cada movimento do alvo, pela primeira thread que o consultar
+// depois do movimento.
+//
+// Quando o alvo anda uma célula, o campo é reparado a partir do anterior em vez de recalculado:
+// como a grade é bipartida, a distância de cada célula muda exatamente ±1. Diminuem só as
+// células cujo caminho até o alvo antigo passava pelo novo, encontradas por uma busca a partir
+// do novo alvo que segue as distâncias antigas crescentes; todas as outras aumentam 1, o que é
+// guardado em um deslocamento comum. Para isso a janela fica parada enquanto o alvo não se
+// afasta mais de MARGEM células do centro. A busca completa é refeita ao sair da margem, quando
+// o alvo salta, quando uma célula da janela foi alterada (RegistroCelulas) e a cada MAX_REPAROS
+// reparos, o que também limita a defasagem de obstáculos que se moveram.
+//
+// As respostas não dependem do histórico de reparos: o passo é escolhido só pelas distâncias e
+// pela posição do alvo, e as consultas só vão até 'alcance' passos, distância em que os
+// caminhos mais curtos cabem em qualquer janela que contenha o alvo. Assim uma partida
+// restaurada (ver SalvamentoMundo) segue os mesmos caminhos que seguiria sem interrupção.
+public class CampoFluxo {
+    private static final Direcao[] DIRECOES = Direcao.values();
+    private static final int[] DX = {0, 0, -1, 1}; // Na ordem de Direcao: CIMA, BAIXO, ESQUERDA, DIREITA
+    private static final int[] DY = {-1, 1, 0, 0};
+    private static final int INALCANCAVEL = Integer.MIN_VALUE;
+    private static final int MARGEM = 8; // Quanto o alvo anda antes de a janela ser recentralizada
+    private static final int MAX_REPAROS = 32;
+
+    // Resultado imutável de um cálculo, publicado de uma só vez para leitura sem trava
+    private static final class Fluxo {
+        final int alvoX, alvoY;
+        final int x0, y0; // Canto superior esquerdo da janela
+        final int[] distancia; // Distância - deslocamento; INALCANCAVEL se inalcançável
+        final int deslocamento;
+        final int reparos; // Reparos desde a última busca completa
+        final long sequencia; // Alterações do mapa já consideradas
+
+        Fluxo(int alvoX, int alvoY, int x0, int y0, int[] distancia, int deslocamento, int reparos,
+              long sequencia) {
+            this.alvoX = alvoX;
+            this.alvoY = alvoY;
+            this.x0 = x0;
+            this.y0 = y0;
+            this.distancia = distancia;
+            this.deslocamento = deslocamento;
+            this.reparos = reparos;
+            this.sequencia = sequencia;
+        }
+    }
+
+    private final Mapa mapa;
+    private final Jogador jogador; // Alvo do campo; nulo para o personagem local
+    private final int alcance;
+    private final int raio; // Metade do lado da janela: alcance mais a margem
+    private final int lado;
+    private final int[] fila; // Fila das buscas em largura, reutilizada entre cálculos
+    private volatile Fluxo fluxo;
+    private volatile long numCalculos;
+    private volatile long numReparos;
+
+    public CampoFluxo(Mapa mapa, int alcance) {
+        this(mapa, alcance, null);
+    }
+
+    // Campo até um jogador em rede; ele só se move entre as fases dos inimigos
+    public CampoFluxo(Mapa mapa, int alcance, Jogador jogador) {
+        this.mapa = mapa;
+        this.jogador = jogador;
+        this.alcance = alcance;
+        this.raio = alcance + MARGEM;
+        this.lado = 2 * raio + 1;
+        this.fila = new int[lado * lado];
+    }
+
+    public int getAlcance() {
+        return alcance;
+    }
+
+    // Atualizações do campo, completas ou reparos
+    public long getNumCalculos() {
+        return numCalculos;
+    }
+
+    public long getNumReparos() {
+        return numReparos;
+    }
+
+    // Direção do próximo passo de (x, y) em direção ao alvo; nula se a mais de 'alcance' passos,
+    // sem caminho ou já na célula do alvo. Entre os vizinhos um passo mais perto, fica o primeiro,
+    // na ordem de Direcao, no eixo em que o alvo está mais perto (o horizontal no empate): o
+    // inimigo se alinha com o alvo e segue reto até ele
+    public Direcao direcao(int x, int y) {
+        Fluxo f = atual();
+        int indice = indice(f, x, y);
+        if (indice < 0 || f.distancia[indice] == INALCANCAVEL)
+            return null;
+        int distancia = f.distancia[indice] + f.deslocamento;
+        if (distancia == 0 || distancia > alcance)
+            return null;
+        int primeira = Math.abs(x - f.alvoX) <= Math.abs(y - f.alvoY) ? 2 : 0; // ESQUERDA ou CIMA
+        for (int k = 0; k < 4; k++) {
+            int d = (primeira + k) & 3;
+            int vizinho = indice(f, x + DX[d], y + DY[d]);
+            if (vizinho >= 0 && f.distancia[vizinho] == f.distancia[indice] - 1)
+                return DIRECOES[d];
+        }
+        return null;
+    }
+
+    // Distância em passos de (x, y) até o alvo; -1 se maior que 'alcance' ou sem caminho
+    public int distancia(int x, int y) {
+        Fluxo f = atual();
+        int indice = indice(f, x, y);
+        if (indice < 0 || f.distancia[indice] == INALCANCAVEL || f.distancia[indice] + f.deslocamento > alcance)
+            return -1;
+        return f.distancia[indice] + f.deslocamento;
+    }
+
+    private int indice(Fluxo f, int x, int y) {
+        int dx = x - f.x0;
+        int dy = y - f.y0;
+        if (dx < 0 || dx >= lado || dy < 0 || dy >= lado)
+            return -1;
+        return dy * lado + dx;
+    }
+
+    // Retorna o campo para a posição atual do alvo, reparando-o ou recalculando-o se ele se moveu
+    private Fluxo atual() {
+        int alvoX = jogador != null ? jogador.getX() : mapa.getColunaPersonagem();
+        int alvoY = jogador != null ? jogador.getY() : mapa.getLinhaPersonagem();
+        Fluxo f = fluxo;
+        if (f != null && f.alvoX == alvoX && f.alvoY == alvoY)
+            return f;
+        synchronized (this) {
+            f = fluxo;
+            if (f == null || f.alvoX != alvoX || f.alvoY != alvoY) {
+                long sequencia = mapa.getAlteracoes().getSequencia();
+                if (podeReparar(f, alvoX, alvoY, sequencia)) {
+                    f = repara(f, alvoX, alvoY, sequencia);
+                    numReparos++;
+                } else {
+                    f = calcula(alvoX, alvoY, sequencia);
+                }
+                fluxo = f;
+                numCalculos++;
+            }
+            return f;
+        }
+    }
+
+    // O reparo vale se o alvo andou uma célula sem sair da margem, a célula antiga continua livre
+    // (os caminhos passam a atravessá-la) e nenhuma célula da janela mudou desde o campo anterior
+    private boolean podeReparar(Fluxo f, int alvoX, int alvoY, long sequencia) {
+        if (f == null || f.reparos >= MAX_REPAROS || Math.abs(alvoX - f.alvoX) + Math.abs(alvoY - f.alvoY) != 1)
+            return false;
+        if (Math.abs(alvoX - (f.x0 + raio)) > MARGEM || Math.abs(alvoY - (f.y0 + raio)) > MARGEM)
+            return false;
+        int indice = indice(f, alvoX, alvoY);
+        if (f.distancia[indice] + f.deslocamento != 1 || !mapa.estaLivreParaEntidade(f.alvoX, f.alvoY))
+            return false;
+
+        if (sequencia == f.sequencia)
+            return true;
+        RegistroCelulas alteracoes = mapa.getAlteracoes();
+        synchronized (alteracoes) {
+            if (!alteracoes.contem(f.sequencia))
+                return false;
+            for (long s = f.sequencia; s < sequencia; s++) {
+                if (indice(f, alteracoes.getX(s), alteracoes.getY(s)) >= 0)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    // Campo do alvo em (alvoX, alvoY), vizinho do alvo de f, sem refazer a busca na janela inteira
+    private Fluxo repara(Fluxo f, int alvoX, int alvoY, long sequencia) {
+        Fluxo novo = new Fluxo(alvoX, alvoY, f.x0, f.y0, f.distancia.clone(), f.deslocamento + 1, f.reparos + 1,
+                sequencia);
+        int origem = indice(f, alvoX, alvoY);
+        novo.distancia[origem] -= 2;
+
+        // As células que se aproximam do alvo são as alcançadas a partir dele por passos em que a
+        // distância antiga cresce 1
+        int inicio = 0, fim = 0;
+        fila[fim++] = origem;
+        while (inicio < fim) {
+            int atual = fila[inicio++];
+            int cx = f.x0 + atual % lado;
+            int cy = f.y0 + atual / lado;
+            for (int d = 0; d < 4; d++) {
+                int vizinho = indice(f, cx + DX[d], cy + DY[d]);
+                if (vizinho < 0 || f.distancia[vizinho] != f.distancia[atual] + 1
+                        || novo.distancia[vizinho] != f.distancia[vizinho])
+                    continue;
+                novo.distancia[vizinho] -= 2;
+                fila[fim++] = vizinho;
+            }
+        }
+        return novo;
+    }
+
+    private Fluxo calcula(int alvoX, int alvoY, long sequencia) {
+        Fluxo f = new Fluxo(alvoX, alvoY, alvoX - raio, alvoY - raio, new int[lado * lado], 0, 0, sequencia);
+        Arrays.fill(f.distancia, INALCANCAVEL);
+        int origem = indice(f, alvoX, alvoY);
+        f.distancia[origem] = 0;
+
+        int inicio = 0, fim = 0;
+        fila[fim++] = origem;
+        while (inicio < fim) {
+            int atual = fila[inicio++];
+            int cx = f.x0 + atual % lado;
+            int cy = f.y0 + atual / lado;
+            for (int d = 0; d < 4; d++) {
+                int nx = cx + DX[d];
+                int ny = cy + DY[d];
+                int vizinho = indice(f, nx, ny);
+                if (vizinho < 0 || f.distancia[vizinho] != INALCANCAVEL || !mapa.estaLivreParaEntidade(nx, ny))
+                    continue;
+                f.distancia[vizinho] = f.distancia[atual] + 1;
+                fila[fim++] = vizinho;
+            }
+        }
+        return f;
+    }
+}
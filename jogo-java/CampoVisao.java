@@ -0,0 +1,166 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Campo de visão com linha de visada real: sombreamento recursivo (recursive shadowcasting)
+// nos oito octantes, em que elementos que não podem ser atravessados (ex.: Parede) bloqueiam
+// a visão. O resultado de cada posição fica em cache no chunk e só é descartado quando um
+// elemento opaco muda dentro do raio.
+//
+// O campo é um quadrado de (2 * raio + 1)² células centrado na origem, guardado como bitset:
+// o bit (dy * lado + dx) indica se a célula (x - raio + dx, y - raio + dy) é visível.
+public class CampoVisao {
+    // Multiplicadores que levam o octante base para cada um dos oito octantes
+    private static final int[] XX = {1, 0, 0, -1, -1, 0, 0, 1};
+    private static final int[] XY = {0, 1, -1, 0, 0, -1, 1, 0};
+    private static final int[] YX = {0, 1, 1, 0, 0, -1, -1, 0};
+    private static final int[] YY = {1, 0, 0, 1, -1, 0, 0, -1};
+
+    private static final VarHandle VISAO = MethodHandles.arrayElementVarHandle(long[][].class);
+
+    private final Mapa mapa;
+    private final int raio;
+    private final int lado;
+    private final AtomicLong versao = new AtomicLong(); // Incrementada a cada invalidação
+
+    public CampoVisao(Mapa mapa, int raio) {
+        if (raio > 31)
+            throw new IllegalArgumentException("Raio de visão máximo é 31");
+        this.mapa = mapa;
+        this.raio = raio;
+        this.lado = 2 * raio + 1;
+    }
+
+    public int getRaio() {
+        return raio;
+    }
+
+    // Retorna o campo de visão a partir de (x, y), calculando-o apenas se não estiver em cache.
+    // O vetor retornado é compartilhado e não deve ser modificado
+    public long[] calcula(int x, int y) {
+        Chunk chunk = mapa.getChunk(x >> Chunk.BITS, y >> Chunk.BITS);
+        long[][] cache = cacheDo(chunk);
+        int indice = Chunk.indice(x, y);
+        long[] visao = (long[]) VISAO.getAcquire(cache, indice);
+        if (visao != null)
+            return visao;
+
+        long versaoInicial = versao.get();
+        visao = new long[(lado * lado + 63) / 64];
+        marca(visao, raio, raio);
+        for (int octante = 0; octante < 8; octante++)
+            projetaLuz(visao, x, y, 1, 1.0, 0.0, XX[octante], XY[octante], YX[octante], YY[octante]);
+
+        VISAO.setRelease(cache, indice, visao);
+        // Se uma parede mudou durante o cálculo, o resultado pode estar desatualizado
+        if (versao.get() != versaoInicial)
+            VISAO.setRelease(cache, indice, (long[]) null);
+        return visao;
+    }
+
+    // Verifica se a célula alvo está no campo de visão da origem
+    public boolean estaVisivel(int xOrigem, int yOrigem, int xAlvo, int yAlvo) {
+        int dx = xAlvo - xOrigem + raio;
+        int dy = yAlvo - yOrigem + raio;
+        if (dx < 0 || dx >= lado || dy < 0 || dy >= lado)
+            return false;
+        int bit = dy * lado + dx;
+        return (calcula(xOrigem, yOrigem)[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    // Retorna os bits da linha dy (0 a 2 * raio) do campo: o bit dx indica a célula (x - raio + dx)
+    public long linha(long[] visao, int dy) {
+        int inicio = dy * lado;
+        int palavra = inicio >>> 6;
+        int deslocamento = inicio & 63;
+        long bits = visao[palavra] >>> deslocamento;
+        if (deslocamento + lado > 64)
+            bits |= visao[palavra + 1] << (64 - deslocamento);
+        return bits & (-1L >>> (64 - lado));
+    }
+
+    // Descarta os campos em cache que podem enxergar a célula (x, y), cuja opacidade mudou
+    public void invalida(int x, int y) {
+        versao.incrementAndGet();
+        for (int py = y - raio; py <= y + raio; py++) {
+            for (int px = x - raio; px <= x + raio; px++) {
+                Chunk chunk = mapa.getChunkCarregado(px, py);
+                if (chunk == null)
+                    continue;
+                long[][] cache = chunk.visao;
+                if (cache != null)
+                    VISAO.setRelease(cache, Chunk.indice(px, py), (long[]) null);
+            }
+        }
+    }
+
+    // Descarta todo o cache (ex.: quando um tipo de elemento é registrado)
+    public void invalidaTudo() {
+        versao.incrementAndGet();
+        mapa.paraCadaChunkCarregado(chunk -> chunk.visao = null);
+    }
+
+    private static long[][] cacheDo(Chunk chunk) {
+        long[][] cache = chunk.visao;
+        if (cache == null) {
+            synchronized (chunk) {
+                cache = chunk.visao;
+                if (cache == null) {
+                    cache = new long[Chunk.NUM_CELULAS][];
+                    chunk.visao = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    private void marca(long[] visao, int dx, int dy) {
+        int bit = dy * lado + dx;
+        visao[bit >>> 6] |= 1L << bit;
+    }
+
+    private boolean opaco(int x, int y) {
+        return mapa.ehOpaco(x, y);
+    }
+
+    // Percorre as linhas do octante a partir da linha 'linha', entre as inclinações inicio e fim
+    private void projetaLuz(long[] visao, int cx, int cy, int linha, double inicio, double fim,
+                            int xx, int xy, int yx, int yy) {
+        if (inicio < fim)
+            return;
+        double novoInicio = 0;
+        for (int j = linha; j <= raio; j++) {
+            boolean bloqueado = false;
+            for (int dx = -j, dy = -j; dx <= 0; dx++) {
+                int x = cx + dx * xx + dy * xy;
+                int y = cy + dx * yx + dy * yy;
+                double inclinacaoEsquerda = (dx - 0.5) / (dy + 0.5);
+                double inclinacaoDireita = (dx + 0.5) / (dy - 0.5);
+                if (inicio < inclinacaoDireita)
+                    continue;
+                if (fim > inclinacaoEsquerda)
+                    break;
+
+                boolean dentro = x >= 0 && x < mapa.getNumColunas() && y >= 0 && y < mapa.getNumLinhas();
+                if (dentro)
+                    marca(visao, x - cx + raio, y - cy + raio);
+
+                boolean bloqueia = !dentro || opaco(x, y);
+                if (bloqueado) {
+                    if (bloqueia) {
+                        novoInicio = inclinacaoDireita;
+                    } else {
+                        bloqueado = false;
+                        inicio = novoInicio;
+                    }
+                } else if (bloqueia && j < raio) {
+                    bloqueado = true;
+                    projetaLuz(visao, cx, cy, j + 1, inicio, inclinacaoEsquerda, xx, xy, yx, yy);
+                    novoInicio = inclinacaoDireita;
+                }
+            }
+            if (bloqueado)
+                break;
+        }
+    }
+}
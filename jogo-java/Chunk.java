@@ -0,0 +1,91 @@
+import java.util.Arrays;
+
+// Bloco quadrado de LADO x LADO células do mapa; é a unidade de carregamento sob demanda
+public class Chunk {
+    public static final int BITS = 5;
+    public static final int LADO = 1 << BITS;
+    public static final int MASCARA = LADO - 1;
+    public static final int NUM_CELULAS = LADO * LADO;
+    public static final int BYTES_ESTIMADOS = NUM_CELULAS * (2 + 4) + NUM_CELULAS / 8 + 64; // Sem o cache de visão
+
+    final char[] celulas = new char[NUM_CELULAS]; // Identificador (símbolo) de cada célula
+    final int[] entidades = new int[NUM_CELULAS]; // Entidade que ocupa cada célula; 0 se nenhuma
+    final long[] revelado = new long[NUM_CELULAS / 64]; // Bitset das células já reveladas na névoa
+    volatile long[][] visao; // Cache do campo de visão de cada célula (ver CampoVisao); criado sob demanda
+    long ultimoUso; // Passagem de descarte em que esteve junto a uma âncora (ver Mapa.descartaChunks)
+    boolean modificado; // Alterado desde que foi gerado ou lido; precisa ser guardado ao ser descartado
+
+    // Cópia na escrita para o salvamento em segundo plano (ver SalvamentoMundo): marcado na
+    // captura, o chunk é copiado antes da primeira alteração seguinte, e o salvamento grava a
+    // cópia; se nada mudou até o salvamento chegar a ele, grava o próprio conteúdo
+    volatile boolean salvamentoPendente;
+    private char[] copiaCelulas;
+    private long[] copiaRevelado;
+
+    public Chunk() {
+        Arrays.fill(celulas, ' ');
+    }
+
+    // Posição da célula (x, y) do mapa dentro do seu chunk
+    public static int indice(int x, int y) {
+        return ((y & MASCARA) << BITS) | (x & MASCARA);
+    }
+
+    // Deve ser chamado antes de cada alteração de 'celulas' ou 'revelado'
+    void antesDeAlterar() {
+        if (salvamentoPendente)
+            preservaParaSalvamento();
+    }
+
+    private synchronized void preservaParaSalvamento() {
+        if (!salvamentoPendente)
+            return;
+        copiaCelulas = celulas.clone();
+        copiaRevelado = revelado.clone();
+        salvamentoPendente = false;
+    }
+
+    // Copia para os vetores o conteúdo do momento da captura e encerra o salvamento deste chunk
+    synchronized void copiaParaSalvamento(char[] celulasSalvas, long[] reveladoSalvo) {
+        boolean preservado = !salvamentoPendente && copiaCelulas != null;
+        System.arraycopy(preservado ? copiaCelulas : celulas, 0, celulasSalvas, 0, NUM_CELULAS);
+        System.arraycopy(preservado ? copiaRevelado : revelado, 0, reveladoSalvo, 0, revelado.length);
+        descartaSalvamento();
+    }
+
+    synchronized void descartaSalvamento() {
+        salvamentoPendente = false;
+        copiaCelulas = null;
+        copiaRevelado = null;
+    }
+
+    boolean estaRevelado(int indice) {
+        return (revelado[indice >>> 6] & (1L << indice)) != 0;
+    }
+
+    // Máscara das células de x0 a x1 (coordenadas locais) da linha y dentro da sua palavra do bitset.
+    // Como LADO <= 64, uma linha do chunk nunca ocupa mais de uma palavra
+    private static long mascaraLinha(int x0, int x1, int y) {
+        int inicio = (y << BITS) & 63;
+        return (-1L >>> (63 - (x1 - x0))) << (inicio + x0);
+    }
+
+    // Revela as células da linha y cujos bits (x local) estão em 'bits'; retorna os bits,
+    // no mesmo formato, das células que ainda não estavam reveladas
+    long revelaLinha(long bits, int y) {
+        int palavra = (y << BITS) >>> 6;
+        int inicio = (y << BITS) & 63;
+        long mascara = bits << inicio;
+        long novas = mascara & ~revelado[palavra];
+        if (novas != 0) {
+            antesDeAlterar();
+            revelado[palavra] |= mascara;
+            modificado = true;
+        }
+        return novas >>> inicio;
+    }
+
+    int contaRevelados(int x0, int x1, int y) {
+        return Long.bitCount(revelado[(y << BITS) >>> 6] & mascaraLinha(x0, x1, y));
+    }
+}
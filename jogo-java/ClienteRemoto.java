@@ -0,0 +1,244 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Cliente de um Servidor: mantém uma cópia local do mapa, prevê os movimentos do próprio
+// jogador assim que são comandados (com a mesma regra do servidor, Mapa.podeMoverJogador) e
+// os reconcilia com o estado confirmado pelo servidor, reaplicando os comandos ainda não
+// processados. As demais entidades são interpoladas entre os dois últimos estados recebidos.
+//
+// Um atraso de ida opcional simula a latência da rede: comandos e confirmações saem, e
+// mensagens recebidas são processadas, 'atrasoMillis' depois.
+public class ClienteRemoto {
+    private static final int[] DX = {0, 0, -1, 1}; // Na ordem de Direcao: CIMA, BAIXO, ESQUERDA, DIREITA
+    private static final int[] DY = {-1, 1, 0, 0};
+
+    private final Mapa mapa;
+    private final SocketChannel canal;
+    private final long atrasoMillis;
+    private final ScheduledExecutorService atrasos;
+    private final DecodificadorEstado decodificador;
+    private final ByteBuffer envio = ByteBuffer.allocate(5);
+    private final Thread leitor;
+    private volatile boolean ativo = true;
+
+    // Predição: comandos enviados e ainda não aplicados pelo servidor
+    private final Direcao[] pendentes = new Direcao[Jogador.MAX_COMANDOS];
+    private int numEnviados;
+    private int numAplicados;
+    private int idEntidade; // 0 até receber BOAS_VINDAS
+    private long numCorrecoes; // Vezes em que a posição prevista divergiu do servidor
+
+    // Interpolação: os dois últimos quadros recebidos e os instantes (ns) em que chegaram
+    private final QuadroEstado anterior = new QuadroEstado();
+    private final QuadroEstado seguinte = new QuadroEstado();
+    private long instanteAnterior;
+    private long instanteSeguinte;
+
+    public ClienteRemoto(Mapa mapa, String host, int porta, long atrasoMillis) throws IOException {
+        this.mapa = mapa;
+        this.atrasoMillis = atrasoMillis;
+        this.decodificador = new DecodificadorEstado(mapa);
+        this.canal = SocketChannel.open(new InetSocketAddress(host, porta));
+        this.atrasos = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cliente-atraso");
+            t.setDaemon(true);
+            return t;
+        });
+        this.leitor = new Thread(this::lacoLeitura, "cliente-leitor");
+        leitor.setDaemon(true);
+        leitor.start();
+    }
+
+    public synchronized boolean estaConectado() {
+        return idEntidade != 0;
+    }
+
+    public synchronized int getNumMoedas() {
+        return decodificador.getQuadro() != null ? decodificador.getNumMoedas() : 0;
+    }
+
+    public synchronized int getVidas() {
+        return decodificador.getQuadro() != null ? decodificador.getVidas() : Simulacao.VIDAS_INICIAIS;
+    }
+
+    public synchronized int getNumPendentes() {
+        return numEnviados - numAplicados;
+    }
+
+    public synchronized long getNumCorrecoes() {
+        return numCorrecoes;
+    }
+
+    // Aplica o comando imediatamente na posição prevista e o envia ao servidor. Retorna false
+    // se já houver comandos demais sem confirmação; o comando é então descartado
+    public synchronized boolean move(Direcao direcao) {
+        if (idEntidade == 0 || numEnviados - numAplicados == pendentes.length)
+            return false;
+        pendentes[numEnviados % pendentes.length] = direcao;
+        numEnviados++;
+
+        int x = mapa.getColunaPersonagem() + DX[direcao.ordinal()];
+        int y = mapa.getLinhaPersonagem() + DY[direcao.ordinal()];
+        if (podeMover(x, y))
+            mapa.setPosicaoPersonagem(x, y);
+
+        byte comando = (byte) direcao.ordinal();
+        atrasa(() -> envia(comando, false, 0));
+        return true;
+    }
+
+    // Preenche as posições (em células, fracionárias) e símbolos das demais entidades no
+    // instante 'agora' (System.nanoTime), interpolando do quadro anterior para o seguinte ao
+    // longo do intervalo entre suas chegadas. Retorna quantas foram preenchidas
+    public synchronized int interpola(long agora, double[] xs, double[] ys, char[] simbolos) {
+        long intervalo = instanteSeguinte - instanteAnterior;
+        double alfa = intervalo <= 0 ? 1.0 : Math.min(1.0, Math.max(0.0, (double) (agora - instanteSeguinte) / intervalo));
+        int n = 0;
+        int i = 0;
+        for (int j = 0; j < seguinte.numEntidades && n < xs.length; j++) {
+            int id = seguinte.ids[j];
+            if (id == idEntidade)
+                continue;
+            while (i < anterior.numEntidades && anterior.ids[i] < id)
+                i++;
+            double x = seguinte.xs[j];
+            double y = seguinte.ys[j];
+            if (i < anterior.numEntidades && anterior.ids[i] == id) {
+                x = anterior.xs[i] + (x - anterior.xs[i]) * alfa;
+                y = anterior.ys[i] + (y - anterior.ys[i]) * alfa;
+            }
+            xs[n] = x;
+            ys[n] = y;
+            simbolos[n] = seguinte.simbolos[j];
+            n++;
+        }
+        return n;
+    }
+
+    public void encerra() {
+        ativo = false;
+        atrasos.shutdownNow();
+        try {
+            canal.close();
+        } catch (IOException e) {
+            Registrador.registra(Registrador.Nivel.ERRO, "Falha ao fechar a conexão com o servidor", e);
+        }
+    }
+
+    // A célula está livre pelas regras do servidor e não há outra entidade conhecida nela
+    private boolean podeMover(int x, int y) {
+        if (!mapa.podeMoverJogador(x, y))
+            return false;
+        for (int j = 0; j < seguinte.numEntidades; j++) {
+            if (seguinte.xs[j] == x && seguinte.ys[j] == y && seguinte.ids[j] != idEntidade)
+                return false;
+        }
+        return true;
+    }
+
+    private void atrasa(Runnable tarefa) {
+        if (atrasoMillis <= 0)
+            tarefa.run();
+        else
+            atrasos.schedule(tarefa, atrasoMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void envia(byte comando, boolean comTick, int tick) {
+        synchronized (envio) {
+            envio.clear();
+            envio.put(comando);
+            if (comTick)
+                envio.putInt(tick);
+            envio.flip();
+            try {
+                while (envio.hasRemaining())
+                    canal.write(envio);
+            } catch (IOException e) {
+                if (ativo)
+                    Registrador.registra(Registrador.Nivel.ERRO, "Falha ao enviar comando ao servidor", e);
+            }
+        }
+    }
+
+    private void lacoLeitura() {
+        ByteBuffer cabecalho = ByteBuffer.allocate(Protocolo.TAMANHO_CABECALHO);
+        ByteBuffer corpo = ByteBuffer.allocate(CodificadorEstado.TAMANHO_MAXIMO);
+        try {
+            while (ativo) {
+                cabecalho.clear();
+                leCompleto(cabecalho);
+                cabecalho.flip();
+                int tamanho = cabecalho.getInt();
+                byte tipo = cabecalho.get();
+                corpo.clear();
+                corpo.limit(tamanho - Protocolo.TAMANHO_CABECALHO);
+                leCompleto(corpo);
+                corpo.flip();
+                if (atrasoMillis <= 0) {
+                    processa(tipo, corpo);
+                } else {
+                    // Com atraso a mensagem precisa de uma cópia própria até ser processada
+                    ByteBuffer copia = ByteBuffer.allocate(corpo.remaining());
+                    copia.put(corpo).flip();
+                    atrasos.schedule(() -> processa(tipo, copia), atrasoMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+        } catch (IOException e) {
+            if (ativo)
+                Registrador.registra(Registrador.Nivel.ERRO, "Falha ao receber do servidor", e);
+        }
+    }
+
+    private void leCompleto(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (canal.read(buffer) < 0)
+                throw new EOFException("Conexão encerrada pelo servidor");
+        }
+    }
+
+    private synchronized void processa(byte tipo, ByteBuffer corpo) {
+        if (tipo == Protocolo.BOAS_VINDAS) {
+            idEntidade = corpo.getInt();
+            corpo.getInt(); // Colunas e linhas: o mapa local é carregado do mesmo arquivo
+            corpo.getInt();
+            mapa.setPosicaoPersonagem(corpo.getInt(), corpo.getInt());
+            return;
+        }
+        if (!decodificador.decodifica(tipo, corpo))
+            return;
+        int tick = decodificador.getUltimoTick();
+        atrasa(() -> envia(Protocolo.CONFIRMA, true, tick));
+
+        anterior.copiaDe(seguinte);
+        seguinte.copiaDe(decodificador.getQuadro());
+        instanteAnterior = instanteSeguinte;
+        instanteSeguinte = System.nanoTime();
+        reconcilia();
+    }
+
+    // Parte da posição confirmada pelo servidor e reaplica os comandos que ele ainda não processou
+    private void reconcilia() {
+        numAplicados = Math.max(numAplicados, Math.min(decodificador.getNumComandos(), numEnviados));
+        int x = decodificador.getX();
+        int y = decodificador.getY();
+        for (int k = numAplicados; k < numEnviados; k++) {
+            Direcao direcao = pendentes[k % pendentes.length];
+            int nx = x + DX[direcao.ordinal()];
+            int ny = y + DY[direcao.ordinal()];
+            if (podeMover(nx, ny)) {
+                x = nx;
+                y = ny;
+            }
+        }
+        if (x != mapa.getColunaPersonagem() || y != mapa.getLinhaPersonagem()) {
+            numCorrecoes++;
+            mapa.setPosicaoPersonagem(x, y);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Codifica o estado enviado a um cliente como diferença em relação ao último quadro que ele
+// confirmou (ver Protocolo). Os quadros enviados ficam em um anel; quando não há base
+// confirmada no anel, quando há alterações de células demais desde a base ou periodicamente,
+// o estado é enviado completo em um quadro-chave. Tanto a diferença quanto o quadro-chave se
+// limitam à área de interesse do jogador: a diferença leva as alterações de células dentro dela
+// e, inteiras, as células que entraram nela desde a base. Tudo é escrito no buffer de saída da
+// conexão, sem alocar memória por mensagem.
+//
+// Um codificador por conexão, usado pela thread do tick; apenas confirma() vem da thread de rede.
+public class CodificadorEstado {
+    private static final int NUM_QUADROS = 32;
+    private static final int INTERVALO_CHAVE = 64; // Ticks entre quadros-chave
+    private static final int MAX_CELULAS_DELTA = 256;
+    private static final int RAIO = Protocolo.RAIO_INTERESSE;
+    private static final int LADO = 2 * RAIO + 1;
+
+    private static final int MAX_AREAS = 4; // Uma área menos outra de mesmo tamanho: até 4 retângulos
+
+    // Limite de bytes de uma mensagem: cada varint ocupa no máximo 5 bytes, e as áreas enviadas
+    // somam no máximo LADO * LADO células
+    public static final int TAMANHO_MAXIMO = Protocolo.TAMANHO_CABECALHO + 5 * 7 + 2 + MAX_CELULAS_DELTA * 15
+            + 5 + MAX_AREAS * 5 * 4 + LADO * LADO * 10 + 2 + 2 * LADO * LADO * 15;
+
+    private final QuadroEstado[] quadros = new QuadroEstado[NUM_QUADROS];
+    private final QuadroEstado vazio = new QuadroEstado();
+    private volatile int confirmado;
+    private volatile boolean temConfirmacao;
+    private int ultimaChave;
+    private boolean temChave;
+    private long numChaves;
+    private long numDeltas;
+
+    public CodificadorEstado() {
+        for (int i = 0; i < NUM_QUADROS; i++)
+            quadros[i] = new QuadroEstado();
+    }
+
+    // Chamado quando o cliente confirma ter recebido o estado do tick
+    public void confirma(int tick) {
+        if (!temConfirmacao || tick - confirmado > 0) {
+            confirmado = tick;
+            temConfirmacao = true;
+        }
+    }
+
+    public long getNumChaves() {
+        return numChaves;
+    }
+
+    public long getNumDeltas() {
+        return numDeltas;
+    }
+
+    // Escreve em 'saida' o estado do tick para o jogador; 'vizinhos' é um vetor de trabalho
+    public void codifica(Mapa mapa, Jogador jogador, int tick, ByteBuffer saida, int[] vizinhos) {
+        RegistroCelulas alteracoes = mapa.getAlteracoes();
+        long sequencia = alteracoes.getSequencia();
+        QuadroEstado base = escolheBase(alteracoes, tick, sequencia);
+
+        QuadroEstado atual = quadros[Math.floorMod(tick, NUM_QUADROS)];
+        monta(mapa, jogador, atual, tick, sequencia, vizinhos);
+
+        int inicio = saida.position();
+        saida.putInt(0).put(base != null ? Protocolo.DELTA : Protocolo.QUADRO_CHAVE);
+        Protocolo.escreveVarint(saida, tick);
+        if (base != null)
+            Protocolo.escreveVarint(saida, tick - base.tick);
+        Protocolo.escreveVarint(saida, jogador.getX());
+        Protocolo.escreveVarint(saida, jogador.getY());
+        Protocolo.escreveVarint(saida, jogador.getNumMoedas());
+        Protocolo.escreveVarint(saida, jogador.getVidas());
+        Protocolo.escreveVarint(saida, jogador.getNumComandos());
+
+        if (base != null) {
+            escreveAlteracoes(alteracoes, base.sequenciaCelulas, sequencia, atual, saida);
+            escreveEntradas(mapa, base, atual, saida);
+            escreveEntidades(base, atual, jogador, saida);
+            numDeltas++;
+        } else {
+            escreveArea(mapa, atual.areaX0, atual.areaY0, atual.areaX1, atual.areaY1, saida);
+            escreveEntidades(vazio, atual, jogador, saida);
+            ultimaChave = tick;
+            temChave = true;
+            numChaves++;
+        }
+        saida.putInt(inicio, saida.position() - inicio);
+    }
+
+    // Retorna o quadro confirmado pelo cliente, se ainda puder servir de base para uma diferença
+    private QuadroEstado escolheBase(RegistroCelulas alteracoes, int tick, long sequencia) {
+        if (!temConfirmacao || !temChave || tick - ultimaChave >= INTERVALO_CHAVE)
+            return null;
+        int tickBase = confirmado;
+        if (tick - tickBase <= 0 || tick - tickBase >= NUM_QUADROS)
+            return null;
+        QuadroEstado base = quadros[Math.floorMod(tickBase, NUM_QUADROS)];
+        if (!base.valido || base.tick != tickBase || sequencia - base.sequenciaCelulas > MAX_CELULAS_DELTA
+                || !alteracoes.contem(base.sequenciaCelulas))
+            return null;
+        return base;
+    }
+
+    // Guarda no quadro as entidades visíveis ao jogador, ordenadas por identificador
+    private void monta(Mapa mapa, Jogador jogador, QuadroEstado quadro, int tick, long sequencia, int[] vizinhos) {
+        int n = mapa.entidadesNoRaio(jogador.getX(), jogador.getY(), RAIO, vizinhos);
+        Arrays.sort(vizinhos, 0, n);
+        quadro.tick = tick;
+        quadro.sequenciaCelulas = sequencia;
+        quadro.areaX0 = Math.max(0, jogador.getX() - RAIO);
+        quadro.areaY0 = Math.max(0, jogador.getY() - RAIO);
+        quadro.areaX1 = Math.min(mapa.getNumColunas() - 1, jogador.getX() + RAIO);
+        quadro.areaY1 = Math.min(mapa.getNumLinhas() - 1, jogador.getY() + RAIO);
+        quadro.numEntidades = 0;
+        for (int i = 0; i < n; i++) {
+            int id = vizinhos[i];
+            quadro.adiciona(id, mapa.getGeracaoEntidade(id), mapa.getEntidade(id).getSimbolo(),
+                    mapa.getColunaEntidade(id), mapa.getLinhaEntidade(id));
+        }
+        quadro.valido = true;
+    }
+
+    // Alterações registradas entre as duas sequências que caem na área de interesse do quadro
+    private void escreveAlteracoes(RegistroCelulas alteracoes, long desde, long ate, QuadroEstado quadro,
+                                   ByteBuffer saida) {
+        int posicaoContagem = saida.position();
+        saida.putShort((short) 0);
+        int n = 0;
+        synchronized (alteracoes) {
+            for (long s = desde; s < ate; s++) {
+                int x = alteracoes.getX(s);
+                int y = alteracoes.getY(s);
+                if (x < quadro.areaX0 || x > quadro.areaX1 || y < quadro.areaY0 || y > quadro.areaY1)
+                    continue;
+                Protocolo.escreveVarint(saida, x);
+                Protocolo.escreveVarint(saida, y);
+                Protocolo.escreveVarint(saida, alteracoes.getId(s));
+                n++;
+            }
+        }
+        saida.putShort(posicaoContagem, (short) n);
+    }
+
+    // Células da área de interesse atual que estavam fora da área da base, em até quatro
+    // retângulos: as linhas acima e abaixo da área da base e, nas linhas em comum, as partes à
+    // esquerda e à direita dela
+    private void escreveEntradas(Mapa mapa, QuadroEstado base, QuadroEstado atual, ByteBuffer saida) {
+        int posicaoContagem = saida.position();
+        saida.put((byte) 0); // Varint de um byte: no máximo MAX_AREAS
+        int n = 0;
+        int comumY0 = Math.max(atual.areaY0, base.areaY0);
+        int comumY1 = Math.min(atual.areaY1, base.areaY1);
+        if (comumY0 > comumY1) {
+            escreveArea(mapa, atual.areaX0, atual.areaY0, atual.areaX1, atual.areaY1, saida);
+            saida.put(posicaoContagem, (byte) 1);
+            return;
+        }
+        if (atual.areaY0 < comumY0) {
+            escreveArea(mapa, atual.areaX0, atual.areaY0, atual.areaX1, comumY0 - 1, saida);
+            n++;
+        }
+        if (atual.areaY1 > comumY1) {
+            escreveArea(mapa, atual.areaX0, comumY1 + 1, atual.areaX1, atual.areaY1, saida);
+            n++;
+        }
+        int esquerdaX1 = Math.min(atual.areaX1, base.areaX0 - 1);
+        if (atual.areaX0 <= esquerdaX1) {
+            escreveArea(mapa, atual.areaX0, comumY0, esquerdaX1, comumY1, saida);
+            n++;
+        }
+        int direitaX0 = Math.max(atual.areaX0, base.areaX1 + 1);
+        if (direitaX0 <= atual.areaX1) {
+            escreveArea(mapa, direitaX0, comumY0, atual.areaX1, comumY1, saida);
+            n++;
+        }
+        saida.put(posicaoContagem, (byte) n);
+    }
+
+    // Células do retângulo (inclusivo) comprimidas em sequências de ids iguais. As células
+    // ocupadas por entidades são enviadas vazias, pois as entidades seguem em sua própria seção
+    private void escreveArea(Mapa mapa, int x0, int y0, int x1, int y1, ByteBuffer saida) {
+        Protocolo.escreveVarint(saida, x0);
+        Protocolo.escreveVarint(saida, y0);
+        Protocolo.escreveVarint(saida, x1 - x0 + 1);
+        Protocolo.escreveVarint(saida, y1 - y0 + 1);
+
+        char anterior = 0;
+        int repeticoes = 0;
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0; x <= x1; x++) {
+                char id = mapa.getIdEntidade(x, y) != 0 ? ' ' : mapa.getIdCelula(x, y);
+                if (repeticoes > 0 && id != anterior) {
+                    Protocolo.escreveVarint(saida, repeticoes);
+                    Protocolo.escreveVarint(saida, anterior);
+                    repeticoes = 0;
+                }
+                anterior = id;
+                repeticoes++;
+            }
+        }
+        Protocolo.escreveVarint(saida, repeticoes);
+        Protocolo.escreveVarint(saida, anterior);
+    }
+
+    // Percorre os dois quadros ordenados em paralelo e escreve apenas o que mudou. Um id presente
+    // nos dois com outra geração foi liberado e reutilizado por outra entidade: sai a antiga
+    // (REMOVE) e entra a nova (NOVA, com o mesmo id), em vez de um MOVE
+    private void escreveEntidades(QuadroEstado base, QuadroEstado atual, Jogador jogador, ByteBuffer saida) {
+        int posicaoContagem = saida.position();
+        saida.putShort((short) 0);
+        int operacoes = 0;
+        int idAnterior = 0;
+        int i = 0, j = 0;
+        while (i < base.numEntidades || j < atual.numEntidades) {
+            int idBase = i < base.numEntidades ? base.ids[i] : Integer.MAX_VALUE;
+            int idAtual = j < atual.numEntidades ? atual.ids[j] : Integer.MAX_VALUE;
+            if (idBase < idAtual) {
+                Protocolo.escreveVarint(saida, (idBase - idAnterior) << 2 | Protocolo.REMOVE);
+                idAnterior = idBase;
+                i++;
+            } else if (idAtual < idBase) {
+                Protocolo.escreveVarint(saida, (idAtual - idAnterior) << 2 | Protocolo.NOVA);
+                Protocolo.escreveVarint(saida, atual.simbolos[j]);
+                Protocolo.escreveZigzag(saida, atual.xs[j] - jogador.getX());
+                Protocolo.escreveZigzag(saida, atual.ys[j] - jogador.getY());
+                idAnterior = idAtual;
+                j++;
+            } else if (base.geracoes[i] != atual.geracoes[j]) {
+                Protocolo.escreveVarint(saida, (idBase - idAnterior) << 2 | Protocolo.REMOVE);
+                Protocolo.escreveVarint(saida, Protocolo.NOVA);
+                Protocolo.escreveVarint(saida, atual.simbolos[j]);
+                Protocolo.escreveZigzag(saida, atual.xs[j] - jogador.getX());
+                Protocolo.escreveZigzag(saida, atual.ys[j] - jogador.getY());
+                idAnterior = idAtual;
+                i++;
+                j++;
+                operacoes++;
+            } else {
+                int dx = atual.xs[j] - base.xs[i];
+                int dy = atual.ys[j] - base.ys[i];
+                i++;
+                j++;
+                if (dx == 0 && dy == 0)
+                    continue;
+                Protocolo.escreveVarint(saida, (idAtual - idAnterior) << 2 | Protocolo.MOVE);
+                Protocolo.escreveZigzag(saida, dx);
+                Protocolo.escreveZigzag(saida, dy);
+                idAnterior = idAtual;
+            }
+            operacoes++;
+        }
+        saida.putShort(posicaoContagem, (short) operacoes);
+    }
+}
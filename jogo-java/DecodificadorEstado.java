@@ -0,0 +1,169 @@
+import java.nio.ByteBuffer;
+
+// Lado do cliente do protocolo de estado: reconstrói cada quadro a partir do quadro base
+// indicado pelo servidor, guardado em um anel, e aplica as alterações de células no mapa
+// local. Depois de cada mensagem aceita, o cliente deve confirmar getUltimoTick() ao servidor.
+public class DecodificadorEstado {
+    private static final int NUM_QUADROS = 32;
+
+    private final Mapa mapa;
+    private final QuadroEstado[] quadros = new QuadroEstado[NUM_QUADROS];
+    private final QuadroEstado vazio = new QuadroEstado();
+    private QuadroEstado atual;
+    private int x;
+    private int y;
+    private int numMoedas;
+    private int vidas;
+    private int numComandos;
+
+    public DecodificadorEstado(Mapa mapa) {
+        this.mapa = mapa;
+        for (int i = 0; i < NUM_QUADROS; i++)
+            quadros[i] = new QuadroEstado();
+    }
+
+    // Último quadro reconstruído; nulo antes do primeiro quadro-chave
+    public QuadroEstado getQuadro() {
+        return atual;
+    }
+
+    public int getUltimoTick() {
+        return atual.tick;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getNumMoedas() {
+        return numMoedas;
+    }
+
+    public int getVidas() {
+        return vidas;
+    }
+
+    // Comandos do jogador já aplicados pelo servidor até este estado
+    public int getNumComandos() {
+        return numComandos;
+    }
+
+    // Decodifica o corpo de uma mensagem DELTA ou QUADRO_CHAVE. Retorna false se a mensagem for
+    // antiga ou se o quadro base não estiver mais no anel; nesse caso ela é ignorada e, sem
+    // confirmação, o servidor acaba enviando um quadro-chave
+    public boolean decodifica(byte tipo, ByteBuffer corpo) {
+        int tick = Protocolo.leVarint(corpo);
+        if (atual != null && tick - atual.tick <= 0)
+            return false;
+
+        QuadroEstado base = vazio;
+        if (tipo == Protocolo.DELTA) {
+            int tickBase = tick - Protocolo.leVarint(corpo);
+            base = quadros[Math.floorMod(tickBase, NUM_QUADROS)];
+            if (!base.valido || base.tick != tickBase)
+                return false;
+        }
+
+        int novoX = Protocolo.leVarint(corpo);
+        int novoY = Protocolo.leVarint(corpo);
+        int moedas = Protocolo.leVarint(corpo);
+        int vidasQuadro = Protocolo.leVarint(corpo);
+        int comandos = Protocolo.leVarint(corpo);
+        if (tipo == Protocolo.DELTA) {
+            leAlteracoes(corpo);
+            for (int n = Protocolo.leVarint(corpo); n > 0; n--)
+                leArea(corpo);
+        } else {
+            leArea(corpo);
+        }
+
+        QuadroEstado quadro = quadros[Math.floorMod(tick, NUM_QUADROS)];
+        quadro.valido = false;
+        leEntidades(corpo, base, quadro, novoX, novoY);
+        quadro.tick = tick;
+        quadro.valido = true;
+
+        x = novoX;
+        y = novoY;
+        numMoedas = moedas;
+        vidas = vidasQuadro;
+        numComandos = comandos;
+        atual = quadro;
+        return true;
+    }
+
+    private void leAlteracoes(ByteBuffer corpo) {
+        int n = corpo.getShort() & 0xFFFF;
+        for (int i = 0; i < n; i++) {
+            int cx = Protocolo.leVarint(corpo);
+            int cy = Protocolo.leVarint(corpo);
+            aplicaCelula(cx, cy, (char) Protocolo.leVarint(corpo));
+        }
+    }
+
+    private void leArea(ByteBuffer corpo) {
+        int x0 = Protocolo.leVarint(corpo);
+        int y0 = Protocolo.leVarint(corpo);
+        int largura = Protocolo.leVarint(corpo);
+        int altura = Protocolo.leVarint(corpo);
+        int total = largura * altura;
+        for (int k = 0; k < total; ) {
+            int repeticoes = Protocolo.leVarint(corpo);
+            char id = (char) Protocolo.leVarint(corpo);
+            for (int fim = k + repeticoes; k < fim; k++)
+                aplicaCelula(x0 + k % largura, y0 + k / largura, id);
+        }
+    }
+
+    // Só altera o mapa quando a célula realmente muda, para não invalidar o campo de visão à toa
+    private void aplicaCelula(int cx, int cy, char id) {
+        if (mapa.getIdCelula(cx, cy) != id)
+            mapa.setElemento(id, cx, cy);
+    }
+
+    // Mescla as operações recebidas com o quadro base, ambos em ordem crescente de id
+    private void leEntidades(ByteBuffer corpo, QuadroEstado base, QuadroEstado quadro, int jogadorX, int jogadorY) {
+        int operacoes = corpo.getShort() & 0xFFFF;
+        quadro.numEntidades = 0;
+        int i = 0;
+        int id = 0;
+        for (int k = 0; k < operacoes; k++) {
+            int codigo = Protocolo.leVarint(corpo);
+            id += codigo >>> 2;
+            // Entidades da base anteriores ao id da operação continuam paradas
+            while (i < base.numEntidades && base.ids[i] < id) {
+                quadro.adiciona(base.ids[i], base.simbolos[i], base.xs[i], base.ys[i]);
+                i++;
+            }
+            switch (codigo & 3) {
+                case Protocolo.REMOVE:
+                    i++;
+                    break;
+                case Protocolo.NOVA: {
+                    char simbolo = (char) Protocolo.leVarint(corpo);
+                    int ex = jogadorX + Protocolo.leZigzag(corpo);
+                    int ey = jogadorY + Protocolo.leZigzag(corpo);
+                    quadro.adiciona(id, simbolo, ex, ey);
+                    break;
+                }
+                case Protocolo.MOVE: {
+                    int dx = Protocolo.leZigzag(corpo);
+                    int dy = Protocolo.leZigzag(corpo);
+                    quadro.adiciona(id, base.simbolos[i], base.xs[i] + dx, base.ys[i] + dy);
+                    i++;
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Operação de entidade inválida: " + (codigo & 3));
+            }
+        }
+        while (i < base.numEntidades) {
+            quadro.adiciona(base.ids[i], base.simbolos[i], base.xs[i], base.ys[i]);
+            i++;
+        }
+    }
+}
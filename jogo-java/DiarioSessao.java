@@ -0,0 +1,119 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+// Diário de uma sessão local, do qual ReproducaoSessao refaz a mesma partida sem interface. A
+// simulação só depende do mapa, da semente das moedas e dos comandos do jogador, e cada comando
+// é aplicado entre dois ticks (ver Escalonador.entreTicks); basta então guardar em que tick
+// cada comando entrou.
+//
+// Formato, só acrescentado (inteiros big-endian): mágico, versão, tipo do mapa e sua descrição
+// (o texto inteiro do mapa; o caminho e o tamanho de um arquivo de chunks; ou a semente e o
+// orçamento de memória de um MundoInfinito), número e semente das moedas. Em seguida, um
+// registro por comando: varint (ticks desde o registro anterior << 3 | comando), em geral 1 ou
+// 2 bytes. O registro FIM traz o total de ticks e o resumo do estado final, para conferência;
+// um diário sem ele (ex.: o jogo caiu) é reproduzido até o último comando.
+public class DiarioSessao implements Closeable {
+    public static final int MAGICO = 0x44494152; // "DIAR"
+    public static final int VERSAO = 1;
+    public static final int MAPA_TEXTO = 0, MAPA_CHUNKS = 1, MAPA_INFINITO = 2;
+    public static final int INTERAGE = 4, ATACA = 5, FIM = 7; // 0 a 3: Direcao.ordinal()
+    static final int BITS_COMANDO = 3;
+
+    private final DataOutputStream saida;
+    private long ultimoTick;
+    private boolean fechado;
+
+    private DiarioSessao(String arquivo) throws IOException {
+        saida = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(arquivo)));
+        saida.writeInt(MAGICO);
+        saida.writeInt(VERSAO);
+    }
+
+    // Diário de uma sessão no mapa do arquivo, com 'numMoedas' moedas distribuídas pela semente
+    public static DiarioSessao grava(String arquivo, String arquivoMapa, int numMoedas, long semente) throws IOException {
+        DiarioSessao diario = new DiarioSessao(arquivo);
+        DataOutputStream saida = diario.saida;
+        if (ArquivoChunks.ehArquivoChunks(arquivoMapa)) {
+            // Arquivos de chunks podem ter gigabytes: guarda só a referência
+            saida.writeByte(MAPA_CHUNKS);
+            saida.writeUTF(new File(arquivoMapa).getAbsolutePath());
+            saida.writeLong(new File(arquivoMapa).length());
+        } else {
+            byte[] texto = Files.readAllBytes(Paths.get(arquivoMapa));
+            saida.writeByte(MAPA_TEXTO);
+            saida.writeInt(texto.length);
+            saida.write(texto);
+        }
+        saida.writeInt(numMoedas);
+        saida.writeLong(semente);
+        saida.flush();
+        return diario;
+    }
+
+    public static DiarioSessao gravaInfinito(String arquivo, long semente, long orcamentoBytes) throws IOException {
+        DiarioSessao diario = new DiarioSessao(arquivo);
+        DataOutputStream saida = diario.saida;
+        saida.writeByte(MAPA_INFINITO);
+        saida.writeLong(semente);
+        saida.writeLong(orcamentoBytes);
+        saida.writeInt(0);
+        saida.writeLong(0);
+        saida.flush();
+        return diario;
+    }
+
+    // Registra o comando aplicado antes do tick 'tick' (isto é, depois de 'tick' ticks). Cada
+    // registro vai logo para o arquivo, para que uma sessão interrompida possa ser reproduzida
+    public synchronized void registra(long tick, int comando) {
+        if (fechado)
+            return;
+        try {
+            escreveVarint(saida, (tick - ultimoTick) << BITS_COMANDO | comando);
+            saida.flush();
+            ultimoTick = tick;
+        } catch (IOException e) {
+            Registrador.registra(Registrador.Nivel.ERRO, "Falha ao gravar o diário da sessão", e);
+        }
+    }
+
+    // Encerra o diário com o total de ticks executados e o resumo do estado final (ver Simulacao.resumoEstado)
+    public synchronized void fecha(long numTicks, long resumo) throws IOException {
+        if (fechado)
+            return;
+        escreveVarint(saida, (numTicks - ultimoTick) << BITS_COMANDO | FIM);
+        saida.writeLong(resumo);
+        close();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        fechado = true;
+        saida.close();
+    }
+
+    static void escreveVarint(DataOutput saida, long valor) throws IOException {
+        while ((valor & ~0x7FL) != 0) {
+            saida.writeByte((int) (valor & 0x7F) | 0x80);
+            valor >>>= 7;
+        }
+        saida.writeByte((int) valor);
+    }
+
+    static long leVarint(DataInput entrada) throws IOException {
+        long valor = 0;
+        for (int deslocamento = 0; ; deslocamento += 7) {
+            int b = entrada.readUnsignedByte();
+            valor |= (long) (b & 0x7F) << deslocamento;
+            if ((b & 0x80) == 0)
+                return valor;
+        }
+    }
+}
@@ -15,4 +15,14 @@ public interface ElementoMapa {
 
     // Retorna a mensagem de interação do elemento
     String interage();
+
+    // Retorna se o elemento é recolhido por quem entra na célula (ex.: moeda)
+    default boolean podeSerColetado() {
+        return false;
+    }
+
+    // Retorna se o elemento causa dano a quem encosta nele
+    default boolean ehHostil() {
+        return false;
+    }
 }
@@ -0,0 +1,169 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// Laço de jogo central: a cada tick executa todos os atores registrados (ex.: inimigos)
+// em lotes distribuídos em um conjunto limitado de threads, em vez de uma thread por ator
+public class Escalonador {
+    private final List<Runnable> atores = new CopyOnWriteArrayList<>();
+    private final List<Runnable> fases = new CopyOnWriteArrayList<>(); // Executadas antes dos atores
+    private final List<Runnable> fimDeTick = new CopyOnWriteArrayList<>(); // Executadas após todos os atores
+    private final ScheduledExecutorService relogio;
+    private final ExecutorService trabalhadores;
+    private final long periodoMillis; // Intervalo entre ticks
+    private final int tamanhoLote; // Número de atores executados em sequência por tarefa
+    private volatile long numTicks = 0;
+    private final Object trava = new Object(); // Mantida durante o tick; ver entreTicks
+
+    public Escalonador(long periodoMillis) {
+        this(periodoMillis, Runtime.getRuntime().availableProcessors(), 256);
+    }
+
+    public Escalonador(long periodoMillis, int numThreads, int tamanhoLote) {
+        this.periodoMillis = periodoMillis;
+        this.tamanhoLote = tamanhoLote;
+        this.relogio = Executors.newSingleThreadScheduledExecutor(criaFabrica("relogio"));
+        this.trabalhadores = Executors.newFixedThreadPool(numThreads, criaFabrica("ator"));
+    }
+
+    public void registra(Runnable ator) {
+        atores.add(ator);
+    }
+
+    public void remove(Runnable ator) {
+        atores.remove(ator);
+    }
+
+    // Registra uma etapa executada na thread do tick antes dos atores, que se paraleliza por
+    // conta própria (ex.: AtualizacaoDuasFases) e também mede o atraso e a alocação dos seus atores
+    public void registraFase(Runnable fase) {
+        fases.add(fase);
+    }
+
+    // Registra uma tarefa executada uma vez por tick, depois que todos os atores se moveram
+    // (ex.: detecção de colisões sobre as posições já atualizadas)
+    public void registraFimDeTick(Runnable tarefa) {
+        fimDeTick.add(tarefa);
+    }
+
+    public int getNumAtores() {
+        return atores.size();
+    }
+
+    public long getNumTicks() {
+        return numTicks;
+    }
+
+    // Continua a contagem de uma partida salva; deve ser chamado antes do primeiro tick
+    public void setNumTicks(long numTicks) {
+        synchronized (trava) {
+            this.numTicks = numTicks;
+        }
+    }
+
+    // Inicia os ticks em taxa fixa; um tick atrasado não se sobrepõe ao seguinte
+    public void inicia() {
+        relogio.scheduleAtFixedRate(this::executaTick, periodoMillis, periodoMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Interrompe os ticks e aguarda o término do tick em andamento
+    public void encerra() {
+        relogio.shutdown();
+        try {
+            relogio.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        trabalhadores.shutdownNow();
+    }
+
+    // Executa a ação na thread de quem chama, mas nunca durante um tick: ações de fora do laço
+    // (ex.: o movimento do personagem pelo teclado) caem sempre entre dois ticks, na mesma
+    // posição em relação a eles na sessão e na sua reprodução (ver DiarioSessao)
+    public <T> T entreTicks(Supplier<T> acao) {
+        synchronized (trava) {
+            return acao.get();
+        }
+    }
+
+    // Executa um tick: divide os atores em lotes e espera todos terminarem. Chamado pelo relógio
+    // ou, sem inicia(), diretamente por quem quer controlar o ritmo (ex.: simulação sem interface)
+    public void executaTick() {
+        synchronized (trava) {
+            long inicioTick = Metricas.ATIVAS ? System.nanoTime() : 0;
+            long alocadoInicio = Metricas.ATIVAS ? Metricas.alocadoNaThread() : 0;
+            for (Runnable fase : fases)
+                executaAtor(fase);
+            Runnable[] lista = atores.toArray(new Runnable[0]);
+            int numLotes = (lista.length + tamanhoLote - 1) / tamanhoLote;
+            CountDownLatch fim = new CountDownLatch(numLotes);
+
+            for (int lote = 0; lote < numLotes; lote++) {
+                int inicio = lote * tamanhoLote;
+                int termino = Math.min(lista.length, inicio + tamanhoLote);
+                trabalhadores.execute(() -> {
+                    try {
+                        if (Metricas.ATIVAS)
+                            executaLoteMedido(lista, inicio, termino, inicioTick);
+                        else
+                            for (int i = inicio; i < termino; i++)
+                                executaAtor(lista[i]);
+                    } finally {
+                        fim.countDown();
+                    }
+                });
+            }
+
+            try {
+                fim.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            for (Runnable tarefa : fimDeTick)
+                executaAtor(tarefa);
+            numTicks++;
+
+            if (Metricas.ATIVAS) {
+                Metricas.registraAlocado(Metricas.alocadoNaThread() - alocadoInicio);
+                Metricas.TICK.registra(System.nanoTime() - inicioTick);
+            }
+        }
+    }
+
+    // Como o laço do lote, registrando quanto cada ator esperou desde o início do tick e
+    // quanto o lote alocou
+    private void executaLoteMedido(Runnable[] lista, int inicio, int termino, long inicioTick) {
+        long alocadoInicio = Metricas.alocadoNaThread();
+        for (int i = inicio; i < termino; i++) {
+            Metricas.ATRASO_ATOR.registra(System.nanoTime() - inicioTick);
+            executaAtor(lista[i]);
+        }
+        Metricas.registraAlocado(Metricas.alocadoNaThread() - alocadoInicio);
+    }
+
+    // Uma exceção em um ator ou tarefa não pode cancelar os ticks seguintes
+    private void executaAtor(Runnable ator) {
+        try {
+            ator.run();
+        } catch (RuntimeException e) {
+            Registrador.registra(Registrador.Nivel.ERRO, "Exceção em ator", e);
+        }
+    }
+
+    private static ThreadFactory criaFabrica(String nome) {
+        AtomicInteger contador = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, nome + "-" + contador.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,4 @@
+// Cria a entidade com estado próprio correspondente a uma célula do mapa (ex.: um inimigo)
+public interface FabricaEntidade {
+    ElementoMapa cria(int x, int y);
+}
@@ -0,0 +1,5 @@
+// Origem dos chunks de um mapa carregado sob demanda (ex.: arquivo mapeado em memória)
+public interface FonteChunks {
+    // Retorna um novo chunk com as células da posição (cx, cy), em coordenadas de chunk
+    Chunk carregaChunk(int cx, int cy);
+}
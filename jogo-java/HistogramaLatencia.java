@@ -0,0 +1,83 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Histograma de latências em nanossegundos com faixas log-lineares, como no HdrHistogram:
+// cada potência de dois é dividida em 16 faixas, o que dá erro relativo de no máximo ~6%
+// em qualquer escala, com memória fixa. Registrar é sem travas e pode vir de várias threads.
+public class HistogramaLatencia {
+    private static final int BITS_FAIXA = 4;
+    private static final int FAIXAS = 1 << BITS_FAIXA; // Por potência de dois
+    private static final int MAX_BITS = 44; // Valores acima de ~4,8 h ficam na última faixa
+    private static final long MAXIMO = (1L << MAX_BITS) - 1;
+    private static final int NUM_FAIXAS = indice(MAXIMO) + 1;
+
+    private final AtomicLongArray contagens = new AtomicLongArray(NUM_FAIXAS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong soma = new AtomicLong();
+    private final AtomicLong maximo = new AtomicLong();
+
+    // Valores menores que 2 * FAIXAS têm faixa própria; acima, o expoente escolhe o grupo
+    // de FAIXAS faixas e os bits seguintes ao mais significativo escolhem a faixa
+    private static int indice(long valor) {
+        if (valor < 2 * FAIXAS)
+            return (int) valor;
+        int expoente = 63 - Long.numberOfLeadingZeros(valor) - BITS_FAIXA;
+        return (expoente << BITS_FAIXA) + (int) (valor >>> expoente);
+    }
+
+    // Menor valor que cai na faixa
+    private static long inicioFaixa(int indice) {
+        if (indice < 2 * FAIXAS)
+            return indice;
+        int expoente = (indice >>> BITS_FAIXA) - 1;
+        return (long) (indice - (expoente << BITS_FAIXA)) << expoente;
+    }
+
+    public void registra(long nanos) {
+        long valor = Math.min(Math.max(nanos, 0), MAXIMO);
+        contagens.incrementAndGet(indice(valor));
+        total.incrementAndGet();
+        soma.addAndGet(valor);
+        long m;
+        while (valor > (m = maximo.get()) && !maximo.compareAndSet(m, valor)) {
+            // Outra thread registrou um máximo; tenta de novo
+        }
+    }
+
+    public long getContagem() {
+        return total.get();
+    }
+
+    public long getMaximo() {
+        return maximo.get();
+    }
+
+    public double getMedia() {
+        long n = total.get();
+        return n == 0 ? 0 : (double) soma.get() / n;
+    }
+
+    // Valor abaixo do qual está a fração 'p' (0 a 1) dos registros, com a precisão da faixa.
+    // Leituras concorrentes com registros são aproximadas, o que basta para monitoramento
+    public long percentil(double p) {
+        long n = total.get();
+        if (n == 0)
+            return 0;
+        long alvo = Math.max(1, (long) Math.ceil(p * n));
+        long acumulado = 0;
+        for (int i = 0; i < NUM_FAIXAS; i++) {
+            acumulado += contagens.get(i);
+            if (acumulado >= alvo)
+                return Math.min(inicioFaixa(i + 1) - 1, maximo.get());
+        }
+        return maximo.get();
+    }
+
+    public void zera() {
+        for (int i = 0; i < NUM_FAIXAS; i++)
+            contagens.set(i, 0);
+        total.set(0);
+        soma.set(0);
+        maximo.set(0);
+    }
+}
@@ -0,0 +1,158 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+// Índice espacial das entidades em grade uniforme: o mapa é dividido em baldes de
+// TAMANHO_BALDE x TAMANHO_BALDE células e cada balde mantém uma lista duplamente encadeada
+// das entidades que contém. As listas são intrusivas, em vetores primitivos paginados indexados
+// pelo identificador da entidade, de modo que inserir, remover e mover não alocam memória e
+// uma consulta por raio custa O(baldes visitados + entidades encontradas).
+//
+// As cabeças das listas ficam em páginas de BALDES_PAGINA x BALDES_PAGINA baldes, criadas na
+// primeira inserção e liberadas pelo Mapa quando a área deixa a memória, para que mapas enormes
+// só ocupem memória nas regiões com entidades.
+//
+// O índice não faz sincronização própria: os baldes coincidem com as regiões das travas do
+// Mapa, e cada operação deve ser feita com a trava da região do balde adquirida.
+public class IndiceEspacial {
+    public static final int TAMANHO_BALDE = 8;
+    private static final int BITS_PAGINA = 10;
+    private static final int TAMANHO_PAGINA = 1 << BITS_PAGINA;
+    private static final int BITS_BALDES_PAGINA = 8;
+    private static final int BALDES_PAGINA = 1 << BITS_BALDES_PAGINA; // 2048 células, como a página de chunks do Mapa
+    private static final VarHandle PAGINA = MethodHandles.arrayElementVarHandle(int[][].class);
+
+    private final int paginasX;
+    private final int[][] cabecas; // Primeira entidade de cada balde, por página; 0 se vazio
+
+    // Dados por entidade, em páginas que nunca são copiadas ao crescer
+    private volatile int[][] proximo = new int[0][];
+    private volatile int[][] anterior = new int[0][];
+    private volatile int[][] posicaoX = new int[0][];
+    private volatile int[][] posicaoY = new int[0][];
+
+    public IndiceEspacial(int numColunas, int numLinhas) {
+        int baldesX = (numColunas + TAMANHO_BALDE - 1) / TAMANHO_BALDE;
+        int baldesY = (numLinhas + TAMANHO_BALDE - 1) / TAMANHO_BALDE;
+        paginasX = (baldesX + BALDES_PAGINA - 1) >> BITS_BALDES_PAGINA;
+        cabecas = new int[paginasX * ((baldesY + BALDES_PAGINA - 1) >> BITS_BALDES_PAGINA)][];
+    }
+
+    // Garante espaço para a entidade 'id'; chamado quando a entidade é registrada, antes de ser inserida
+    public synchronized void garanteCapacidade(int id) {
+        int paginas = (id >> BITS_PAGINA) + 1;
+        if (paginas <= proximo.length)
+            return;
+        proximo = adicionaPaginas(proximo, paginas);
+        anterior = adicionaPaginas(anterior, paginas);
+        posicaoX = adicionaPaginas(posicaoX, paginas);
+        posicaoY = adicionaPaginas(posicaoY, paginas);
+    }
+
+    private static int[][] adicionaPaginas(int[][] paginas, int total) {
+        int[][] novas = Arrays.copyOf(paginas, total);
+        for (int i = paginas.length; i < total; i++)
+            novas[i] = new int[TAMANHO_PAGINA];
+        return novas;
+    }
+
+    private static int le(int[][] paginas, int id) {
+        return paginas[id >> BITS_PAGINA][id & (TAMANHO_PAGINA - 1)];
+    }
+
+    private static void escreve(int[][] paginas, int id, int valor) {
+        paginas[id >> BITS_PAGINA][id & (TAMANHO_PAGINA - 1)] = valor;
+    }
+
+    private int indicePagina(int x, int y) {
+        return (y / TAMANHO_BALDE >> BITS_BALDES_PAGINA) * paginasX + (x / TAMANHO_BALDE >> BITS_BALDES_PAGINA);
+    }
+
+    private static int balde(int x, int y) {
+        return ((y / TAMANHO_BALDE & (BALDES_PAGINA - 1)) << BITS_BALDES_PAGINA) | (x / TAMANHO_BALDE & (BALDES_PAGINA - 1));
+    }
+
+    // Página das cabeças da célula (x, y); nula se ainda não houve entidades na área
+    private int[] pagina(int x, int y) {
+        return (int[]) PAGINA.getAcquire(cabecas, indicePagina(x, y));
+    }
+
+    // Regiões diferentes podem criar a mesma página ao mesmo tempo; só uma é publicada
+    private synchronized int[] criaPagina(int x, int y) {
+        int p = indicePagina(x, y);
+        int[] pagina = cabecas[p];
+        if (pagina == null) {
+            pagina = new int[BALDES_PAGINA * BALDES_PAGINA];
+            PAGINA.setRelease(cabecas, p, pagina);
+        }
+        return pagina;
+    }
+
+    // Descarta a página da célula (x, y); o Mapa só a libera quando não há entidades na área
+    public synchronized void liberaPagina(int x, int y) {
+        PAGINA.setRelease(cabecas, indicePagina(x, y), null);
+    }
+
+    public int getX(int id) {
+        return le(posicaoX, id);
+    }
+
+    public int getY(int id) {
+        return le(posicaoY, id);
+    }
+
+    public void insere(int id, int x, int y) {
+        escreve(posicaoX, id, x);
+        escreve(posicaoY, id, y);
+        int[] cabeca = pagina(x, y);
+        if (cabeca == null)
+            cabeca = criaPagina(x, y);
+        int b = balde(x, y);
+        int primeira = cabeca[b];
+        escreve(anterior, id, 0);
+        escreve(proximo, id, primeira);
+        if (primeira != 0)
+            escreve(anterior, primeira, id);
+        cabeca[b] = id;
+    }
+
+    public void remove(int id) {
+        int x = le(posicaoX, id), y = le(posicaoY, id);
+        int antes = le(anterior, id);
+        int depois = le(proximo, id);
+        if (antes != 0)
+            escreve(proximo, antes, depois);
+        else
+            pagina(x, y)[balde(x, y)] = depois;
+        if (depois != 0)
+            escreve(anterior, depois, antes);
+    }
+
+    // Atualiza a posição da entidade; só troca de lista se mudar de balde.
+    // Deve ser chamado com as travas das regiões de origem e destino
+    public void move(int id, int x, int y) {
+        int xAtual = le(posicaoX, id), yAtual = le(posicaoY, id);
+        if (indicePagina(xAtual, yAtual) == indicePagina(x, y) && balde(xAtual, yAtual) == balde(x, y)) {
+            escreve(posicaoX, id, x);
+            escreve(posicaoY, id, y);
+        } else {
+            remove(id);
+            insere(id, x, y);
+        }
+    }
+
+    // Copia para 'saida', a partir de 'n', as entidades do balde que contém (x, y) que estão no
+    // quadrado de (x0, y0) a (x1, y1); retorna o novo total. Deve ser chamado com a trava da região
+    public int coletaBalde(int x, int y, int x0, int y0, int x1, int y1, int[] saida, int n) {
+        int[] cabeca = pagina(x, y);
+        if (cabeca == null)
+            return n;
+        for (int id = cabeca[balde(x, y)]; id != 0 && n < saida.length; id = le(proximo, id)) {
+            int ex = le(posicaoX, id);
+            int ey = le(posicaoY, id);
+            if (ex >= x0 && ex <= x1 && ey >= y0 && ey <= y1)
+                saida[n++] = id;
+        }
+        return n;
+    }
+}
@@ -1,27 +1,43 @@
 import java.awt.Color;
 
-public class Inimigo implements ElementoMapa, Runnable {
+public class Inimigo implements ElementoMapa, AtorDuasFases, Runnable {
     private Color cor;
     private Character simbolo;
-    private int x = 1;
-    private int y = 1;
-    private Jogo jogo;
-    private Thread thread;
+    private int x;
+    private int y;
+    private Mapa mapa;
+    private final Simulacao simulacao; // Diz quem pode ser perseguido: o personagem local e os jogadores
     private boolean movendoDireita = true;
     private boolean moverParaBaixo = true;
+    private boolean temAlvo = false; // Se lembra da última posição em que viu seu alvo
+    private int alvoX;
+    private int alvoY;
+    private static final int PERSEGUE = 0, VAI_AO_ALVO = 1, PATRULHA = 2;
+    private static final int[] DX = {0, 0, -1, 1}; // Na ordem de Direcao: CIMA, BAIXO, ESQUERDA, DIREITA
+    private static final int[] DY = {-1, 1, 0, 0};
+    private int modo; // Comportamento escolhido na intenção do tick
+    private Direcao pretendida; // Passo escolhido na intenção do tick; nulo se parado
 
-    public Inimigo(Character simbolo, Color cor, Jogo jogo) {
+    // Busca A* reutilizada por todos os inimigos executados na mesma thread
+    private static final ThreadLocal<BuscaCaminho> BUSCA = ThreadLocal.withInitial(() -> new BuscaCaminho(32, 2048));
+    // Entidades no raio de visão, para achar jogadores; também por thread
+    private static final ThreadLocal<int[]> VIZINHOS = ThreadLocal.withInitial(() -> new int[0]);
+
+    public Inimigo(Character simbolo, Color cor, Mapa mapa, Simulacao simulacao, int x, int y) {
         this.simbolo = simbolo;
         this.cor = cor;
-        this.jogo = jogo;
-        this.thread = new Thread(this);
-        this.thread.start();
+        this.mapa = mapa;
+        this.simulacao = simulacao;
+        this.x = x;
+        this.y = y;
     }
 
+    @Override
     public int getX() {
         return x;
     }
 
+    @Override
     public int getY() {
         return y;
     }
@@ -56,71 +72,136 @@ public class Inimigo implements ElementoMapa, Runnable {
         return null;
     }
 
+    @Override
+    public boolean ehHostil() {
+        return true;
+    }
+
+    // Executa um passo do inimigo sozinho, sem as duas fases: decide e move em seguida
     @Override
     public void run() {
-        while (true) {
-            try {
-                Thread.sleep(300);
-                moverInimigo();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
+        Direcao direcao = intencao();
+        confirma(direcao != null && mapa.moveElemento(x, y, x + DX[direcao.ordinal()], y + DY[direcao.ordinal()]));
     }
 
-    private void moverInimigo() {
-        boolean movido = false;
-
-        if (movendoDireita) {
-            // Tentar mover para a direita
-            if (jogo.getMapa().moveElemento(x, y, x + 1, y)) {
-                setPosicao(x + 1, y);
-                movido = true;
-            } else {
-                // Se não puder mover para a direita, mover para baixo ou para cima
-                if (moverParaBaixo) {
-                    if (jogo.getMapa().moveElemento(x, y, x, y + 1)) {
-                        setPosicao(x, y + 1);
-                        movendoDireita = false;
-                        movido = true;
-                    }
-                } else {
-                    if (jogo.getMapa().moveElemento(x, y, x, y - 1)) {
-                        setPosicao(x, y - 1);
-                        movendoDireita = false;
-                        movido = true;
-                    }
-                }
-            }
+    // Persegue o alvo visível mais próximo (o personagem local ou um jogador em rede) seguindo o
+    // campo de fluxo dele; ao perdê-lo de vista vai até a última posição em que o viu usando A*;
+    // caso contrário, patrulha. Só lê o mapa: o estado muda em confirma, conforme o passo tenha
+    // sido feito ou não
+    @Override
+    public Direcao intencao() {
+        CampoFluxo campo = escolheAlvo();
+        if (campo != null) {
+            temAlvo = true;
+            modo = PERSEGUE;
+            pretendida = campo.direcao(x, y);
+            // À vista, mas por um caminho mais longo que o alcance do campo: segue por A*
+            if (pretendida == null && (x != alvoX || y != alvoY))
+                pretendida = BUSCA.get().primeiroPasso(mapa, x, y, alvoX, alvoY);
+        } else if (temAlvo) {
+            modo = VAI_AO_ALVO;
+            pretendida = BUSCA.get().primeiroPasso(mapa, x, y, alvoX, alvoY);
         } else {
-            // Tentar mover para a esquerda
-            if (jogo.getMapa().moveElemento(x, y, x - 1, y)) {
-                setPosicao(x - 1, y);
-                movido = true;
-            } else {
-                // Se não puder mover para a esquerda, mover para baixo ou para cima
-                if (moverParaBaixo) {
-                    if (jogo.getMapa().moveElemento(x, y, x, y + 1)) {
-                        setPosicao(x, y + 1);
-                        movendoDireita = true;
-                        movido = true;
-                    }
-                } else {
-                    if (jogo.getMapa().moveElemento(x, y, x, y - 1)) {
-                        setPosicao(x, y - 1);
-                        movendoDireita = true;
-                        movido = true;
-                    }
-                }
+            modo = PATRULHA;
+            pretendida = direcaoPatrulha();
+        }
+        return pretendida;
+    }
+
+    @Override
+    public void confirma(boolean movido) {
+        Direcao direcao = pretendida;
+        if (movido)
+            setPosicao(x + DX[direcao.ordinal()], y + DY[direcao.ordinal()]);
+
+        if (modo == VAI_AO_ALVO) {
+            if (!movido || (x == alvoX && y == alvoY))
+                temAlvo = false;
+        } else if (modo == PATRULHA) {
+            // Ao subir ou descer a patrulha inverte o sentido; bloqueada, troca entre subir e descer
+            if (!movido)
+                moverParaBaixo = !moverParaBaixo;
+            else if (direcao == Direcao.CIMA || direcao == Direcao.BAIXO)
+                movendoDireita = !movendoDireita;
+        }
+    }
+
+    // Estado que passa de um tick ao seguinte (sentido da patrulha e última posição em que viu o
+    // alvo), guardado no salvamento da partida (ver SalvamentoMundo)
+    int getEstado() {
+        return (movendoDireita ? 1 : 0) | (moverParaBaixo ? 2 : 0) | (temAlvo ? 4 : 0);
+    }
+
+    int getAlvoX() {
+        return alvoX;
+    }
+
+    int getAlvoY() {
+        return alvoY;
+    }
+
+    void restauraEstado(int estado, int alvoX, int alvoY) {
+        movendoDireita = (estado & 1) != 0;
+        moverParaBaixo = (estado & 2) != 0;
+        temAlvo = (estado & 4) != 0;
+        this.alvoX = alvoX;
+        this.alvoY = alvoY;
+    }
+
+    // Retorna o campo de fluxo do alvo visível mais próximo e guarda sua posição em alvoX e
+    // alvoY; nulo se nenhum estiver à vista. Os empates ficam com o personagem e depois com a
+    // menor posição (linha, coluna), para não depender da ordem do índice espacial
+    private CampoFluxo escolheAlvo() {
+        CampoVisao visao = mapa.getCampoVisao();
+        CampoFluxo campo = null;
+        int melhor = Integer.MAX_VALUE;
+        if (simulacao.temPersonagem()) {
+            int px = mapa.getColunaPersonagem();
+            int py = mapa.getLinhaPersonagem();
+            if (visao.estaVisivel(x, y, px, py)) {
+                campo = mapa.getCampoFluxo();
+                melhor = Math.abs(px - x) + Math.abs(py - y);
+                alvoX = px;
+                alvoY = py;
             }
         }
+        if (simulacao.getNumJogadores() == 0)
+            return campo;
 
-        // Se estiver bloqueado (incapaz de se mover), alternar moverParaBaixo e tentar novamente
-        if (!movido) {
-            moverParaBaixo = !moverParaBaixo;
+        int lado = 2 * visao.getRaio() + 1;
+        int[] ids = VIZINHOS.get();
+        if (ids.length < lado * lado) {
+            ids = new int[lado * lado];
+            VIZINHOS.set(ids);
+        }
+        int n = mapa.entidadesNoRaio(x, y, visao.getRaio(), ids);
+        for (int i = 0; i < n; i++) {
+            if (!(mapa.getEntidade(ids[i]) instanceof Jogador))
+                continue;
+            Jogador jogador = (Jogador) mapa.getEntidade(ids[i]);
+            int jx = mapa.getColunaEntidade(ids[i]);
+            int jy = mapa.getLinhaEntidade(ids[i]);
+            int distancia = Math.abs(jx - x) + Math.abs(jy - y);
+            boolean maisPerto = distancia < melhor || (distancia == melhor && campo != mapa.getCampoFluxo()
+                    && (jy < alvoY || (jy == alvoY && jx < alvoX)));
+            if (!maisPerto || jogador.getCampoFluxo() == null || !visao.estaVisivel(x, y, jx, jy))
+                continue;
+            campo = jogador.getCampoFluxo();
+            melhor = distancia;
+            alvoX = jx;
+            alvoY = jy;
         }
+        return campo;
+    }
 
-        jogo.verificaProximidade(this);
-        jogo.repaint();
+    // Segue no sentido atual; se não puder, sobe ou desce
+    private Direcao direcaoPatrulha() {
+        Direcao horizontal = movendoDireita ? Direcao.DIREITA : Direcao.ESQUERDA;
+        if (mapa.estaLivreParaEntidade(x + DX[horizontal.ordinal()], y))
+            return horizontal;
+        Direcao vertical = moverParaBaixo ? Direcao.BAIXO : Direcao.CIMA;
+        if (mapa.estaLivreParaEntidade(x, y + DY[vertical.ordinal()]))
+            return vertical;
+        return null;
     }
 }
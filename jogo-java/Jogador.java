@@ -0,0 +1,128 @@
+import java.awt.Color;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Personagem de um jogador remoto: uma entidade do mapa com sua fila de comandos,
+// aplicados pelo servidor um por tick. O cliente nunca tem mais de MAX_COMANDOS comandos
+// sem confirmação, de modo que a fila não transborda. Como o personagem local, é perseguido
+// pelos inimigos que o veem (pelo seu próprio CampoFluxo) e perde vidas ao encostar neles
+public class Jogador implements ElementoMapa {
+    public static final int MAX_COMANDOS = 8; // Comandos além deste limite são descartados
+
+    private final Color cor;
+    private final Character simbolo;
+    private final BlockingQueue<Direcao> comandos = new ArrayBlockingQueue<>(MAX_COMANDOS);
+    private int idEntidade;
+    private int x;
+    private int y;
+    private int numMoedas;
+    private volatile int vidas = Simulacao.VIDAS_INICIAIS;
+    private int numMortes;
+    private CampoFluxo campoFluxo; // Caminhos até o jogador; criado por Simulacao.adicionaJogador
+    private int numComandos; // Comandos já retirados da fila e aplicados (com ou sem sucesso)
+
+    public Jogador(Character simbolo, Color cor, int x, int y) {
+        this.simbolo = simbolo;
+        this.cor = cor;
+        this.x = x;
+        this.y = y;
+    }
+
+    public int getIdEntidade() {
+        return idEntidade;
+    }
+
+    public void setIdEntidade(int idEntidade) {
+        this.idEntidade = idEntidade;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public void setPosicao(int x, int y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    public int getNumMoedas() {
+        return numMoedas;
+    }
+
+    public void adicionaMoeda() {
+        numMoedas++;
+    }
+
+    public int getVidas() {
+        return vidas;
+    }
+
+    public int getNumMortes() {
+        return numMortes;
+    }
+
+    // Perde uma vida; sem vidas, o jogador morre e recomeça com VIDAS_INICIAIS no mesmo lugar.
+    // Retorna se ele morreu
+    public boolean perdeVida() {
+        if (--vidas > 0)
+            return false;
+        vidas = Simulacao.VIDAS_INICIAIS;
+        numMortes++;
+        return true;
+    }
+
+    public CampoFluxo getCampoFluxo() {
+        return campoFluxo;
+    }
+
+    public void setCampoFluxo(CampoFluxo campoFluxo) {
+        this.campoFluxo = campoFluxo;
+    }
+
+    // Enfileira um comando recebido da rede; retorna false se a fila estiver cheia
+    public boolean enfileira(Direcao direcao) {
+        return comandos.offer(direcao);
+    }
+
+    // Próximo comando a aplicar; nulo se não houver
+    public Direcao proximoComando() {
+        Direcao direcao = comandos.poll();
+        if (direcao != null)
+            numComandos++;
+        return direcao;
+    }
+
+    // Informado ao cliente para que descarte os comandos já aplicados da sua predição
+    public int getNumComandos() {
+        return numComandos;
+    }
+
+    @Override
+    public Character getSimbolo() {
+        return simbolo;
+    }
+
+    @Override
+    public Color getCor() {
+        return cor;
+    }
+
+    @Override
+    public boolean podeSerAtravessado() {
+        return true;
+    }
+
+    @Override
+    public boolean podeInteragir() {
+        return false;
+    }
+
+    @Override
+    public String interage() {
+        return null;
+    }
+}
@@ -4,29 +4,125 @@ import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
 import java.util.Random;
 
-public class Jogo extends JFrame implements KeyListener {
+// Apresentação do jogo em Swing: desenha o mapa e envia os comandos do teclado para a
+// simulação local ou, em rede, para o cliente do servidor
+public class Jogo extends JFrame implements KeyListener, OuvinteMapa, OuvinteSimulacao {
     private JLabel statusBar;
     private Mapa mapa;
     private int tamanhoCelula = 10;
     private int width = 800;
     private int height = 600;
-    private int numMoedas = 0; // Contador de moedas
-    private int vidas = 3; // Número de vidas do jogador
     private final Color fogColor = new Color(192, 192, 192, 150); // Cor cinza claro com transparência para nevoa
     private final Color characterColor = Color.BLACK; // Cor preta para o personagem
     private int tamanhoFonte;
+    private AtlasTiles atlas; // Glifos pré-renderizados para o tamanho de célula atual
+    private RenderizadorMapa renderizador;
     private JPanel mapPanel;
+    private final boolean rolagem; // Mapa grande demais para caber na janela: célula fixa e painel rolável
+    private static final int CELULA_ROLAGEM = 16;
+    private static final int MARGEM_ROLAGEM = 8; // Células visíveis ao redor do personagem ao rolar
+    private final boolean mundoInfinito; // Moedas e inimigos vêm da geração dos chunks
+    private Simulacao simulacao; // Nula no modo em rede
+    private static final long PERIODO_TICK = 300; // Intervalo entre passos dos inimigos (ms)
+    private static final int NUM_MOEDAS = 100;
+    private static final long SEMENTE_MOEDAS = 1L;
+    private final DiarioSessao diario; // Nulo se a sessão não é gravada
+    private final SalvamentoMundo restaurado; // Partida salva de onde o mapa veio, se for o caso
+    private final String arquivoSalvamento; // Nulo sem salvamento automático
+    private SalvamentoAutomatico salvamento;
+    private static final long PERIODO_SALVAMENTO = 60_000; // ms
+
+    // Modo em rede: o estado do jogo está no servidor e o mapa local é apenas uma cópia
+    private ClienteRemoto cliente; // Nulo no modo local
+    private Timer animacao; // Redesenha as entidades interpoladas
+    private static final int PERIODO_ANIMACAO = 16; // ms
+    private final double[] remotosX = new double[(2 * Protocolo.RAIO_INTERESSE + 1) * (2 * Protocolo.RAIO_INTERESSE + 1)];
+    private final double[] remotosY = new double[remotosX.length];
+    private final char[] remotosSimbolos = new char[remotosX.length];
+
+    // Métricas na barra de status (F3), quando ativadas com -Djogo.metricas=true
+    private boolean mostraMetricas = Metricas.ATIVAS;
+    private String textoMetricas = "";
+    private Timer atualizacaoMetricas;
+
+    public Jogo(String arquivoMapa) throws IOException {
+        this(arquivoMapa, null, 0, 0);
+    }
+
+    // Com 'host' não nulo, conecta-se ao servidor em vez de simular o jogo localmente;
+    // 'rttMillis' simula a latência de ida e volta da conexão
+    public Jogo(String arquivoMapa, String host, int porta, long rttMillis) throws IOException {
+        this(new Mapa(arquivoMapa, 10), false, host, porta, rttMillis, null, null, null);
+    }
+
+    // Jogo local cuja sessão é gravada em 'arquivoDiario' para ser refeita por ReproducaoSessao
+    public static Jogo gravando(String arquivoMapa, String arquivoDiario) throws IOException {
+        DiarioSessao diario = DiarioSessao.grava(arquivoDiario, arquivoMapa, NUM_MOEDAS, SEMENTE_MOEDAS);
+        return new Jogo(new Mapa(arquivoMapa, 10), false, null, 0, 0, diario, null, null);
+    }
+
+    // Jogo local salvo periodicamente (e ao fechar) em 'arquivoSalvamento'; se já há um
+    // salvamento, a partida continua de onde foi salva em vez de começar do mapa
+    public static Jogo comSalvamento(String arquivoMapa, String arquivoSalvamento) throws IOException {
+        String salvo = SalvamentoMundo.maisRecente(arquivoSalvamento);
+        if (salvo == null)
+            return new Jogo(new Mapa(arquivoMapa, 10), false, null, 0, 0, null, null, arquivoSalvamento);
+        // Mapas em texto são salvos inteiros; dos em chunks, só os chunks que estavam em memória
+        FonteChunks base = ArquivoChunks.ehArquivoChunks(arquivoMapa) ? new ArquivoChunks(arquivoMapa) : null;
+        return continua(new SalvamentoMundo(salvo, base), arquivoSalvamento);
+    }
+
+    // Mundo infinito salvo como em comSalvamento; uma partida salva continua com a semente
+    // gravada no salvamento
+    public static Jogo infinitoComSalvamento(long semente, String arquivoSalvamento) throws IOException {
+        String salvo = SalvamentoMundo.maisRecente(arquivoSalvamento);
+        if (salvo == null)
+            return new Jogo(new MundoInfinito(semente).criaMapa(CELULA_ROLAGEM, MundoInfinito.ORCAMENTO_PADRAO),
+                    true, null, 0, 0, null, null, arquivoSalvamento);
+        SalvamentoMundo salvamento = new SalvamentoMundo(salvo, null);
+        if (salvamento.getTipoFonte() != SalvamentoMundo.FONTE_INFINITO)
+            throw new IOException(salvo + " não é o salvamento de um mundo infinito");
+        return continua(salvamento, arquivoSalvamento);
+    }
+
+    private static Jogo continua(SalvamentoMundo salvamento, String arquivoSalvamento) throws IOException {
+        boolean infinito = salvamento.getTipoFonte() == SalvamentoMundo.FONTE_INFINITO;
+        return new Jogo(salvamento.criaMapa(infinito ? CELULA_ROLAGEM : 10), infinito, null, 0, 0, null,
+                salvamento, arquivoSalvamento);
+    }
 
-    public Jogo(String arquivoMapa) {
+    // Jogo local em um MundoInfinito; os chunks longe do personagem são descartados da memória
+    public static Jogo infinito(long semente) throws IOException {
+        return infinito(semente, null);
+    }
+
+    // Com 'arquivoDiario' não nulo, grava a sessão (ver DiarioSessao)
+    public static Jogo infinito(long semente, String arquivoDiario) throws IOException {
+        DiarioSessao diario = arquivoDiario == null ? null
+                : DiarioSessao.gravaInfinito(arquivoDiario, semente, MundoInfinito.ORCAMENTO_PADRAO);
+        return new Jogo(new MundoInfinito(semente).criaMapa(CELULA_ROLAGEM, MundoInfinito.ORCAMENTO_PADRAO),
+                true, null, 0, 0, diario, null, null);
+    }
+
+    private Jogo(Mapa mapa, boolean mundoInfinito, String host, int porta, long rttMillis, DiarioSessao diario,
+                 SalvamentoMundo restaurado, String arquivoSalvamento) throws IOException {
         setTitle("Jogo de Aventura");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setFocusable(true);
         setFocusTraversalKeysEnabled(false);
 
-        // Cria o mapa do jogo
-        mapa = new Mapa(arquivoMapa, tamanhoCelula);
+        this.mapa = mapa;
+        this.mundoInfinito = mundoInfinito;
+        this.diario = diario;
+        this.restaurado = restaurado;
+        this.arquivoSalvamento = arquivoSalvamento;
+        this.rolagem = mapa.getNumColunas() > width / 4;
+        renderizador = new RenderizadorMapa(mapa, fogColor);
 
         // Tamanho inicial da janela
         setSize(width, height);
@@ -36,15 +132,20 @@ public class Jogo extends JFrame implements KeyListener {
             @Override
             protected void paintComponent(Graphics g) {
                 super.paintComponent(g);
-                // Define a fonte para garantir que o caractere caiba na celula
-                tamanhoFonte = mapa.getTamanhoCelula() / 10 * 12;
-                Font font = new Font("Roboto", Font.BOLD, tamanhoFonte);
-                g.setFont(font);
-                desenhaMapa(g);
+                if (atlas == null)
+                    return;
+                long inicio = Metricas.ATIVAS ? System.nanoTime() : 0;
+                g.setFont(atlas.getFonte());
+                renderizador.desenha(g);
+                if (cliente != null)
+                    desenhaEntidadesRemotas(g);
                 desenhaPersonagem(g);
+                if (Metricas.ATIVAS)
+                    Metricas.PINTURA.registra(System.nanoTime() - inicio);
             }
         };
         mapPanel.setPreferredSize(new Dimension(width, height));
+        mapa.setOuvinte(this);
 
         // Adiciona um listener para redimensionamento da janela
         addComponentListener(new ComponentAdapter() {
@@ -65,7 +166,14 @@ public class Jogo extends JFrame implements KeyListener {
         southPanel.add(statusBar);
 
         // Adiciona os paineis ao JFrame
-        add(mapPanel, BorderLayout.CENTER);
+        if (rolagem) {
+            JScrollPane rolavel = new JScrollPane(mapPanel);
+            rolavel.setPreferredSize(new Dimension(width, height));
+            rolavel.setFocusable(false);
+            add(rolavel, BorderLayout.CENTER);
+        } else {
+            add(mapPanel, BorderLayout.CENTER);
+        }
         add(southPanel, BorderLayout.SOUTH);
 
         // Ajusta o tamanho do JFrame para acomodar todos os componentes
@@ -74,27 +182,101 @@ public class Jogo extends JFrame implements KeyListener {
         // Adiciona o listener para eventos de teclado
         addKeyListener(this);
 
-        // Registra os elementos do mapa
-        // Parede
-        mapa.registraElemento('#', new Parede('▣', Mapa.brickColor));
-        // Vegetação
-        mapa.registraElemento('V', new Vegetacao('♣', Mapa.vegetationColor));
-        // Inimigo
-        mapa.registraElemento('I', new Inimigo('☠', Color.RED, this));
-        // Moeda
-        mapa.registraElemento('M', new Moeda('♦', Mapa.goldColor));
+        if (host != null)
+            iniciaRemoto(host, porta, rttMillis);
+        else
+            iniciaLocal();
+
+        if (Metricas.ATIVAS) {
+            atualizacaoMetricas = new Timer(1000, e -> {
+                textoMetricas = Metricas.getInstancia().resumo();
+                if (mostraMetricas)
+                    statusBar.setText(getStatusBarText());
+            });
+            atualizacaoMetricas.start();
+        }
+    }
+
+    private void iniciaLocal() {
+        // Simulação com os elementos do mapa, os inimigos e as regras; iniciada ao final da construção
+        simulacao = new Simulacao(mapa, PERIODO_TICK, true);
+        simulacao.adicionaOuvinte(this);
+        simulacao.setDiario(diario);
+
+        ajustaTamanhoCelula();
+
+        // Distribui moedas no mapa de forma aleatória de acordo com a semente; numa partida
+        // restaurada elas já estão nas células
+        if (restaurado != null)
+            simulacao.restauraEstado(restaurado);
+        else if (!mundoInfinito)
+            simulacao.distribuiMoedas(NUM_MOEDAS, SEMENTE_MOEDAS);
+        if (arquivoSalvamento != null)
+            salvamento = new SalvamentoAutomatico(simulacao, arquivoSalvamento, PERIODO_SALVAMENTO);
 
+        // Inicia o laço de jogo que movimenta os inimigos e verifica colisões ao final de cada tick
+        simulacao.inicia();
+
+        // Encerra a simulação ao fechar a janela
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                simulacao.encerra();
+                if (salvamento != null)
+                    salvamento.close();
+                if (diario != null) {
+                    try {
+                        diario.fecha(simulacao.getNumTicks(), simulacao.resumoEstado());
+                    } catch (IOException ex) {
+                        Registrador.registra(Registrador.Nivel.ERRO, "Falha ao fechar o diário da sessão", ex);
+                    }
+                }
+            }
+        });
+    }
+
+    // Os inimigos, as moedas e as colisões ficam a cargo do servidor; localmente o personagem
+    // é previsto e as demais entidades são redesenhadas a cada quadro de animação
+    private void iniciaRemoto(String host, int porta, long rttMillis) throws IOException {
+        Simulacao.registraElementos(mapa);
+        cliente = new ClienteRemoto(mapa, host, porta, rttMillis / 2);
+        mapa.atualizaCelulasReveladas();
         ajustaTamanhoCelula();
 
-        // Distribui moedas no mapa de forma aleatória de acordo com a semente
-        distibuiMoedas(100, 1L);
+        animacao = new Timer(PERIODO_ANIMACAO, e -> {
+            int raio = Protocolo.RAIO_INTERESSE;
+            regiaoAlterada(mapa.getColunaPersonagem() - raio, mapa.getLinhaPersonagem() - raio, 2 * raio + 1, 2 * raio + 1);
+            String texto = getStatusBarText();
+            if (!texto.equals(statusBar.getText()))
+                statusBar.setText(texto);
+        });
+        animacao.start();
+
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                animacao.stop();
+                cliente.encerra();
+            }
+        });
     }
 
     private String getStatusBarText() {
-        return "Posição: (" + mapa.getPosX() + "," + mapa.getPosY() + ") | Moedas: " + numMoedas + " | Vidas: " + vidas;
+        String metricas = mostraMetricas && !textoMetricas.isEmpty() ? " | " + textoMetricas : "";
+        if (cliente != null)
+            return "Posição: (" + mapa.getPosX() + "," + mapa.getPosY() + ") | Moedas: " + cliente.getNumMoedas()
+                    + " | Vidas: " + cliente.getVidas() + metricas;
+        if (simulacao == null)
+            return "Posição: (" + mapa.getPosX() + "," + mapa.getPosY() + ")" + metricas;
+        return "Posição: (" + mapa.getPosX() + "," + mapa.getPosY() + ") | Moedas: " + simulacao.getNumMoedas()
+                + " | Vidas: " + simulacao.getVidas() + metricas;
     }
 
     private void ajustaTamanhoCelula() {
+        if (rolagem) {
+            ajustaRolagem();
+            return;
+        }
         int mapPanelWidth = mapPanel.getWidth();
         int numColunas = mapa.getNumColunas();
         int numLinhas = mapa.getNumLinhas();
@@ -109,9 +291,14 @@ public class Jogo extends JFrame implements KeyListener {
         // Ajusta a altura do painel
         mapPanel.setPreferredSize(new Dimension(mapPanelWidth, desiredHeight));
 
-        // Recalcula o tamanho da fonte
-        tamanhoFonte = (tamanhoCelula * 12) / 10;
-        mapPanel.setFont(new Font("Roboto", Font.BOLD, tamanhoFonte));
+        // Recalcula o tamanho da fonte para garantir que o caractere caiba na celula
+        tamanhoFonte = tamanhoCelula / 10 * 12;
+        Font font = new Font("Roboto", Font.BOLD, tamanhoFonte);
+        mapPanel.setFont(font);
+
+        // Descarta os glifos renderizados para o tamanho anterior
+        atlas = new AtlasTiles(font, tamanhoCelula, fogColor);
+        renderizador.setAtlas(atlas);
 
         // Revalida o painel e redimensiona a janela para acomodar todos os componentes
         mapPanel.revalidate();
@@ -120,54 +307,59 @@ public class Jogo extends JFrame implements KeyListener {
         // Redesenha o mapa
         mapPanel.repaint();
 
-        System.out.println("Largura: " + mapPanelWidth + " Altura: " + desiredHeight + " Colunas: " + numColunas + " Linhas: " + numLinhas + " Tamanho celula: " + tamanhoCelula + " Tamanho fonte: " + tamanhoFonte);
+        Registrador.registra(Registrador.Nivel.INFO, "Painel redimensionado (largura, altura)", mapPanelWidth, desiredHeight);
+        Registrador.registra(Registrador.Nivel.INFO, "Tamanho da célula e da fonte", tamanhoCelula, tamanhoFonte);
     }
 
-    public Mapa getMapa() {
-        return mapa;
+    // No modo de rolagem a célula tem tamanho fixo; o painel tem o tamanho do mapa inteiro e
+    // só a parte visível é desenhada
+    private void ajustaRolagem() {
+        if (atlas == null) {
+            tamanhoCelula = CELULA_ROLAGEM;
+            mapa.setTamanhoCelula(tamanhoCelula);
+            mapPanel.setPreferredSize(new Dimension(mapa.getNumColunas() * tamanhoCelula,
+                    (mapa.getNumLinhas() + 1) * tamanhoCelula));
+            tamanhoFonte = tamanhoCelula / 10 * 12;
+            Font font = new Font("Roboto", Font.BOLD, tamanhoFonte);
+            mapPanel.setFont(font);
+            atlas = new AtlasTiles(font, tamanhoCelula, fogColor);
+            renderizador.setAtlas(atlas);
+            mapPanel.revalidate();
+        }
+        SwingUtilities.invokeLater(this::seguePersonagem);
     }
 
-    public void distibuiMoedas(int numMoedas, long seed) {
-        Random random = new Random(seed);
-        for (int i = 0; i < numMoedas; i++) {
-            int x = random.nextInt(mapa.getNumColunas());
-            int y = random.nextInt(mapa.getNumLinhas());
-            if (x >= 0 && x < mapa.getNumColunas() && y >= 0 && y < mapa.getNumLinhas() && mapa.getElemento(x, y) == null) {
-                mapa.setElemento('M', x, y);
-            }
-        }
+    // Rola o painel para manter o personagem longe das bordas da área visível
+    private void seguePersonagem() {
+        int lado = (2 * MARGEM_ROLAGEM + 1) * tamanhoCelula;
+        mapPanel.scrollRectToVisible(new Rectangle(mapa.getPosX() - MARGEM_ROLAGEM * tamanhoCelula,
+                mapa.getPosY() - (MARGEM_ROLAGEM + 1) * tamanhoCelula, lado, lado));
     }
 
-    public void movimentaInimigo() {
-        Inimigo inimigo = (Inimigo) mapa.getElemento('I');
-        if (inimigo != null) {
-            inimigo.run();
-        }
+    public Mapa getMapa() {
+        return mapa;
     }
 
     public void move(Direcao direcao) {
         if (mapa == null)
             return;
 
-        // Modifica posição do personagem no mapa
-        if (!mapa.move(direcao))
+        // Em rede o movimento é previsto localmente e confirmado pelo servidor
+        if (cliente != null) {
+            cliente.move(direcao);
             return;
-
-        // Verifica se o jogador pegou uma moeda
-        int mapX = mapa.getPosX() / mapa.getTamanhoCelula();
-        int mapY = mapa.getPosY() / mapa.getTamanhoCelula() - 1;
-        ElementoMapa elemento = mapa.getElemento(mapX, mapY);
-        if (elemento instanceof Moeda) {
-            numMoedas++;
-            mapa.apagaElemento(mapX, mapY);
         }
 
-        // Atualiza a barra de status
+        // Modifica posição do personagem no mapa; a simulação recolhe a moeda do destino
+        if (!simulacao.move(direcao))
+            return;
+
+        if (rolagem)
+            seguePersonagem();
+
+        // Atualiza a barra de status; o mapa notifica as células a redesenhar
         if (statusBar != null)
             statusBar.setText(getStatusBarText());
-
-        // Redesenha o painel
-        repaint();
     }
 
     public void interage() {
@@ -175,7 +367,7 @@ public class Jogo extends JFrame implements KeyListener {
             return;
 
         // Cria um diálogo para exibir a mensagem de interação
-        String mensagem = mapa.interage();
+        String mensagem = simulacao != null ? simulacao.interage() : mapa.interage();
         if (mensagem != null) {
             JOptionPane.showMessageDialog(this, mensagem);
         }
@@ -185,58 +377,61 @@ public class Jogo extends JFrame implements KeyListener {
         if (mapa == null)
             return;
 
-        String status = mapa.ataca();
+        String status = simulacao != null ? simulacao.ataca() : mapa.ataca();
 
         // Atualiza a barra de status
         if (statusBar != null)
             statusBar.setText(status);
     }
 
-    public void verificaProximidade(Inimigo inimigo) {
-        int inimigoX = inimigo.getX() * mapa.getTamanhoCelula();
-        int inimigoY = inimigo.getY() * mapa.getTamanhoCelula();
-        int personagemX = mapa.getPosX();
-        int personagemY = mapa.getPosY();
+    @Override
+    public void moedaRecolhida(int numMoedas) {
+        // A barra de status já é atualizada por move()
+    }
+
+    // Os eventos abaixo vêm da thread do tick e são repassados à thread da interface
+    @Override
+    public void vidaPerdida(int vidas) {
+        SwingUtilities.invokeLater(() -> statusBar.setText(getStatusBarText()));
+    }
 
-        int distanciaX = Math.abs(inimigoX - personagemX);
-        int distanciaY = Math.abs(inimigoY - personagemY);
+    @Override
+    public void fimDeJogo() {
+        SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "Game Over!"));
+    }
 
-        if (distanciaX <= mapa.getTamanhoCelula() && distanciaY <= mapa.getTamanhoCelula()) {
-            vidas--;
-            statusBar.setText(getStatusBarText());
-            if (vidas <= 0) {
-                JOptionPane.showMessageDialog(this, "Game Over!");
-                vidas = 1;
-                return;
-            }
-        }
+    @Override
+    public void tickConcluido(long tick) {
+        // Os inimigos notificam pelo mapa as células a redesenhar
     }
 
-    private void desenhaMapa(Graphics g) {
+    // Redesenha apenas as células alteradas, com uma célula de margem pois os glifos
+    // podem ultrapassar os limites da própria célula
+    @Override
+    public void regiaoAlterada(int x, int y, int largura, int altura) {
         int tamanhoCelula = mapa.getTamanhoCelula();
-        for (int i = 0; i < mapa.getNumLinhas(); i++) {
-            for (int j = 0; j < mapa.getNumColunas(); j++) {
-                int posX = j * tamanhoCelula;
-                int posY = (i + 1) * tamanhoCelula;
-
-                if (mapa.estaRevelado(j, i)) {
-                    ElementoMapa elemento = mapa.getElemento(j, i);
-                    if (elemento != null) {
-                        g.setColor(elemento.getCor());
-                        g.drawString(elemento.getSimbolo().toString(), posX, posY);
-                    }
-                } else {
-                    // Pinta a área não revelada
-                    g.setColor(fogColor);
-                    g.fillRect(j * tamanhoCelula, i * tamanhoCelula, tamanhoCelula, tamanhoCelula);
-                }
-            }
+        mapPanel.repaint((x - 1) * tamanhoCelula, (y - 1) * tamanhoCelula,
+                (largura + 2) * tamanhoCelula, (altura + 2) * tamanhoCelula);
+    }
+
+    // Inimigos e outros jogadores na posição interpolada entre os dois últimos estados do servidor
+    private void desenhaEntidadesRemotas(Graphics g) {
+        int tamanhoCelula = mapa.getTamanhoCelula();
+        int n = cliente.interpola(System.nanoTime(), remotosX, remotosY, remotosSimbolos);
+        for (int i = 0; i < n; i++) {
+            int x = (int) Math.round(remotosX[i]);
+            int y = (int) Math.round(remotosY[i]);
+            if (!mapa.estaRevelado(x, y))
+                continue;
+            char simbolo = remotosSimbolos[i];
+            Color cor = simbolo == '☠' ? Color.RED : Color.BLUE;
+            atlas.desenhaGlifo(g, simbolo, simbolo, cor, (int) (remotosX[i] * tamanhoCelula),
+                    (int) ((remotosY[i] + 1) * tamanhoCelula));
         }
     }
 
     private void desenhaPersonagem(Graphics g) {
-        g.setColor(characterColor);
-        g.drawString("☺", mapa.getPosX(), mapa.getPosY());
+        atlas.desenhaGlifo(g, 'P', '☺', characterColor, mapa.getPosX(), mapa.getPosY());
     }
 
     @Override
@@ -267,6 +462,16 @@ public class Jogo extends JFrame implements KeyListener {
             case KeyEvent.VK_J: // Tecla 'J' para ação secundária
                 ataca();
                 break;
+            case KeyEvent.VK_F5: // Tecla 'F5' salva a partida, em segundo plano
+                if (salvamento != null)
+                    salvamento.salvaAgora();
+                break;
+            case KeyEvent.VK_F3: // Tecla 'F3' mostra ou esconde as métricas
+                if (Metricas.ATIVAS) {
+                    mostraMetricas = !mostraMetricas;
+                    statusBar.setText(getStatusBarText());
+                }
+                break;
         }
     }
 
@@ -275,9 +480,117 @@ public class Jogo extends JFrame implements KeyListener {
         // Não necessário
     }
 
-    public static void main(String[] args) {
+    // java Jogo [mapa] [--rede | --conecta host:porta] [--rtt ms] [--infinito [semente]] [--grava diario]
+    //     [--salvamento arquivo]
+    // --rede inicia um servidor no próprio processo e joga por meio dele; --infinito joga
+    // localmente em um MundoInfinito, gerado a partir da semente; --grava guarda os comandos da
+    // sessão local para serem refeitos com java ReproducaoSessao diario; --salvamento salva a
+    // partida local (inclusive no mundo infinito) a cada minuto, com F5 e ao fechar, e a continua
+    // na próxima execução. Uma sessão gravada começa sempre do mapa, por isso --grava e
+    // --salvamento não podem ser usados juntos
+    public static void main(String[] args) throws IOException {
+        // O mapa pode estar no formato texto ou no formato de chunks (ver ArquivoChunks)
+        String arquivoMapa = "mapa.txt";
+        String host = null;
+        int porta = Protocolo.PORTA_PADRAO;
+        long rtt = 0;
+        boolean servidorLocal = false;
+        Long semente = null;
+        String arquivoDiario = null;
+        String arquivoSalvamento = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--rede":
+                    servidorLocal = true;
+                    break;
+                case "--conecta":
+                    String[] endereco = args[++i].split(":");
+                    host = endereco[0];
+                    porta = Integer.parseInt(endereco[1]);
+                    break;
+                case "--rtt":
+                    rtt = Long.parseLong(args[++i]);
+                    break;
+                case "--salvamento":
+                    arquivoSalvamento = args[++i];
+                    break;
+                case "--grava":
+                    arquivoDiario = args[++i];
+                    break;
+                case "--infinito":
+                    semente = i + 1 < args.length && args[i + 1].matches("-?\\d+") ? Long.parseLong(args[++i]) : new Random().nextLong();
+                    break;
+                default:
+                    arquivoMapa = args[i];
+            }
+        }
+        if (arquivoDiario != null && arquivoSalvamento != null) {
+            Registrador.registra(Registrador.Nivel.ERRO, "--grava e --salvamento não podem ser usados juntos");
+            System.exit(2);
+        }
+        if (semente != null) {
+            if (servidorLocal || host != null)
+                Registrador.registra(Registrador.Nivel.AVISO, "O mundo infinito só pode ser jogado localmente");
+            long sementeMundo = semente;
+            String diario = arquivoDiario, salvo = arquivoSalvamento;
+            SwingUtilities.invokeLater(() -> {
+                try {
+                    if (salvo != null)
+                        infinitoComSalvamento(sementeMundo, salvo).setVisible(true);
+                    else
+                        infinito(sementeMundo, diario).setVisible(true);
+                } catch (IOException e) {
+                    JOptionPane.showMessageDialog(null, "Não foi possível criar o mundo: " + e.getMessage());
+                    System.exit(1);
+                }
+            });
+            return;
+        }
+        if (arquivoDiario != null) {
+            if (servidorLocal || host != null)
+                Registrador.registra(Registrador.Nivel.AVISO, "Só a sessão local pode ser gravada");
+            String mapa = arquivoMapa, diario = arquivoDiario;
+            SwingUtilities.invokeLater(() -> {
+                try {
+                    gravando(mapa, diario).setVisible(true);
+                } catch (IOException e) {
+                    JOptionPane.showMessageDialog(null, "Não foi possível gravar a sessão: " + e.getMessage());
+                    System.exit(1);
+                }
+            });
+            return;
+        }
+        if (arquivoSalvamento != null) {
+            if (servidorLocal || host != null)
+                Registrador.registra(Registrador.Nivel.AVISO, "Só a partida local pode ser salva");
+            String mapa = arquivoMapa, salvo = arquivoSalvamento;
+            SwingUtilities.invokeLater(() -> {
+                try {
+                    comSalvamento(mapa, salvo).setVisible(true);
+                } catch (IOException e) {
+                    JOptionPane.showMessageDialog(null, "Não foi possível abrir a partida salva: " + e.getMessage());
+                    System.exit(1);
+                }
+            });
+            return;
+        }
+        if (servidorLocal) {
+            Servidor servidor = new Servidor(arquivoMapa, 0, Servidor.PERIODO_TICK);
+            servidor.inicia();
+            host = "localhost";
+            porta = servidor.getPorta();
+        }
+
+        String mapa = arquivoMapa, servidor = host;
+        int portaServidor = porta;
+        long rttMillis = rtt;
         SwingUtilities.invokeLater(() -> {
-            new Jogo("mapa.txt").setVisible(true);
+            try {
+                new Jogo(mapa, servidor, portaServidor, rttMillis).setVisible(true);
+            } catch (IOException e) {
+                JOptionPane.showMessageDialog(null, "Não foi possível conectar ao servidor: " + e.getMessage());
+                System.exit(1);
+            }
         });
     }
 }
@@ -2,38 +2,117 @@ import java.awt.Color;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 public class Mapa {
-    private List<String> mapa;
-    private Map<Character, ElementoMapa> elementos;
-    private int posX = 50; // Posição inicial X do personagem
-    private int posY = 50; // Posição inicial Y do personagem
-    private boolean[][] areaRevelada; // Rastreia quais partes do mapa foram reveladas
+    // Diretório esparso de chunks: páginas de PAGINA x PAGINA chunks criadas sob demanda, para que
+    // mapas enormes ou infinitos só ocupem memória nas regiões visitadas. Uma página sem chunks
+    // carregados é liberada
+    private static final int BITS_PAGINA = 6;
+    private static final int PAGINA = 1 << BITS_PAGINA;
+    private static final int MASCARA_PAGINA = PAGINA - 1;
+    private Chunk[][] paginas; // Em ordem de linha; cada página também em ordem de linha; nulos enquanto não carregados
+    private int paginasX;
+    private int[] chunksPorPagina; // Alterado apenas com a trava de carregamento
+    private FonteChunks fonte; // Origem dos chunks ainda não carregados; nula se todos estão em memória
+    private final Object carregamento = new Object();
+    private volatile int numChunksCarregados;
+
+    // Descarte de chunks: acima de maxChunks em memória, os menos usados recentemente e longe de
+    // qualquer âncora (jogadores) são descartados; os alterados são guardados no armazém
+    private static final int RAIO_ANCORA = 2; // Em chunks
+    private volatile int maxChunks; // 0: nunca descarta
+    private long orcamentoDescarte; // Como pedido em configuraDescarte; 0 sem descarte
+    private ArmazemChunks armazem;
+    private volatile long usoAtual; // Contador de passagens de descarte, a "hora" do LRU
+    private volatile Consumer<ElementoMapa> aoDescartarEntidade;
+    private int[] idsLivres = new int[16]; // Identificadores de entidades descartadas, reaproveitados
+    private int numIdsLivres;
+    private int numColunas;
+    private int numLinhas;
+    private final Map<Character, FabricaEntidade> fabricas = new ConcurrentHashMap<>();
+    private volatile ElementoMapa[] tabelaEntidades = new ElementoMapa[16];
+    // Quantas vezes cada identificador já foi liberado, para distinguir a entidade que o reutiliza
+    private volatile int[] geracoesEntidades = new int[16];
+    private volatile int numEntidades;
+    private IndiceEspacial indiceEspacial; // Posições das entidades, para consultas por proximidade
+    private final RegistroCelulas alteracoes = new RegistroCelulas(4096); // Para a sincronização em rede
+    private final TiposCelula tipos = new TiposCelula(); // Elementos fixos e suas propriedades, por símbolo
+    // Célula do personagem, independente do tamanho da célula na tela (que muda ao redimensionar)
+    private volatile int colunaPersonagem;
+    private volatile int linhaPersonagem;
     public static final Color brickColor = new Color(153, 76, 0); // Cor marrom para tijolos
     public static final Color vegetationColor = new Color(34, 139, 34); // Cor verde para vegetação
     public static final Color goldColor = new Color(181, 148, 16); // Cor dourada para moedas
     private final int RAIO_VISAO = 5; // Raio de visão do personagem
-    private int tamanhoCelula;
+    private volatile int tamanhoCelula;
+    private volatile OuvinteMapa ouvinte; // Notificado das células alteradas, para redesenho incremental
+    private final CampoVisao campoVisao = new CampoVisao(this, RAIO_VISAO);
+    private final CampoFluxo campoFluxo = new CampoFluxo(this, 32); // Caminhos até o personagem
+
+    // Acesso às células com semântica acquire/release, para que leituras sem trava
+    // (ex.: desenho na EDT) enxerguem as escritas feitas pelas threads dos inimigos
+    private static final VarHandle CELULA = MethodHandles.arrayElementVarHandle(char[].class);
+    private static final VarHandle ENTIDADE = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final VarHandle CHUNK = MethodHandles.arrayElementVarHandle(Chunk[].class);
+    private static final VarHandle PAGINA_CHUNKS = MethodHandles.arrayElementVarHandle(Chunk[][].class);
+
+    // Travas por região: o mapa é dividido em blocos de TAMANHO_REGIAO x TAMANHO_REGIAO células
+    // e cada bloco é protegido por uma das NUM_TRAVAS travas, evitando uma trava global
+    private static final int TAMANHO_REGIAO = IndiceEspacial.TAMANHO_BALDE;
+    private static final int NUM_TRAVAS = 64; // Potência de 2
+    private final Object[] travas = new Object[NUM_TRAVAS];
 
     public Mapa(String arquivoMapa, int tamanhoCelula) {
         this.tamanhoCelula = tamanhoCelula;
-        mapa = new ArrayList<>();
-        elementos = new HashMap<>();
-        carregaMapa(arquivoMapa);
-        areaRevelada = new boolean[mapa.size()][mapa.get(0).length()];
-        atualizaCelulasReveladas();
+        for (int i = 0; i < NUM_TRAVAS; i++)
+            travas[i] = new Object();
+        if (ArquivoChunks.ehArquivoChunks(arquivoMapa))
+            abreArquivoChunks(arquivoMapa);
+        else
+            carregaMapa(arquivoMapa);
+        // Como no mapa de texto, que já nasce todo em memória, os chunks em volta do personagem já
+        // estão carregados quando as fábricas de entidades forem registradas (ver registraEntidade)
+        carregaChunksProximos(colunaPersonagem, linhaPersonagem);
+    }
+
+    // Mapa cujos chunks são produzidos sob demanda por uma fonte (ex.: MazeGenerator), sem arquivo
+    public Mapa(int numColunas, int numLinhas, int xInicial, int yInicial, FonteChunks fonte, int tamanhoCelula) {
+        this.tamanhoCelula = tamanhoCelula;
+        for (int i = 0; i < NUM_TRAVAS; i++)
+            travas[i] = new Object();
+        this.numColunas = numColunas;
+        this.numLinhas = numLinhas;
+        colunaPersonagem = xInicial;
+        linhaPersonagem = yInicial;
+        this.fonte = fonte;
+        criaChunks();
+        carregaChunksProximos(colunaPersonagem, linhaPersonagem);
     }
 
+    // Posição do personagem em pixels na tela, para o tamanho de célula atual
     public int getPosX() {
-        return posX;
+        return colunaPersonagem * tamanhoCelula;
     }
 
     public int getPosY() {
-        return posY;
+        return (linhaPersonagem + 1) * tamanhoCelula;
+    }
+
+    // Coluna e linha da célula do mapa ocupada pelo personagem
+    public int getColunaPersonagem() {
+        return colunaPersonagem;
+    }
+
+    public int getLinhaPersonagem() {
+        return linhaPersonagem;
     }
 
     public int getTamanhoCelula() {
@@ -44,48 +123,561 @@ public class Mapa {
         this.tamanhoCelula = tamanhoCelula;
     }
 
+    public void setOuvinte(OuvinteMapa ouvinte) {
+        this.ouvinte = ouvinte;
+    }
+
+    // Notifica o ouvinte de que o retângulo de células foi alterado
+    private void notificaAlteracao(int x, int y, int largura, int altura) {
+        OuvinteMapa o = ouvinte;
+        if (o != null)
+            o.regiaoAlterada(x, y, largura, altura);
+    }
+
     public int getNumLinhas() {
-        return mapa.size();
+        return numLinhas;
     }
 
     public int getNumColunas() {
-        return mapa.get(0).length();
+        return numColunas;
+    }
+
+    // Verifica se a posição está dentro dos limites do mapa
+    private boolean dentroDoMapa(int x, int y) {
+        return x >= 0 && x < numColunas && y >= 0 && y < numLinhas;
+    }
+
+    // Retorna o chunk da célula (x, y), carregando-o se necessário
+    private Chunk chunk(int x, int y) {
+        Chunk c = chunkCarregado(x, y);
+        return c != null ? c : carregaChunk(x >> Chunk.BITS, y >> Chunk.BITS);
+    }
+
+    // Retorna o chunk da célula (x, y) somente se já estiver em memória
+    private Chunk chunkCarregado(int x, int y) {
+        return chunkNoDiretorio(x >> Chunk.BITS, y >> Chunk.BITS);
+    }
+
+    private Chunk chunkNoDiretorio(int cx, int cy) {
+        Chunk[] pagina = (Chunk[]) PAGINA_CHUNKS.getAcquire(paginas, indicePagina(cx, cy));
+        return pagina != null ? (Chunk) CHUNK.getAcquire(pagina, indiceNaPagina(cx, cy)) : null;
+    }
+
+    private int indicePagina(int cx, int cy) {
+        return (cy >> BITS_PAGINA) * paginasX + (cx >> BITS_PAGINA);
+    }
+
+    private static int indiceNaPagina(int cx, int cy) {
+        return ((cy & MASCARA_PAGINA) << BITS_PAGINA) | (cx & MASCARA_PAGINA);
+    }
+
+    // Coloca o chunk no diretório, criando sua página se preciso; com a trava de carregamento
+    private void publicaChunk(int cx, int cy, Chunk c) {
+        int p = indicePagina(cx, cy);
+        Chunk[] pagina = paginas[p];
+        if (pagina == null) {
+            pagina = new Chunk[PAGINA * PAGINA];
+            PAGINA_CHUNKS.setRelease(paginas, p, pagina);
+        }
+        c.ultimoUso = usoAtual;
+        CHUNK.setRelease(pagina, indiceNaPagina(cx, cy), c);
+        chunksPorPagina[p]++;
+        numChunksCarregados++;
+    }
+
+    // Carrega o chunk (do armazém, se já foi descartado alterado, ou da fonte) e cria as entidades
+    // registradas antes de publicá-lo. Nunca é chamado com travas de região adquiridas, para não
+    // inverter a ordem das travas
+    private Chunk carregaChunk(int cx, int cy) {
+        synchronized (carregamento) {
+            Chunk c = chunkNoDiretorio(cx, cy);
+            if (c != null)
+                return c;
+
+            c = armazem != null ? armazem.carrega(cx, cy) : null;
+            if (c == null)
+                c = fonte != null ? fonte.carregaChunk(cx, cy) : new Chunk();
+            if (!fabricas.isEmpty()) {
+                for (int i = 0; i < Chunk.NUM_CELULAS; i++) {
+                    int x = (cx << Chunk.BITS) | (i & Chunk.MASCARA);
+                    int y = (cy << Chunk.BITS) | (i >> Chunk.BITS);
+                    FabricaEntidade fabrica = fabricas.get(c.celulas[i]);
+                    if (fabrica != null && dentroDoMapa(x, y)) {
+                        int idEntidade = registraNaTabela(fabrica.cria(x, y));
+                        c.entidades[i] = idEntidade;
+                        synchronized (travas[indiceTrava(x, y)]) {
+                            indiceEspacial.insere(idEntidade, x, y);
+                        }
+                    }
+                }
+            }
+            publicaChunk(cx, cy, c);
+            return c;
+        }
+    }
+
+    // Carrega antecipadamente os chunks vizinhos à célula (x, y)
+    public void carregaChunksProximos(int x, int y) {
+        int raio = RAIO_VISAO + Chunk.LADO;
+        for (int cy = Math.max(0, y - raio) >> Chunk.BITS; cy <= Math.min(numLinhas - 1, y + raio) >> Chunk.BITS; cy++) {
+            for (int cx = Math.max(0, x - raio) >> Chunk.BITS; cx <= Math.min(numColunas - 1, x + raio) >> Chunk.BITS; cx++) {
+                if (chunkNoDiretorio(cx, cy) == null)
+                    carregaChunk(cx, cy);
+            }
+        }
+    }
+
+    // Traz para a memória o chunk (cx, cy), se ainda não estiver (ex.: os chunks que estavam em
+    // memória em uma partida salva, ver SalvamentoMundo.criaMapa)
+    void carregaChunkSalvo(int cx, int cy) {
+        if (chunkNoDiretorio(cx, cy) == null)
+            carregaChunk(cx, cy);
+    }
+
+    // Retorna o chunk da célula (x, y) se já estiver em memória; nulo fora do mapa
+    Chunk getChunkCarregado(int x, int y) {
+        return dentroDoMapa(x, y) ? chunkCarregado(x, y) : null;
+    }
+
+    // Leituras sem trava de uma célula (Chunk.indice) de um chunk obtido com getChunkCarregado, para
+    // percorrer suas células sem que nenhuma leitura o traga de volta se for descartado no meio
+    char getIdCelula(Chunk c, int indice) {
+        return leCelula(c, indice);
+    }
+
+    ElementoMapa getElemento(Chunk c, int indice) {
+        int entidade = leEntidade(c, indice);
+        if (entidade != 0)
+            return tabelaEntidades[entidade - 1];
+        return tipos.getElemento(leCelula(c, indice));
+    }
+
+    void paraCadaChunkCarregado(Consumer<Chunk> acao) {
+        paraCadaChunk((c, cx, cy) -> acao.accept(c));
+    }
+
+    interface AcaoChunk {
+        void aplica(Chunk c, int cx, int cy);
+    }
+
+    private void paraCadaChunk(AcaoChunk acao) {
+        for (int p = 0; p < paginas.length; p++) {
+            Chunk[] pagina = (Chunk[]) PAGINA_CHUNKS.getAcquire(paginas, p);
+            if (pagina == null)
+                continue;
+            for (int k = 0; k < pagina.length; k++) {
+                Chunk c = (Chunk) CHUNK.getAcquire(pagina, k);
+                if (c != null)
+                    acao.aplica(c, (p % paginasX) << BITS_PAGINA | (k & MASCARA_PAGINA),
+                            (p / paginasX) << BITS_PAGINA | (k >> BITS_PAGINA));
+            }
+        }
+    }
+
+    // Início de um salvamento (ver SalvamentoMundo), entre dois ticks: marca os chunks em memória
+    // para serem copiados antes da próxima alteração e os passa a 'acao'
+    void capturaChunks(AcaoChunk acao) {
+        synchronized (carregamento) {
+            paraCadaChunk((c, cx, cy) -> {
+                c.salvamentoPendente = true;
+                acao.aplica(c, cx, cy);
+            });
+        }
+    }
+
+    // Armazém dos chunks descartados; nulo sem descarte
+    ArmazemChunks getArmazem() {
+        return armazem;
+    }
+
+    FonteChunks getFonte() {
+        return fonte;
+    }
+
+    // Ativa o descarte de chunks acima de 'orcamentoBytes' de memória estimada; os chunks
+    // alterados vão para 'armazem' e são recuperados dele quando voltarem a ser necessários
+    public void configuraDescarte(long orcamentoBytes, ArmazemChunks armazem) {
+        synchronized (carregamento) {
+            this.armazem = armazem;
+            this.orcamentoDescarte = orcamentoBytes;
+            this.maxChunks = (int) Math.max(1, orcamentoBytes / Chunk.BYTES_ESTIMADOS);
+        }
+    }
+
+    public long getOrcamentoDescarte() {
+        synchronized (carregamento) {
+            return orcamentoDescarte;
+        }
+    }
+
+    // Chamado para cada entidade descartada junto com seu chunk (ex.: para parar um inimigo)
+    public void setAoDescartarEntidade(Consumer<ElementoMapa> acao) {
+        this.aoDescartarEntidade = acao;
+    }
+
+    // Marca como usados os chunks próximos às âncoras e, se houver chunks demais em memória,
+    // descarta os demais do menos ao mais recentemente usado. As entidades dos chunks descartados
+    // saem da tabela e do índice; seus símbolos ficam nas células e elas são recriadas pelas
+    // fábricas quando o chunk voltar. Deve ser chamado sem atores executando (ex.: ao final do
+    // tick); retorna quantos chunks foram descartados
+    public int descartaChunks(int[] ancorasX, int[] ancorasY, int numAncoras) {
+        if (maxChunks == 0)
+            return 0;
+        synchronized (carregamento) {
+            long uso = ++usoAtual;
+            for (int a = 0; a < numAncoras; a++) {
+                int acx = ancorasX[a] >> Chunk.BITS, acy = ancorasY[a] >> Chunk.BITS;
+                for (int cy = Math.max(0, acy - RAIO_ANCORA); cy <= acy + RAIO_ANCORA; cy++) {
+                    for (int cx = Math.max(0, acx - RAIO_ANCORA); cx <= acx + RAIO_ANCORA; cx++) {
+                        if (dentroDoMapa(cx << Chunk.BITS, cy << Chunk.BITS)) {
+                            Chunk c = chunkNoDiretorio(cx, cy);
+                            if (c != null)
+                                c.ultimoUso = uso;
+                        }
+                    }
+                }
+            }
+            int excesso = numChunksCarregados - maxChunks;
+            if (excesso <= 0)
+                return 0;
+
+            // Candidatos: os que não estão junto a uma âncora, dos usados há mais tempo
+            List<long[]> candidatos = new ArrayList<>();
+            paraCadaChunk((c, cx, cy) -> {
+                if (c.ultimoUso != uso)
+                    candidatos.add(new long[]{c.ultimoUso, cx, cy});
+            });
+            candidatos.sort((a, b) -> Long.compare(a[0], b[0]));
+            int descartados = 0;
+            for (int i = 0; i < candidatos.size() && descartados < excesso; i++) {
+                descartaChunk((int) candidatos.get(i)[1], (int) candidatos.get(i)[2]);
+                descartados++;
+            }
+            return descartados;
+        }
+    }
+
+    // Com a trava de carregamento
+    private void descartaChunk(int cx, int cy) {
+        int p = indicePagina(cx, cy);
+        Chunk[] pagina = paginas[p];
+        Chunk c = pagina[indiceNaPagina(cx, cy)];
+        for (int i = 0; i < Chunk.NUM_CELULAS; i++) {
+            int entidade = leEntidade(c, i);
+            if (entidade == 0)
+                continue;
+            int x = (cx << Chunk.BITS) | (i & Chunk.MASCARA);
+            int y = (cy << Chunk.BITS) | (i >> Chunk.BITS);
+            synchronized (travas[indiceTrava(x, y)]) {
+                indiceEspacial.remove(entidade);
+                escreveEntidade(c, i, 0);
+            }
+            ElementoMapa elemento = liberaDaTabela(entidade);
+            Consumer<ElementoMapa> acao = aoDescartarEntidade;
+            if (acao != null && elemento != null)
+                acao.accept(elemento);
+        }
+        if (c.modificado && armazem != null)
+            armazem.guarda(cx, cy, c);
+
+        CHUNK.setRelease(pagina, indiceNaPagina(cx, cy), null);
+        numChunksCarregados--;
+        if (--chunksPorPagina[p] == 0) {
+            PAGINA_CHUNKS.setRelease(paginas, p, null);
+            synchronized (travas[indiceTrava(cx << Chunk.BITS, cy << Chunk.BITS)]) {
+                indiceEspacial.liberaPagina(cx << Chunk.BITS, cy << Chunk.BITS);
+            }
+        }
+    }
+
+    public RegistroCelulas getAlteracoes() {
+        return alteracoes;
+    }
+
+    public CampoVisao getCampoVisao() {
+        return campoVisao;
+    }
+
+    public CampoFluxo getCampoFluxo() {
+        return campoFluxo;
+    }
+
+    // Elementos opacos bloqueiam o campo de visão
+    private static boolean ehOpaco(ElementoMapa elemento) {
+        return elemento != null && !elemento.podeSerAtravessado();
+    }
+
+    public int getNumChunksCarregados() {
+        return numChunksCarregados;
+    }
+
+    // Retorna o chunk (cx, cy), em coordenadas de chunk, carregando-o se necessário
+    Chunk getChunk(int cx, int cy) {
+        return chunk(cx << Chunk.BITS, cy << Chunk.BITS);
+    }
+
+    // Lê o identificador da célula sem trava
+    private static char leCelula(Chunk c, int indice) {
+        return (char) CELULA.getAcquire(c.celulas, indice);
+    }
+
+    // Escreve o identificador da célula; deve ser chamado com a trava da região adquirida
+    private static void escreveCelula(Chunk c, int indice, char id) {
+        c.antesDeAlterar();
+        CELULA.setRelease(c.celulas, indice, id);
+        c.modificado = true;
+    }
+
+    private static int leEntidade(Chunk c, int indice) {
+        return (int) ENTIDADE.getAcquire(c.entidades, indice);
+    }
+
+    private static void escreveEntidade(Chunk c, int indice, int entidade) {
+        ENTIDADE.setRelease(c.entidades, indice, entidade);
+    }
+
+    // Retorna o índice da trava que protege a região da célula (x, y)
+    private int indiceTrava(int x, int y) {
+        int regiao = (y / TAMANHO_REGIAO) * 31 + (x / TAMANHO_REGIAO);
+        return (regiao ^ (regiao >>> 6)) & (NUM_TRAVAS - 1);
     }
 
     public ElementoMapa getElemento(Character id) {
-        return elementos.get(id);
+        return tipos.getElemento(id);
+    }
+
+    public TiposCelula getTipos() {
+        return tipos;
+    }
+
+    // Propriedades (TiposCelula) do símbolo da célula; 0 fora do mapa, vazia ou não registrada
+    public int getFlags(int x, int y) {
+        if (!dentroDoMapa(x, y))
+            return 0;
+        return tipos.getFlags(leCelula(chunk(x, y), Chunk.indice(x, y)));
+    }
+
+    // Se a célula bloqueia o campo de visão: a entidade que a ocupa ou o elemento fixo
+    public boolean ehOpaco(int x, int y) {
+        if (!dentroDoMapa(x, y))
+            return false;
+        Chunk c = chunk(x, y);
+        int indice = Chunk.indice(x, y);
+        int entidade = leEntidade(c, indice);
+        if (entidade != 0)
+            return ehOpaco(tabelaEntidades[entidade - 1]);
+        return (tipos.getFlags(leCelula(c, indice)) & TiposCelula.OPACO) != 0;
     }
 
     public ElementoMapa getElemento(int x, int y) {
-        if (x < 0 || x >= mapa.get(0).length() || y < 0 || y >= mapa.size()) {
+        if (!dentroDoMapa(x, y)) {
             return null;
         }
-        Character id = mapa.get(y).charAt(x);
-        return elementos.get(id);
+        Chunk c = chunk(x, y);
+        int indice = Chunk.indice(x, y);
+        int entidade = leEntidade(c, indice);
+        if (entidade != 0)
+            return tabelaEntidades[entidade - 1];
+        return tipos.getElemento(leCelula(c, indice));
     }
 
-    public boolean setElemento(Character id, int x, int y) {
-        if (x < 0 || x >= mapa.get(0).length() || y < 0 || y >= mapa.size()) {
-            System.out.println("Fora do mapa");
+    // Verifica se uma entidade (ex.: um inimigo) pode ocupar a célula: vazia ou ocupada apenas
+    // por outra entidade, que pode sair dela. Usado pelas buscas de caminho
+    public boolean estaLivreParaEntidade(int x, int y) {
+        if (!dentroDoMapa(x, y))
             return false;
+        Chunk c = chunk(x, y);
+        int indice = Chunk.indice(x, y);
+        if (leEntidade(c, indice) != 0)
+            return true;
+        return (tipos.getFlags(leCelula(c, indice)) & TiposCelula.OCUPA) == 0;
+    }
+
+    // Retorna o identificador (símbolo no arquivo de mapa) da célula
+    public char getIdCelula(int x, int y) {
+        if (!dentroDoMapa(x, y)) {
+            return ' ';
+        }
+        return leCelula(chunk(x, y), Chunk.indice(x, y));
+    }
+
+    // Coloca uma entidade com estado próprio (ex.: um inimigo) na célula e retorna seu identificador
+    public int adicionaEntidade(char id, ElementoMapa entidade, int x, int y) {
+        if (!dentroDoMapa(x, y)) {
+            Registrador.registra(Registrador.Nivel.AVISO, Resultado.FORA_DO_MAPA.getDescricao(), x, y);
+            return 0;
+        }
+
+        int idEntidade = registraNaTabela(entidade);
+        Chunk c = chunk(x, y);
+        int indice = Chunk.indice(x, y);
+        boolean eraOpaco = ehOpaco(getElemento(x, y));
+        synchronized (travas[indiceTrava(x, y)]) {
+            int anterior = leEntidade(c, indice);
+            if (anterior != 0)
+                indiceEspacial.remove(anterior);
+            escreveEntidade(c, indice, idEntidade);
+            escreveCelula(c, indice, id);
+            indiceEspacial.insere(idEntidade, x, y);
         }
+        if (eraOpaco || ehOpaco(entidade))
+            campoVisao.invalida(x, y);
+        notificaAlteracao(x, y, 1, 1);
+        return idEntidade;
+    }
 
-        StringBuilder sb = new StringBuilder(mapa.get(y));
-        // System.out.println("Antes: " + mapa.get(y));
-        sb.setCharAt(x, id);
-        mapa.set(y, sb.toString());
-        // System.out.println("Depois: " + mapa.get(y));
+    // Retira do mapa uma entidade colocada por adicionaEntidade (ex.: um jogador que saiu) e
+    // libera seu identificador para reuso. Retorna false se ela não estiver mais no mapa
+    public boolean removeEntidade(int idEntidade) {
+        ElementoMapa entidade = getEntidade(idEntidade);
+        if (entidade == null)
+            return false;
+        int x = getColunaEntidade(idEntidade);
+        int y = getLinhaEntidade(idEntidade);
+        Chunk c = chunk(x, y);
+        int indice = Chunk.indice(x, y);
+        synchronized (travas[indiceTrava(x, y)]) {
+            if (leEntidade(c, indice) != idEntidade)
+                return false;
+            indiceEspacial.remove(idEntidade);
+            escreveEntidade(c, indice, 0);
+            escreveCelula(c, indice, ' ');
+        }
+        liberaDaTabela(idEntidade);
+        alteracoes.registra(x, y, ' ');
+        if (ehOpaco(entidade))
+            campoVisao.invalida(x, y);
+        notificaAlteracao(x, y, 1, 1);
         return true;
     }
 
-    public boolean setElemento(ElementoMapa elemento, int x, int y) {
-        // Econtra chave do elemento no set
-        for (Map.Entry<Character, ElementoMapa> entry : elementos.entrySet()) {
-            if (entry.getValue().equals(elemento)) {
-                return setElemento(entry.getKey(), x, y);
+    private synchronized int registraNaTabela(ElementoMapa entidade) {
+        if (numIdsLivres > 0) {
+            int id = idsLivres[--numIdsLivres];
+            tabelaEntidades[id - 1] = entidade;
+            return id;
+        }
+        ElementoMapa[] tabela = tabelaEntidades;
+        if (numEntidades == tabela.length) {
+            tabela = Arrays.copyOf(tabela, tabela.length * 2);
+            geracoesEntidades = Arrays.copyOf(geracoesEntidades, tabela.length);
+        }
+        tabela[numEntidades] = entidade;
+        tabelaEntidades = tabela;
+        indiceEspacial.garanteCapacidade(numEntidades + 1);
+        return ++numEntidades;
+    }
+
+    private synchronized ElementoMapa liberaDaTabela(int id) {
+        ElementoMapa entidade = tabelaEntidades[id - 1];
+        tabelaEntidades[id - 1] = null;
+        geracoesEntidades[id - 1]++;
+        if (numIdsLivres == idsLivres.length)
+            idsLivres = Arrays.copyOf(idsLivres, idsLivres.length * 2);
+        idsLivres[numIdsLivres++] = id;
+        return entidade;
+    }
+
+    // Registra a fábrica das entidades do símbolo 'id': cada célula com esse símbolo vira uma
+    // entidade própria assim que seu chunk é carregado (inclusive os já carregados)
+    public void registraEntidade(char id, FabricaEntidade fabrica) {
+        synchronized (carregamento) {
+            fabricas.put(id, fabrica);
+            paraCadaChunk((c, cx, cy) -> {
+                for (int i = 0; i < Chunk.NUM_CELULAS; i++) {
+                    int x = (cx << Chunk.BITS) | (i & Chunk.MASCARA);
+                    int y = (cy << Chunk.BITS) | (i >> Chunk.BITS);
+                    if (leCelula(c, i) == id && leEntidade(c, i) == 0 && dentroDoMapa(x, y)) {
+                        int idEntidade = registraNaTabela(fabrica.cria(x, y));
+                        synchronized (travas[indiceTrava(x, y)]) {
+                            escreveEntidade(c, i, idEntidade);
+                            indiceEspacial.insere(idEntidade, x, y);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    // Identificador da entidade que ocupa a célula; 0 se nenhuma
+    public int getIdEntidade(int x, int y) {
+        if (!dentroDoMapa(x, y))
+            return 0;
+        return leEntidade(chunk(x, y), Chunk.indice(x, y));
+    }
+
+    // Preenche 'saida' com os identificadores das entidades a no máximo 'raio' células de (x, y)
+    // em cada eixo e retorna quantas foram encontradas (limitado ao tamanho de 'saida').
+    // Percorre apenas os baldes do índice espacial que cobrem o quadrado, um de cada vez
+    public int entidadesNoRaio(int x, int y, int raio, int[] saida) {
+        int x0 = Math.max(0, x - raio), y0 = Math.max(0, y - raio);
+        int x1 = Math.min(numColunas - 1, x + raio), y1 = Math.min(numLinhas - 1, y + raio);
+        int n = 0;
+        for (int by = y0 - y0 % TAMANHO_REGIAO; by <= y1; by += TAMANHO_REGIAO) {
+            for (int bx = x0 - x0 % TAMANHO_REGIAO; bx <= x1; bx += TAMANHO_REGIAO) {
+                synchronized (travas[indiceTrava(bx, by)]) {
+                    n = indiceEspacial.coletaBalde(bx, by, x0, y0, x1, y1, saida, n);
+                }
             }
         }
-        System.out.println("Elemento não encontrado");
+        return n;
+    }
+
+    // Posição de uma entidade segundo o índice espacial
+    public int getColunaEntidade(int idEntidade) {
+        return indiceEspacial.getX(idEntidade);
+    }
+
+    public int getLinhaEntidade(int idEntidade) {
+        return indiceEspacial.getY(idEntidade);
+    }
+
+    public ElementoMapa getEntidade(int idEntidade) {
+        return tabelaEntidades[idEntidade - 1];
+    }
+
+    // Muda sempre que o identificador é liberado: mesmo id e mesma geração, mesma entidade
+    public int getGeracaoEntidade(int idEntidade) {
+        return geracoesEntidades[idEntidade - 1];
+    }
+
+    // Maior identificador de entidade já usado; os identificadores liberados são reutilizados
+    public int getNumEntidades() {
+        return numEntidades;
+    }
+
+    public boolean setElemento(Character id, int x, int y) {
+        return setElemento(id.charValue(), x, y);
+    }
+
+    public boolean setElemento(char id, int x, int y) {
+        if (!dentroDoMapa(x, y)) {
+            Registrador.registra(Registrador.Nivel.DEPURACAO, Resultado.FORA_DO_MAPA.getDescricao(), x, y);
+            return false;
+        }
+
+        Chunk c = chunk(x, y);
+        int indice = Chunk.indice(x, y);
+        boolean eraOpaco = ehOpaco(getElemento(x, y));
+        synchronized (travas[indiceTrava(x, y)]) {
+            int anterior = leEntidade(c, indice);
+            if (anterior != 0)
+                indiceEspacial.remove(anterior);
+            escreveEntidade(c, indice, 0);
+            escreveCelula(c, indice, id);
+        }
+        alteracoes.registra(x, y, id);
+        if (eraOpaco || (tipos.getFlags(id) & TiposCelula.OPACO) != 0)
+            campoVisao.invalida(x, y);
+        notificaAlteracao(x, y, 1, 1);
+        return true;
+    }
+
+    public boolean setElemento(ElementoMapa elemento, int x, int y) {
+        int simbolo = tipos.getSimbolo(elemento);
+        if (simbolo >= 0)
+            return setElemento((char) simbolo, x, y);
+        Registrador.registra(Registrador.Nivel.AVISO, Resultado.ELEMENTO_DESCONHECIDO.getDescricao(), x, y);
         return false;
     }
 
@@ -94,99 +686,193 @@ public class Mapa {
     }
 
     public boolean moveElemento(int xOrigem, int yOrigem, int xDestino, int yDestino) {
-        if (xOrigem < 0 || xOrigem >= mapa.get(0).length() || yOrigem < 0 || yOrigem >= mapa.size() ||
-            xDestino < 0 || xDestino >= mapa.get(0).length() || yDestino < 0 || yDestino >= mapa.size()) {
-            System.out.println("Fora do mapa");
-            return false;
-        }
+        return tentaMoverElemento(xOrigem, yOrigem, xDestino, yDestino).ok();
+    }
 
-        Character id = mapa.get(yOrigem).charAt(xOrigem);
-        if (id == ' ') {
-            System.out.println("Não há elemento na origem");
-            return false;
+    // Como moveElemento, mas informa por que o movimento falhou. Falhas são comuns (inimigos
+    // esbarram em paredes a cada tick) e só aparecem no registro em nível de depuração
+    public Resultado tentaMoverElemento(int xOrigem, int yOrigem, int xDestino, int yDestino) {
+        if (!dentroDoMapa(xOrigem, yOrigem) || !dentroDoMapa(xDestino, yDestino)) {
+            if (Metricas.ATIVAS)
+                Metricas.registraMovimento(false);
+            Registrador.registra(Registrador.Nivel.DEPURACAO, Resultado.FORA_DO_MAPA.getDescricao(), xDestino, yDestino);
+            return Resultado.FORA_DO_MAPA;
         }
 
-        if (getElemento(xDestino, yDestino) != null) {
-            System.out.println("Já existe um elemento no destino");
-            return false;
+        // Os chunks são obtidos antes das travas, pois carregá-los pode exigir a trava de carregamento
+        Chunk chunkOrigem = chunk(xOrigem, yOrigem);
+        Chunk chunkDestino = chunk(xDestino, yDestino);
+
+        // Adquire as travas das duas regiões sempre na mesma ordem para evitar deadlock
+        int travaOrigem = indiceTrava(xOrigem, yOrigem);
+        int travaDestino = indiceTrava(xDestino, yDestino);
+        Object primeira = travas[Math.min(travaOrigem, travaDestino)];
+        Object segunda = travas[Math.max(travaOrigem, travaDestino)];
+
+        Resultado resultado;
+        synchronized (primeira) {
+            synchronized (segunda) {
+                resultado = trocaCelulas(chunkOrigem, Chunk.indice(xOrigem, yOrigem),
+                        chunkDestino, Chunk.indice(xDestino, yDestino), xDestino, yDestino);
+            }
         }
+        boolean movido = resultado.ok();
 
-        if (!setElemento(id, xDestino, yDestino)) {
-            System.out.println("Não foi possível mover o elemento");
-            return false;
+        // Mover um elemento opaco altera a visão ao redor da origem e do destino
+        if (movido && ehOpaco(getElemento(xDestino, yDestino))) {
+            campoVisao.invalida(xOrigem, yOrigem);
+            campoVisao.invalida(xDestino, yDestino);
         }
 
-        if (!apagaElemento(xOrigem, yOrigem)) {
-            System.out.println("Não foi possível apagar o elemento");
-            return false;
-        }
+        if (Metricas.ATIVAS)
+            Metricas.registraMovimento(movido);
+        if (movido)
+            notificaAlteracao(Math.min(xOrigem, xDestino), Math.min(yOrigem, yDestino),
+                    Math.abs(xDestino - xOrigem) + 1, Math.abs(yDestino - yOrigem) + 1);
+        else
+            Registrador.registra(Registrador.Nivel.DEPURACAO, resultado.getDescricao(), xDestino, yDestino);
+        return resultado;
+    }
 
-        return true;
+    // Move o conteúdo da origem para o destino vazio; deve ser chamado com as travas das duas regiões
+    private Resultado trocaCelulas(Chunk chunkOrigem, int origem, Chunk chunkDestino, int destino,
+                                   int xDestino, int yDestino) {
+        char id = leCelula(chunkOrigem, origem);
+        if (id == ' ')
+            return Resultado.ORIGEM_VAZIA;
+
+        if (leEntidade(chunkDestino, destino) != 0 || (tipos.getFlags(leCelula(chunkDestino, destino)) & TiposCelula.OCUPA) != 0)
+            return Resultado.DESTINO_OCUPADO;
+
+        int entidade = leEntidade(chunkOrigem, origem);
+        if (entidade != 0)
+            indiceEspacial.move(entidade, xDestino, yDestino);
+        escreveEntidade(chunkDestino, destino, entidade);
+        escreveCelula(chunkDestino, destino, id);
+        escreveEntidade(chunkOrigem, origem, 0);
+        escreveCelula(chunkOrigem, origem, ' ');
+        return Resultado.OK;
     }
 
+    // Células de chunks ainda não carregados nunca foram reveladas
     public boolean estaRevelado(int x, int y) {
-        return areaRevelada[y][x];
+        if (!dentroDoMapa(x, y))
+            return false;
+        Chunk c = chunkCarregado(x, y);
+        return c != null && c.estaRevelado(Chunk.indice(x, y));
+    }
+
+    // Conta as células reveladas no retângulo, uma palavra do bitset por linha de chunk; permite
+    // ao desenho tratar de uma vez blocos totalmente cobertos ou totalmente livres de névoa
+    public int contaRevelados(int x, int y, int largura, int altura) {
+        int x0 = Math.max(0, x), y0 = Math.max(0, y);
+        int x1 = Math.min(numColunas - 1, x + largura - 1), y1 = Math.min(numLinhas - 1, y + altura - 1);
+        int total = 0;
+        for (int i = y0; i <= y1; i++) {
+            for (int j = x0; j <= x1; j = (j | Chunk.MASCARA) + 1) {
+                Chunk c = chunkCarregado(j, i);
+                if (c != null)
+                    total += c.contaRevelados(j & Chunk.MASCARA, Math.min(x1, j | Chunk.MASCARA) & Chunk.MASCARA, i & Chunk.MASCARA);
+            }
+        }
+        return total;
     }
 
     // Move conforme enum Direcao
     public boolean move(Direcao direcao) {
+        return tentaMover(direcao).ok();
+    }
+
+    // Como move, mas informa por que o personagem não se moveu
+    public Resultado tentaMover(Direcao direcao) {
         int dx = 0, dy = 0;
 
         switch (direcao) {
             case CIMA:
-                dy = -tamanhoCelula;
+                dy = -1;
                 break;
             case BAIXO:
-                dy = tamanhoCelula;
+                dy = 1;
                 break;
             case ESQUERDA:
-                dx = -tamanhoCelula;
+                dx = -1;
                 break;
             case DIREITA:
-                dx = tamanhoCelula;
+                dx = 1;
                 break;
             default:
-                return false;
+                return Resultado.BLOQUEADO;
         }
 
-        if (!podeMover(posX + dx, posY + dy)) {
-            System.out.println("Não pode mover");
-            return false;
+        int mapX = colunaPersonagem + dx;
+        int mapY = linhaPersonagem + dy;
+        if (!podeMover(mapX, mapY)) {
+            if (Metricas.ATIVAS)
+                Metricas.registraMovimento(false);
+            Registrador.registra(Registrador.Nivel.DEPURACAO, Resultado.BLOQUEADO.getDescricao(), mapX, mapY);
+            return Resultado.BLOQUEADO;
         }
+        if (Metricas.ATIVAS)
+            Metricas.registraMovimento(true);
+
+        colunaPersonagem = mapX;
+        linhaPersonagem = mapY;
 
-        posX += dx;
-        posY += dy;
+        // Redesenha as células de onde o personagem saiu e para onde foi
+        notificaAlteracao(Math.min(mapX, mapX - dx), Math.min(mapY, mapY - dy), Math.abs(dx) + 1, Math.abs(dy) + 1);
 
-        // Atualiza as células reveladas
+        // Atualiza as células reveladas e traz para a memória os chunks ao redor
         atualizaCelulasReveladas();
-        return true;
+        carregaChunksProximos(mapX, mapY);
+        return Resultado.OK;
     }
 
-    // Verifica se o personagem pode se mover para a próxima posição
-    private boolean podeMover(int nextX, int nextY) {
-        int mapX = nextX / tamanhoCelula;
-        int mapY = nextY / tamanhoCelula - 1;
+    // Coloca o personagem na célula (x, y) sem verificar o destino. Usado pelo cliente em rede,
+    // cuja posição é prevista localmente e corrigida pelo servidor
+    public void setPosicaoPersonagem(int x, int y) {
+        int xAnterior = getColunaPersonagem();
+        int yAnterior = getLinhaPersonagem();
+        if (x == xAnterior && y == yAnterior)
+            return;
+        colunaPersonagem = x;
+        linhaPersonagem = y;
+        notificaAlteracao(xAnterior, yAnterior, 1, 1);
+        notificaAlteracao(x, y, 1, 1);
+        atualizaCelulasReveladas();
+        carregaChunksProximos(x, y);
+    }
 
-        if (mapa == null)
+    // Regra de movimento dos jogadores em rede, a mesma no servidor e na predição do cliente:
+    // o destino deve estar sem entidade e vazio, com um símbolo não registrado ou com uma
+    // moeda, que o jogador recolhe ao entrar
+    public boolean podeMoverJogador(int x, int y) {
+        if (!dentroDoMapa(x, y))
             return false;
+        Chunk c = chunk(x, y);
+        int indice = Chunk.indice(x, y);
+        if (leEntidade(c, indice) != 0)
+            return false;
+        int flags = tipos.getFlags(leCelula(c, indice));
+        return (flags & TiposCelula.OCUPA) == 0 || (flags & TiposCelula.COLETAVEL) != 0;
+    }
 
-        if (mapX >= 0 && mapX < mapa.get(0).length() && mapY >= 1 && mapY <= mapa.size()) {
-            char id;
-
-            try {
-               id = mapa.get(mapY).charAt(mapX);
-            } catch (StringIndexOutOfBoundsException e) {
-                return false;
-            }
+    // Verifica se o personagem pode se mover para a célula (mapX, mapY)
+    private boolean podeMover(int mapX, int mapY) {
+        if (paginas == null)
+            return false;
 
+        if (mapX >= 0 && mapX < numColunas && mapY >= 1 && mapY < numLinhas) {
+            Chunk c = chunk(mapX, mapY);
+            int indice = Chunk.indice(mapX, mapY);
+            char id = leCelula(c, indice);
             if (id == ' ')
                 return true;
 
-            ElementoMapa elemento = elementos.get(id);
-            if (elemento != null) {
-                //System.out.println("Elemento: " + elemento.getSimbolo() + " " + elemento.getCor());
-                return elemento.podeSerAtravessado();
-            }
+            // Entidades decidem por si; os demais símbolos pela máscara do tipo (não registrados bloqueiam)
+            int entidade = leEntidade(c, indice);
+            if (entidade != 0)
+                return tabelaEntidades[entidade - 1].podeSerAtravessado();
+            return (tipos.getFlags(id) & TiposCelula.ATRAVESSAVEL) != 0;
         }
 
         return false;
@@ -203,35 +889,123 @@ public class Mapa {
     }
 
     private void carregaMapa(String filename) {
+        List<String> linhas = new ArrayList<>();
         try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
             String line;
             while ((line = br.readLine()) != null) {
-                mapa.add(line);
+                linhas.add(line);
                 // Se character 'P' está contido na linha atual, então define a posição inicial do personagem
                 if (line.contains("P")) {
-                    posX = line.indexOf('P') * tamanhoCelula;
-                    posY = mapa.size() * tamanhoCelula;
+                    colunaPersonagem = line.indexOf('P');
+                    linhaPersonagem = linhas.size() - 1;
                     // Remove o personagem da linha para evitar que seja desenhado
-                    mapa.set(mapa.size() - 1, line.replace('P', ' '));
+                    linhas.set(linhas.size() - 1, line.replace('P', ' '));
                 }
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            Registrador.registra(Registrador.Nivel.ERRO, "Falha ao ler o mapa", e);
+        }
+
+        // Copia as linhas para os chunks, todos em memória; linhas curtas ficam completadas com espaços
+        numLinhas = linhas.size();
+        numColunas = 0;
+        for (String linha : linhas)
+            numColunas = Math.max(numColunas, linha.length());
+        criaChunks();
+        for (int cy = 0; cy << Chunk.BITS < numLinhas; cy++) {
+            for (int cx = 0; cx << Chunk.BITS < numColunas; cx++)
+                publicaChunk(cx, cy, new Chunk());
+        }
+        for (int y = 0; y < numLinhas; y++) {
+            String linha = linhas.get(y);
+            for (int x = 0; x < linha.length(); x++)
+                chunk(x, y).celulas[Chunk.indice(x, y)] = linha.charAt(x);
         }
     }
 
-    // Método para atualizar as células reveladas
-    private void atualizaCelulasReveladas() {
-        if (mapa == null)
+    // Abre um mapa no formato de chunks; os chunks são lidos do arquivo mapeado conforme acessados
+    private void abreArquivoChunks(String filename) {
+        try {
+            ArquivoChunks arquivo = new ArquivoChunks(filename);
+            numColunas = arquivo.getNumColunas();
+            numLinhas = arquivo.getNumLinhas();
+            colunaPersonagem = arquivo.getXInicial();
+            linhaPersonagem = arquivo.getYInicial();
+            fonte = arquivo;
+        } catch (IOException e) {
+            Registrador.registra(Registrador.Nivel.ERRO, "Falha ao abrir o arquivo de chunks", e);
+        }
+        criaChunks();
+    }
+
+    private void criaChunks() {
+        int chunksX = (numColunas + Chunk.MASCARA) >> Chunk.BITS;
+        int chunksY = (numLinhas + Chunk.MASCARA) >> Chunk.BITS;
+        paginasX = (chunksX + MASCARA_PAGINA) >> BITS_PAGINA;
+        paginas = new Chunk[paginasX * ((chunksY + MASCARA_PAGINA) >> BITS_PAGINA)][];
+        chunksPorPagina = new int[paginas.length];
+        indiceEspacial = new IndiceEspacial(numColunas, numLinhas);
+    }
+
+    // Grava o mapa no formato de chunks, com a posição atual do personagem como inicial
+    public void salvaChunks(String arquivo) throws IOException {
+        if (maxChunks != 0)
+            throw new IOException("Mapa com descarte de chunks (ex.: MundoInfinito) não pode ser gravado inteiro");
+        ArquivoChunks.escreve(arquivo, numColunas, numLinhas, colunaPersonagem, linhaPersonagem,
+                this::getChunk);
+    }
+
+    // Método para atualizar as células reveladas: as visíveis a partir do personagem segundo
+    // o campo de visão, reveladas uma linha do campo por vez com operações sobre o bitset
+    public void atualizaCelulasReveladas() {
+        if (paginas == null || numColunas == 0)
+            return;
+        int centroX = colunaPersonagem;
+        int centroY = linhaPersonagem;
+        if (!dentroDoMapa(centroX, centroY))
             return;
-        for (int i = Math.max(0, posY / tamanhoCelula - RAIO_VISAO); i < Math.min(mapa.size(), posY / tamanhoCelula + RAIO_VISAO + 1); i++) {
-            for (int j = Math.max(0, posX / tamanhoCelula - RAIO_VISAO); j < Math.min(mapa.get(i).length(), posX / tamanhoCelula + RAIO_VISAO + 1); j++) {
-                areaRevelada[i][j] = true;
+
+        int raio = campoVisao.getRaio();
+        long[] visao = campoVisao.calcula(centroX, centroY);
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = -1, maxY = -1;
+        for (int dy = 0; dy <= 2 * raio; dy++) {
+            int y = centroY - raio + dy;
+            long bits = campoVisao.linha(visao, dy);
+            if (bits == 0 || y < 0 || y >= numLinhas)
+                continue;
+
+            // Descarta as colunas fora do mapa; o bit 0 passa a ser a coluna x
+            int x = centroX - raio;
+            if (x < 0) {
+                bits >>>= -x;
+                x = 0;
+            }
+            if (numColunas - x < 64)
+                bits &= (1L << (numColunas - x)) - 1;
+
+            // Revela o trecho da linha que cai em cada chunk
+            while (bits != 0) {
+                int local = x & Chunk.MASCARA;
+                long trecho = (bits << local) & (-1L >>> (64 - Chunk.LADO));
+                long novas = chunk(x, y).revelaLinha(trecho, y & Chunk.MASCARA);
+                if (novas != 0) {
+                    int base = x & ~Chunk.MASCARA;
+                    minX = Math.min(minX, base + Long.numberOfTrailingZeros(novas));
+                    maxX = Math.max(maxX, base + 63 - Long.numberOfLeadingZeros(novas));
+                    minY = Math.min(minY, y);
+                    maxY = Math.max(maxY, y);
+                }
+                bits >>>= Chunk.LADO - local;
+                x += Chunk.LADO - local;
             }
         }
+        if (maxX >= 0)
+            notificaAlteracao(minX, minY, maxX - minX + 1, maxY - minY + 1);
     }
 
     public void registraElemento(Character simbolo, ElementoMapa elementoMapa) {
-        elementos.put(simbolo, elementoMapa);
+        tipos.registra(simbolo, elementoMapa);
+        // A opacidade das células com esse símbolo pode ter mudado
+        campoVisao.invalidaTudo();
     }
 }
@@ -1,36 +1,258 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
 
-public class MazeGenerator {
+// Gerador de labirintos perfeitos (um único caminho entre quaisquer duas células) de qualquer
+// tamanho, produzidos chunk a chunk. As células do labirinto ficam nas coordenadas ímpares e as
+// paredes nas pares; cada chunk de Chunk.LADO x Chunk.LADO células contém um labirinto perfeito
+// próprio, gerado pelo algoritmo de Eller com um SplittableRandom semeado apenas por (semente,
+// cx, cy), e é dono da sua coluna de parede oeste e da sua linha de parede norte. Os chunks são
+// ligados entre si por uma única porta em cada aresta de uma árvore geradora da grade de chunks
+// (também gerada por Eller), o que mantém o labirinto inteiro perfeito. Em grades de chunks
+// grandes demais para guardar as portas (ex.: o MundoInfinito), a árvore é a de uma árvore
+// binária: cada chunk sorteia uma porta, a oeste ou a norte, a partir da sua própria semente.
+//
+// Como cada chunk depende só da semente e da sua posição, o resultado é o mesmo qualquer que
+// seja a ordem ou o paralelismo da geração: os chunks podem ser gerados sob demanda por um Mapa
+// (FonteChunks) ou em paralelo no pool de fork-join ao gravar um arquivo.
+//
+// java MazeGenerator [largura altura [semente [arquivo.txt | arquivo.chunks]]]
+public class MazeGenerator implements FonteChunks {
     private static final int WIDTH = 80;
     private static final int HEIGHT = 60;
-    private static final Random random = new Random();
+    private static final int CELULAS_CHUNK = Chunk.LADO / 2; // Células do labirinto por lado de chunk
+    private static final long PORTAS = 0x9E3779B97F4A7C15L; // Separa o sorteio das portas do labirinto
+    private static final long MAX_CHUNKS_ARVORE = 1 << 24; // Acima disso, portas sem tabela (árvore binária)
 
+    private final int largura;
+    private final int altura;
+    private final long semente;
+    private final int chunksX; // Chunks com ao menos uma célula do labirinto
+    private final int chunksY;
+    private final boolean[] portaOeste; // [cy * chunksX + cx]: liga o chunk ao vizinho oeste; nulo na árvore binária
+    private final boolean[] portaNorte;
+
+    public MazeGenerator(int largura, int altura, long semente) {
+        if (largura < 3 || altura < 3)
+            throw new IllegalArgumentException("Labirinto menor que 3x3: " + largura + "x" + altura);
+        this.largura = largura;
+        this.altura = altura;
+        this.semente = semente;
+        this.chunksX = (largura - 3) / Chunk.LADO + 1;
+        this.chunksY = (altura - 3) / Chunk.LADO + 1;
+        if ((long) chunksX * chunksY > MAX_CHUNKS_ARVORE) {
+            this.portaOeste = null;
+            this.portaNorte = null;
+            return;
+        }
+        this.portaOeste = new boolean[chunksX * chunksY];
+        this.portaNorte = new boolean[chunksX * chunksY];
+
+        // Árvore geradora da grade de chunks: o labirinto de Eller em que cada chunk é uma célula
+        Eller eller = new Eller(chunksX, new SplittableRandom(semente ^ PORTAS));
+        for (int cy = 0; cy < chunksY; cy++) {
+            eller.proximaLinha(cy == chunksY - 1);
+            for (int cx = 0; cx < chunksX; cx++) {
+                if (cx < chunksX - 1 && eller.leste[cx])
+                    portaOeste[cy * chunksX + cx + 1] = true;
+                if (cy < chunksY - 1 && eller.sul[cx])
+                    portaNorte[(cy + 1) * chunksX + cx] = true;
+            }
+        }
+    }
+
+    public int getLargura() {
+        return largura;
+    }
+
+    public int getAltura() {
+        return altura;
+    }
+
+    // Compatível com a versão anterior: um labirinto 80x60 com semente aleatória
     public static char[][] generateMaze() {
-        char[][] maze = new char[HEIGHT][WIDTH];
+        return generateMaze(WIDTH, HEIGHT, new Random().nextLong());
+    }
 
-        // Inicializa o labirinto com paredes
-        for (int i = 0; i < HEIGHT; i++) {
-            for (int j = 0; j < WIDTH; j++) {
-                maze[i][j] = '#';
+    public static char[][] generateMaze(int largura, int altura, long semente) {
+        MazeGenerator gerador = new MazeGenerator(largura, altura, semente);
+        char[][] maze = new char[altura][largura];
+        char[] celulas = new char[Chunk.NUM_CELULAS];
+        for (int cy = 0; cy << Chunk.BITS < altura; cy++) {
+            for (int cx = 0; cx << Chunk.BITS < largura; cx++) {
+                gerador.preenche(cx, cy, celulas);
+                for (int ly = 0; ly < Chunk.LADO && (cy << Chunk.BITS) + ly < altura; ly++) {
+                    int x0 = cx << Chunk.BITS;
+                    System.arraycopy(celulas, ly << Chunk.BITS, maze[(cy << Chunk.BITS) + ly], x0,
+                            Math.min(Chunk.LADO, largura - x0));
+                }
             }
         }
+        return maze;
+    }
+
+    @Override
+    public Chunk carregaChunk(int cx, int cy) {
+        Chunk chunk = new Chunk();
+        preenche(cx, cy, chunk.celulas);
+        return chunk;
+    }
 
-        // Abre caminhos aleatórios no labirinto
-        for (int i = 1; i < HEIGHT - 1; i += 2) {
-            for (int j = 1; j < WIDTH - 1; j += 2) {
-                maze[i][j] = ' ';
+    // Mapa cujos chunks são gerados conforme o personagem se aproxima; ele começa na célula (1, 1)
+    public Mapa criaMapa(int tamanhoCelula) {
+        return new Mapa(largura, altura, 1, 1, this, tamanhoCelula);
+    }
+
+    // Grava o labirinto no formato de chunks, gerando cada linha de chunks em paralelo
+    public void salvaChunks(String arquivo) throws IOException {
+        ArquivoChunks.escreve(arquivo, largura, altura, 1, 1, this);
+    }
 
-                // Decida aleatoriamente se cria um caminho para direita ou para baixo
-                if (j < WIDTH - 2) {
-                    maze[i][j + 1] = (random.nextBoolean()) ? ' ' : '#';
+    // Grava o labirinto como mapa texto, com o personagem em (1, 1). Cada faixa de Chunk.LADO
+    // linhas é gerada em paralelo e escrita em seguida, com memória proporcional à largura
+    public void salvaTexto(Writer saida) throws IOException {
+        int numChunksX = (largura + Chunk.MASCARA) >> Chunk.BITS;
+        char[][] faixa = new char[numChunksX][Chunk.NUM_CELULAS];
+        char[] linha = new char[largura];
+        for (int cy = 0; cy << Chunk.BITS < altura; cy++) {
+            int y = cy;
+            IntStream.range(0, numChunksX).parallel().forEach(cx -> preenche(cx, y, faixa[cx]));
+            for (int ly = 0; ly < Chunk.LADO && (cy << Chunk.BITS) + ly < altura; ly++) {
+                for (int cx = 0; cx < numChunksX; cx++) {
+                    int x0 = cx << Chunk.BITS;
+                    System.arraycopy(faixa[cx], ly << Chunk.BITS, linha, x0, Math.min(Chunk.LADO, largura - x0));
                 }
-                if (i < HEIGHT - 2) {
-                    maze[i + 1][j] = (random.nextBoolean()) ? ' ' : '#';
+                if (cy == 0 && ly == 1)
+                    linha[1] = 'P';
+                saida.write(linha);
+                saida.write('\n');
+            }
+        }
+    }
+
+    // Células do chunk (cx, cy) em ordem de linha; fora do labirinto tudo é parede
+    void preenche(int cx, int cy, char[] celulas) {
+        Arrays.fill(celulas, '#');
+        if (cx >= chunksX || cy >= chunksY)
+            return;
+
+        // Células do labirinto neste chunk: coordenadas ímpares até a penúltima coluna/linha
+        int colunas = Math.min(CELULAS_CHUNK, (largura - 3 - (cx << Chunk.BITS)) / 2 + 1);
+        int linhas = Math.min(CELULAS_CHUNK, (altura - 3 - (cy << Chunk.BITS)) / 2 + 1);
+        SplittableRandom aleatorio = new SplittableRandom(mistura(semente, cx, cy));
+        Eller eller = new Eller(colunas, aleatorio);
+        for (int j = 0; j < linhas; j++) {
+            eller.proximaLinha(j == linhas - 1);
+            int ly = 2 * j + 1;
+            for (int i = 0; i < colunas; i++) {
+                int lx = 2 * i + 1;
+                celulas[(ly << Chunk.BITS) | lx] = ' ';
+                if (i < colunas - 1 && eller.leste[i])
+                    celulas[(ly << Chunk.BITS) | (lx + 1)] = ' ';
+                if (j < linhas - 1 && eller.sul[i])
+                    celulas[((ly + 1) << Chunk.BITS) | lx] = ' ';
+            }
+        }
+
+        // Portas para os chunks vizinhos, na parede que pertence a este chunk
+        boolean oeste, norte;
+        if (portaOeste != null) {
+            oeste = portaOeste[cy * chunksX + cx];
+            norte = portaNorte[cy * chunksX + cx];
+        } else {
+            // Árvore binária: na primeira linha sempre a oeste, na primeira coluna sempre a norte
+            oeste = cx > 0 && (cy == 0 || (mistura(semente ^ PORTAS, cx, cy) & 1) == 0);
+            norte = cy > 0 && !oeste;
+        }
+        if (oeste)
+            celulas[((2 * aleatorio.nextInt(linhas) + 1) << Chunk.BITS)] = ' ';
+        if (norte)
+            celulas[2 * aleatorio.nextInt(colunas) + 1] = ' ';
+    }
+
+    // Semente própria de cada chunk, com os bits bem espalhados (finalizador do SplitMix64)
+    static long mistura(long semente, int cx, int cy) {
+        long z = semente + ((long) cy << 32 | (cx & 0xFFFFFFFFL)) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // Algoritmo de Eller: gera um labirinto perfeito uma linha por vez, guardando apenas o
+    // conjunto (componente conexo) de cada célula da linha atual
+    static final class Eller {
+        private final int largura;
+        private final SplittableRandom aleatorio;
+        private final int[] conjuntos; // 0: célula nova, ainda sem conjunto
+        private int proximoConjunto = 1;
+        final boolean[] leste; // leste[i]: passagem entre as células i e i + 1 da linha
+        final boolean[] sul; // sul[i]: passagem entre a célula i e a de baixo
+
+        Eller(int largura, SplittableRandom aleatorio) {
+            this.largura = largura;
+            this.aleatorio = aleatorio;
+            this.conjuntos = new int[largura];
+            this.leste = new boolean[largura];
+            this.sul = new boolean[largura];
+        }
+
+        void proximaLinha(boolean ultima) {
+            for (int i = 0; i < largura; i++) {
+                if (conjuntos[i] == 0)
+                    conjuntos[i] = proximoConjunto++;
+            }
+
+            // Une vizinhas de conjuntos diferentes ao acaso; na última linha, todas
+            for (int i = 0; i < largura - 1; i++) {
+                leste[i] = conjuntos[i] != conjuntos[i + 1] && (ultima || aleatorio.nextBoolean());
+                if (leste[i])
+                    une(conjuntos[i + 1], conjuntos[i]);
+            }
+            Arrays.fill(sul, false);
+            if (ultima)
+                return;
+
+            // Cada conjunto desce por ao menos uma célula, senão ficaria isolado. Os conjuntos
+            // de uma linha não são contíguos, daí a busca quadrática na largura (pequena: a de um chunk)
+            for (int i = 0; i < largura; i++)
+                sul[i] = aleatorio.nextBoolean();
+            for (int i = 0; i < largura; i++) {
+                int conjunto = conjuntos[i];
+                int membros = 0;
+                boolean desce = false;
+                for (int k = 0; k < largura; k++) {
+                    if (conjuntos[k] == conjunto) {
+                        membros++;
+                        desce |= sul[k];
+                    }
+                }
+                if (!desce) {
+                    int escolhido = aleatorio.nextInt(membros);
+                    for (int k = 0; k < largura; k++) {
+                        if (conjuntos[k] == conjunto && escolhido-- == 0)
+                            sul[k] = true;
+                    }
                 }
             }
+
+            // Só as células que desceram levam o conjunto para a próxima linha
+            for (int i = 0; i < largura; i++) {
+                if (!sul[i])
+                    conjuntos[i] = 0;
+            }
         }
 
-        return maze;
+        private void une(int de, int para) {
+            for (int k = 0; k < largura; k++) {
+                if (conjuntos[k] == de)
+                    conjuntos[k] = para;
+            }
+        }
     }
 
     public static void printMaze(char[][] maze) {
@@ -42,8 +264,29 @@ public class MazeGenerator {
         }
     }
 
-    public static void main(String[] args) {
-        char[][] maze = generateMaze();
-        printMaze(maze);
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            printMaze(generateMaze());
+            return;
+        }
+        int largura = Integer.parseInt(args[0]);
+        int altura = Integer.parseInt(args[1]);
+        long semente = args.length > 2 ? Long.parseLong(args[2]) : new Random().nextLong();
+        MazeGenerator gerador = new MazeGenerator(largura, altura, semente);
+        if (args.length < 4) {
+            printMaze(generateMaze(largura, altura, semente));
+            return;
+        }
+
+        long inicio = System.nanoTime();
+        if (args[3].endsWith(".txt")) {
+            try (Writer saida = new BufferedWriter(new FileWriter(args[3]), 1 << 16)) {
+                gerador.salvaTexto(saida);
+            }
+        } else {
+            gerador.salvaChunks(args[3]);
+        }
+        System.out.printf("Labirinto %dx%d gravado em %s em %.2f s%n", largura, altura, args[3],
+                (System.nanoTime() - inicio) / 1e9);
     }
 }
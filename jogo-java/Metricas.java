@@ -0,0 +1,196 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Métricas de execução do jogo: duração dos ticks e da pintura, movimentos por segundo, taxa de
+// movimentos bloqueados, atraso dos atores dentro do tick e memória alocada por tick. Ativadas
+// com -Djogo.metricas=true e publicadas por JMX em "jogo:type=Metricas" (ex.: jconsole).
+//
+// Quem mede testa ATIVAS antes de ler o relógio; como é uma constante, com as métricas
+// desativadas o JIT elimina as medições e o custo é nulo.
+public final class Metricas implements MetricasMXBean {
+    public static final boolean ATIVAS = Boolean.getBoolean("jogo.metricas");
+
+    public static final HistogramaLatencia TICK = new HistogramaLatencia();
+    public static final HistogramaLatencia PINTURA = new HistogramaLatencia();
+    public static final HistogramaLatencia ATRASO_ATOR = new HistogramaLatencia(); // Do início do tick até o ator executar
+    private static final LongAdder MOVIMENTOS = new LongAdder();
+    private static final LongAdder BLOQUEADOS = new LongAdder();
+    private static final LongAdder ALOCADO = new LongAdder(); // Bytes alocados pelas threads do tick
+
+    private static final com.sun.management.ThreadMXBean THREADS = threadsComAlocacao();
+    private static final Metricas INSTANCIA = new Metricas();
+
+    // Taxas calculadas em janelas de pelo menos um segundo, a partir dos totais
+    private long instanteJanela = System.nanoTime();
+    private long movimentosJanela;
+    private long bloqueadosJanela;
+    private long ticksJanela;
+    private long alocadoJanela;
+    private double movimentosPorSegundo;
+    private double taxaBloqueio;
+    private long bytesPorTick;
+
+    static {
+        if (ATIVAS) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCIA, new ObjectName("jogo:type=Metricas"));
+            } catch (JMException e) {
+                Registrador.registra(Registrador.Nivel.ERRO, "Falha ao registrar o MBean de métricas", e);
+            }
+        }
+    }
+
+    private Metricas() {
+    }
+
+    public static Metricas getInstancia() {
+        return INSTANCIA;
+    }
+
+    public static void registraMovimento(boolean movido) {
+        if (movido)
+            MOVIMENTOS.increment();
+        else
+            BLOQUEADOS.increment();
+    }
+
+    // Bytes já alocados pela thread atual; subtraia duas leituras para medir um trecho
+    public static long alocadoNaThread() {
+        return THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    public static void registraAlocado(long bytes) {
+        ALOCADO.add(bytes);
+    }
+
+    private static com.sun.management.ThreadMXBean threadsComAlocacao() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean comAlocacao = (com.sun.management.ThreadMXBean) threads;
+            if (comAlocacao.isThreadAllocatedMemorySupported() && comAlocacao.isThreadAllocatedMemoryEnabled())
+                return comAlocacao;
+        }
+        return null;
+    }
+
+    private synchronized void atualizaJanela() {
+        long agora = System.nanoTime();
+        long duracao = agora - instanteJanela;
+        if (duracao < 1_000_000_000L)
+            return;
+        long movimentos = MOVIMENTOS.sum();
+        long bloqueados = BLOQUEADOS.sum();
+        long ticks = TICK.getContagem();
+        long alocado = ALOCADO.sum();
+        long tentativas = movimentos - movimentosJanela + bloqueados - bloqueadosJanela;
+        movimentosPorSegundo = (movimentos - movimentosJanela) * 1e9 / duracao;
+        taxaBloqueio = tentativas == 0 ? 0 : (double) (bloqueados - bloqueadosJanela) / tentativas;
+        bytesPorTick = ticks == ticksJanela ? 0 : (alocado - alocadoJanela) / (ticks - ticksJanela);
+        instanteJanela = agora;
+        movimentosJanela = movimentos;
+        bloqueadosJanela = bloqueados;
+        ticksJanela = ticks;
+        alocadoJanela = alocado;
+    }
+
+    // Uma linha para a barra de status
+    public String resumo() {
+        return String.format("Tick p99: %.1f ms | Pintura p99: %.1f ms | Mov/s: %.0f | Bloqueados: %.0f%% | Atraso p99: %.1f ms | Alocado/tick: %d KB",
+                getTickP99Micros() / 1000.0, getPinturaP99Micros() / 1000.0, getMovimentosPorSegundo(),
+                getTaxaBloqueio() * 100, getAtrasoAtorP99Micros() / 1000.0, getBytesAlocadosPorTick() / 1024);
+    }
+
+    @Override
+    public long getNumTicks() {
+        return TICK.getContagem();
+    }
+
+    @Override
+    public double getTickMedioMicros() {
+        return TICK.getMedia() / 1000;
+    }
+
+    @Override
+    public long getTickP50Micros() {
+        return TICK.percentil(0.5) / 1000;
+    }
+
+    @Override
+    public long getTickP99Micros() {
+        return TICK.percentil(0.99) / 1000;
+    }
+
+    @Override
+    public long getTickP999Micros() {
+        return TICK.percentil(0.999) / 1000;
+    }
+
+    @Override
+    public long getTickMaximoMicros() {
+        return TICK.getMaximo() / 1000;
+    }
+
+    @Override
+    public long getPinturaP50Micros() {
+        return PINTURA.percentil(0.5) / 1000;
+    }
+
+    @Override
+    public long getPinturaP99Micros() {
+        return PINTURA.percentil(0.99) / 1000;
+    }
+
+    @Override
+    public long getAtrasoAtorP50Micros() {
+        return ATRASO_ATOR.percentil(0.5) / 1000;
+    }
+
+    @Override
+    public long getAtrasoAtorP99Micros() {
+        return ATRASO_ATOR.percentil(0.99) / 1000;
+    }
+
+    @Override
+    public long getNumMovimentos() {
+        return MOVIMENTOS.sum();
+    }
+
+    @Override
+    public long getNumBloqueados() {
+        return BLOQUEADOS.sum();
+    }
+
+    @Override
+    public double getMovimentosPorSegundo() {
+        atualizaJanela();
+        synchronized (this) {
+            return movimentosPorSegundo;
+        }
+    }
+
+    @Override
+    public double getTaxaBloqueio() {
+        atualizaJanela();
+        synchronized (this) {
+            return taxaBloqueio;
+        }
+    }
+
+    @Override
+    public long getBytesAlocadosPorTick() {
+        atualizaJanela();
+        synchronized (this) {
+            return bytesPorTick;
+        }
+    }
+
+    @Override
+    public void zera() {
+        TICK.zera();
+        PINTURA.zera();
+        ATRASO_ATOR.zera();
+    }
+}
@@ -0,0 +1,36 @@
+// Atributos publicados por JMX; tempos em microssegundos
+public interface MetricasMXBean {
+    long getNumTicks();
+
+    double getTickMedioMicros();
+
+    long getTickP50Micros();
+
+    long getTickP99Micros();
+
+    long getTickP999Micros();
+
+    long getTickMaximoMicros();
+
+    long getPinturaP50Micros();
+
+    long getPinturaP99Micros();
+
+    long getAtrasoAtorP50Micros();
+
+    long getAtrasoAtorP99Micros();
+
+    long getNumMovimentos();
+
+    long getNumBloqueados();
+
+    // Taxas do último segundo completo
+    double getMovimentosPorSegundo();
+
+    double getTaxaBloqueio();
+
+    long getBytesAlocadosPorTick();
+
+    // Descarta os histogramas, por exemplo depois do aquecimento
+    void zera();
+}
@@ -33,4 +33,9 @@ public class Moeda implements ElementoMapa {
     public String interage() {
         return null;
     }
+
+    @Override
+    public boolean podeSerColetado() {
+        return true;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,71 @@
+import java.io.IOException;
+import java.util.SplittableRandom;
+
+// Mundo procedural de LADO x LADO células, grande o bastante para nunca ser percorrido: o
+// terreno é um labirinto do MazeGenerator e cada chunk recebe moedas e inimigos sorteados só a
+// partir da semente e da sua posição, de modo que um chunk descartado da memória e gerado de
+// novo volta igual. Só os chunks próximos dos jogadores ficam em memória (ver
+// Mapa.descartaChunks); os alterados (moedas recolhidas, inimigos que andaram, névoa revelada)
+// são guardados em um ArmazemChunks ao serem descartados.
+public class MundoInfinito implements FonteChunks {
+    public static final int LADO = 1 << 20;
+    public static final long ORCAMENTO_PADRAO = 64L << 20; // Memória estimada dos chunks em bytes
+    private static final int MOEDAS_POR_CHUNK = 4;
+    private static final int INIMIGOS_POR_CHUNK = 1;
+    private static final int TENTATIVAS = 8; // Sorteios de célula livre por item
+    private static final long ITENS = 0xD1B54A32D192ED03L; // Separa o sorteio dos itens do labirinto
+
+    private final long semente;
+    private final MazeGenerator labirinto;
+    private final int xInicial = LADO / 2 + 1; // Células do labirinto ficam nas coordenadas ímpares
+    private final int yInicial = LADO / 2 + 1;
+
+    public MundoInfinito(long semente) {
+        this.semente = semente;
+        this.labirinto = new MazeGenerator(LADO, LADO, semente);
+    }
+
+    public long getSemente() {
+        return semente;
+    }
+
+    public int getXInicial() {
+        return xInicial;
+    }
+
+    public int getYInicial() {
+        return yInicial;
+    }
+
+    @Override
+    public Chunk carregaChunk(int cx, int cy) {
+        Chunk chunk = labirinto.carregaChunk(cx, cy);
+        SplittableRandom aleatorio = new SplittableRandom(MazeGenerator.mistura(semente ^ ITENS, cx, cy));
+        for (int i = 0; i < MOEDAS_POR_CHUNK; i++)
+            coloca(chunk, 'M', aleatorio);
+
+        // Nenhum inimigo no chunk inicial e nos vizinhos, para o jogador não começar cercado
+        boolean perto = Math.abs(cx - (xInicial >> Chunk.BITS)) <= 1 && Math.abs(cy - (yInicial >> Chunk.BITS)) <= 1;
+        for (int i = 0; i < INIMIGOS_POR_CHUNK && !perto; i++)
+            coloca(chunk, 'I', aleatorio);
+        return chunk;
+    }
+
+    // Coloca o símbolo em uma célula vazia sorteada; desiste após algumas tentativas
+    private static void coloca(Chunk chunk, char simbolo, SplittableRandom aleatorio) {
+        for (int t = 0; t < TENTATIVAS; t++) {
+            int indice = aleatorio.nextInt(Chunk.NUM_CELULAS);
+            if (chunk.celulas[indice] == ' ') {
+                chunk.celulas[indice] = simbolo;
+                return;
+            }
+        }
+    }
+
+    // Mapa com o personagem no centro do mundo, que descarta chunks acima de 'orcamentoBytes'
+    public Mapa criaMapa(int tamanhoCelula, long orcamentoBytes) throws IOException {
+        Mapa mapa = new Mapa(LADO, LADO, xInicial, yInicial, this, tamanhoCelula);
+        mapa.configuraDescarte(orcamentoBytes, new ArmazemChunks());
+        return mapa;
+    }
+}
@@ -0,0 +1,5 @@
+// Interface para ser notificado quando células do mapa mudam (elementos, personagem ou névoa)
+public interface OuvinteMapa {
+    // Chamado com o retângulo de células alterado, em coordenadas do mapa
+    void regiaoAlterada(int x, int y, int largura, int altura);
+}
@@ -0,0 +1,11 @@
+// Recebe os eventos da simulação; implementado por quem a apresenta (ex.: Jogo).
+// Os eventos de colisão e de tick vêm da thread do tick, não da thread da interface
+public interface OuvinteSimulacao {
+    void moedaRecolhida(int numMoedas);
+
+    void vidaPerdida(int vidas);
+
+    void fimDeJogo();
+
+    void tickConcluido(long tick);
+}
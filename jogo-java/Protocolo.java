@@ -0,0 +1,66 @@
+import java.nio.ByteBuffer;
+
+// Constantes e codificação do protocolo entre o Servidor e seus clientes.
+//
+// Cliente -> servidor: um byte por comando, o ordinal de Direcao, ou CONFIRMA seguido do
+// int do último tick recebido.
+// Servidor -> cliente: mensagens [int tamanho][byte tipo][corpo]; o tamanho inclui o cabeçalho.
+//   BOAS_VINDAS:  int idEntidade, int colunas, int linhas, int x, int y
+//   DELTA:        v tick, v distância até o tick base, v x, v y, v moedas, v vidas, v comandos aplicados,
+//                 short n, n x (v x, v y, v id) com as células da área de interesse alteradas desde a
+//                 base, v m, m áreas com as células que entraram na área de interesse desde a base,
+//                 entidades
+//   QUADRO_CHAVE: v tick, v x, v y, v moedas, v vidas, v comandos aplicados, uma área com a área de
+//                 interesse inteira, entidades (em relação a um quadro vazio)
+// onde 'v' é um varint, uma área é v x0, v y0, v largura, v altura e pares (v repetições, v id)
+// com as suas células em ordem de linha, e as entidades são: short n, n operações em ordem
+// crescente de id, cada uma um varint ((id - id anterior) << 2 | operação), seguido de
+//   REMOVE: nada; NOVA: v símbolo, z x - x do jogador, z y - y do jogador; MOVE: z dx, z dy
+// com 'z' um varint zigzag. Entidades paradas não aparecem no DELTA. Fora da área de interesse
+// (RAIO_INTERESSE ao redor do jogador) o cliente não recebe nada: as células de lá ficam como
+// estavam quando ele as viu pela última vez e são reenviadas quando voltam à área.
+public final class Protocolo {
+    public static final int PORTA_PADRAO = 7777;
+    public static final byte BOAS_VINDAS = 1;
+    public static final byte DELTA = 2;
+    public static final byte QUADRO_CHAVE = 3;
+    public static final byte CONFIRMA = 16;
+    public static final int REMOVE = 0;
+    public static final int NOVA = 1;
+    public static final int MOVE = 2;
+    public static final int RAIO_INTERESSE = 16;
+    public static final int TAMANHO_CABECALHO = 5; // tamanho + tipo
+
+    private Protocolo() {
+    }
+
+    // Inteiro não negativo em grupos de 7 bits, o menos significativo primeiro
+    public static void escreveVarint(ByteBuffer buffer, int valor) {
+        while ((valor & ~0x7F) != 0) {
+            buffer.put((byte) ((valor & 0x7F) | 0x80));
+            valor >>>= 7;
+        }
+        buffer.put((byte) valor);
+    }
+
+    public static int leVarint(ByteBuffer buffer) {
+        int valor = 0;
+        for (int deslocamento = 0; deslocamento < 32; deslocamento += 7) {
+            byte b = buffer.get();
+            valor |= (b & 0x7F) << deslocamento;
+            if (b >= 0)
+                return valor;
+        }
+        throw new IllegalArgumentException("Varint inválido");
+    }
+
+    // Inteiro com sinal em zigzag: valores pequenos em módulo ocupam poucos bytes
+    public static void escreveZigzag(ByteBuffer buffer, int valor) {
+        escreveVarint(buffer, (valor << 1) ^ (valor >> 31));
+    }
+
+    public static int leZigzag(ByteBuffer buffer) {
+        int valor = leVarint(buffer);
+        return (valor >>> 1) ^ -(valor & 1);
+    }
+}
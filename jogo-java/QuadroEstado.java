@@ -0,0 +1,78 @@
+import java.util.Arrays;
+
+// Entidades visíveis a um jogador em um tick, em ordem crescente de identificador, como
+// enviadas pelo servidor. Os quadros ficam em anéis no CodificadorEstado e no
+// DecodificadorEstado e são reutilizados; os vetores só crescem quando necessário
+public class QuadroEstado {
+    int tick;
+    boolean valido;
+    long sequenciaCelulas; // Sequência do RegistroCelulas quando o quadro foi montado (só no servidor)
+    int areaX0, areaY0, areaX1, areaY1; // Área de interesse do jogador no quadro, inclusiva (só no servidor)
+    int numEntidades;
+    int[] ids = new int[64];
+    int[] geracoes = new int[64]; // Geração de cada id (ver Mapa.getGeracaoEntidade; só no servidor)
+    char[] simbolos = new char[64];
+    int[] xs = new int[64];
+    int[] ys = new int[64];
+
+    void garanteCapacidade(int n) {
+        if (n <= ids.length)
+            return;
+        int capacidade = Math.max(n, ids.length * 2);
+        ids = Arrays.copyOf(ids, capacidade);
+        geracoes = Arrays.copyOf(geracoes, capacidade);
+        simbolos = Arrays.copyOf(simbolos, capacidade);
+        xs = Arrays.copyOf(xs, capacidade);
+        ys = Arrays.copyOf(ys, capacidade);
+    }
+
+    void adiciona(int id, char simbolo, int x, int y) {
+        adiciona(id, 0, simbolo, x, y);
+    }
+
+    void adiciona(int id, int geracao, char simbolo, int x, int y) {
+        garanteCapacidade(numEntidades + 1);
+        ids[numEntidades] = id;
+        geracoes[numEntidades] = geracao;
+        simbolos[numEntidades] = simbolo;
+        xs[numEntidades] = x;
+        ys[numEntidades] = y;
+        numEntidades++;
+    }
+
+    void copiaDe(QuadroEstado outro) {
+        garanteCapacidade(outro.numEntidades);
+        System.arraycopy(outro.ids, 0, ids, 0, outro.numEntidades);
+        System.arraycopy(outro.geracoes, 0, geracoes, 0, outro.numEntidades);
+        System.arraycopy(outro.simbolos, 0, simbolos, 0, outro.numEntidades);
+        System.arraycopy(outro.xs, 0, xs, 0, outro.numEntidades);
+        System.arraycopy(outro.ys, 0, ys, 0, outro.numEntidades);
+        numEntidades = outro.numEntidades;
+        tick = outro.tick;
+        valido = outro.valido;
+    }
+
+    public int getTick() {
+        return tick;
+    }
+
+    public int getNumEntidades() {
+        return numEntidades;
+    }
+
+    public int getId(int i) {
+        return ids[i];
+    }
+
+    public char getSimbolo(int i) {
+        return simbolos[i];
+    }
+
+    public int getX(int i) {
+        return xs[i];
+    }
+
+    public int getY(int i) {
+        return ys[i];
+    }
+}
@@ -0,0 +1,130 @@
+import java.io.PrintStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Registro de eventos em níveis, assíncrono e com limite de taxa. Quem registra passa uma
+// mensagem constante e, opcionalmente, dois inteiros (ex.: coordenadas); nada é formatado na
+// thread que chama. O evento vai para uma fila limitada e uma thread própria o escreve em
+// System.err, de modo que milhares de inimigos esbarrando em paredes não disputam a trava do
+// console. Cada mensagem pode aparecer no máximo LIMITE_POR_SEGUNDO vezes por segundo; as
+// excedentes são apenas contadas e informadas na próxima vez em que a mensagem for escrita.
+//
+// O nível mínimo vem de -Djogo.log=DEPURACAO|INFO|AVISO|ERRO (padrão INFO); abaixo dele,
+// registrar custa uma comparação.
+public final class Registrador {
+    public enum Nivel {
+        DEPURACAO, INFO, AVISO, ERRO
+    }
+
+    private static final Nivel NIVEL_MINIMO = Nivel.valueOf(System.getProperty("jogo.log", "INFO").toUpperCase());
+    private static final int LIMITE_POR_SEGUNDO = 10;
+    private static final int CAPACIDADE_FILA = 1024;
+    private static final int SEM_VALOR = Integer.MIN_VALUE;
+
+    private static final BlockingQueue<Evento> FILA = new ArrayBlockingQueue<>(CAPACIDADE_FILA);
+    private static final ConcurrentHashMap<String, Limite> LIMITES = new ConcurrentHashMap<>();
+    private static final AtomicLong DESCARTADOS = new AtomicLong(); // Perdidos com a fila cheia
+    private static final PrintStream SAIDA = System.err;
+
+    private static final class Evento {
+        final long instante = System.currentTimeMillis();
+        final Nivel nivel;
+        final String mensagem;
+        final int a;
+        final int b;
+        final Throwable erro;
+        final long suprimidos; // Ocorrências anteriores não escritas por causa do limite
+
+        Evento(Nivel nivel, String mensagem, int a, int b, Throwable erro, long suprimidos) {
+            this.nivel = nivel;
+            this.mensagem = mensagem;
+            this.a = a;
+            this.b = b;
+            this.erro = erro;
+            this.suprimidos = suprimidos;
+        }
+    }
+
+    // Janela de um segundo por mensagem
+    private static final class Limite {
+        long inicioJanela;
+        int emitidos;
+        long suprimidos;
+    }
+
+    static {
+        Thread escritor = new Thread(Registrador::lacoEscrita, "registrador");
+        escritor.setDaemon(true);
+        escritor.start();
+    }
+
+    private Registrador() {
+    }
+
+    public static boolean ativo(Nivel nivel) {
+        return nivel.compareTo(NIVEL_MINIMO) >= 0;
+    }
+
+    public static void registra(Nivel nivel, String mensagem) {
+        if (ativo(nivel))
+            enfileira(nivel, mensagem, SEM_VALOR, SEM_VALOR, null);
+    }
+
+    public static void registra(Nivel nivel, String mensagem, int x, int y) {
+        if (ativo(nivel))
+            enfileira(nivel, mensagem, x, y, null);
+    }
+
+    public static void registra(Nivel nivel, String mensagem, Throwable erro) {
+        if (ativo(nivel))
+            enfileira(nivel, mensagem, SEM_VALOR, SEM_VALOR, erro);
+    }
+
+    private static void enfileira(Nivel nivel, String mensagem, int a, int b, Throwable erro) {
+        Limite limite = LIMITES.computeIfAbsent(mensagem, m -> new Limite());
+        long suprimidos;
+        synchronized (limite) {
+            long agora = System.nanoTime();
+            if (agora - limite.inicioJanela >= 1_000_000_000L) {
+                limite.inicioJanela = agora;
+                limite.emitidos = 0;
+            }
+            if (limite.emitidos >= LIMITE_POR_SEGUNDO) {
+                limite.suprimidos++;
+                return;
+            }
+            limite.emitidos++;
+            suprimidos = limite.suprimidos;
+            limite.suprimidos = 0;
+        }
+        if (!FILA.offer(new Evento(nivel, mensagem, a, b, erro, suprimidos)))
+            DESCARTADOS.incrementAndGet();
+    }
+
+    private static void lacoEscrita() {
+        StringBuilder linha = new StringBuilder();
+        while (true) {
+            Evento evento;
+            try {
+                evento = FILA.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            linha.setLength(0);
+            linha.append(String.format("%tT.%<tL", evento.instante)).append(' ')
+                    .append(evento.nivel).append(' ').append(evento.mensagem);
+            if (evento.a != SEM_VALOR)
+                linha.append(" (").append(evento.a).append(", ").append(evento.b).append(')');
+            if (evento.suprimidos > 0)
+                linha.append(" [mais ").append(evento.suprimidos).append(" ocorrências suprimidas]");
+            long descartados = DESCARTADOS.getAndSet(0);
+            if (descartados > 0)
+                linha.append(" [").append(descartados).append(" eventos descartados com a fila cheia]");
+            SAIDA.println(linha);
+            if (evento.erro != null)
+                evento.erro.printStackTrace(SAIDA);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+// Registro circular das últimas alterações de células do mapa (ex.: moeda recolhida), cada uma
+// com um número de sequência crescente. Permite enviar a um cliente apenas as alterações
+// ocorridas depois do último estado que ele confirmou. Movimentos de entidades não são
+// registrados aqui: elas são sincronizadas à parte (ver CodificadorEstado).
+public class RegistroCelulas {
+    private final int capacidade;
+    private final int[] xs;
+    private final int[] ys;
+    private final char[] ids;
+    private long sequencia; // Número de alterações já registradas
+
+    public RegistroCelulas(int capacidade) {
+        this.capacidade = capacidade;
+        this.xs = new int[capacidade];
+        this.ys = new int[capacidade];
+        this.ids = new char[capacidade];
+    }
+
+    public synchronized void registra(int x, int y, char id) {
+        int i = (int) (sequencia % capacidade);
+        xs[i] = x;
+        ys[i] = y;
+        ids[i] = id;
+        sequencia++;
+    }
+
+    public synchronized long getSequencia() {
+        return sequencia;
+    }
+
+    // Verifica se as alterações a partir de 'desde' ainda estão no registro
+    public synchronized boolean contem(long desde) {
+        return sequencia - desde <= capacidade;
+    }
+
+    // Os acessos abaixo devem ser feitos em um bloco sincronizado no registro,
+    // depois de verificar com contem() que a sequência não foi sobrescrita
+    public int getX(long s) {
+        return xs[(int) (s % capacidade)];
+    }
+
+    public int getY(long s) {
+        return ys[(int) (s % capacidade)];
+    }
+
+    public char getId(long s) {
+        return ids[(int) (s % capacidade)];
+    }
+}
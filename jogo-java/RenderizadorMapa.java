@@ -0,0 +1,84 @@
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+
+// Desenha as células do mapa dentro da área de recorte. Não depende da janela, de modo que
+// também pode desenhar em uma imagem fora da tela (ex.: na Bancada)
+public class RenderizadorMapa {
+    private final Mapa mapa;
+    private final Color corNevoa;
+    private AtlasTiles atlas;
+
+    public RenderizadorMapa(Mapa mapa, Color corNevoa) {
+        this.mapa = mapa;
+        this.corNevoa = corNevoa;
+    }
+
+    // Deve ser chamado sempre que o tamanho da célula mudar
+    public void setAtlas(AtlasTiles atlas) {
+        this.atlas = atlas;
+    }
+
+    public void desenha(Graphics g) {
+        int tamanhoCelula = mapa.getTamanhoCelula();
+        if (tamanhoCelula <= 0)
+            return;
+
+        // Percorre somente as células dentro da área de recorte do redesenho
+        int primeiraLinha = 0, ultimaLinha = mapa.getNumLinhas() - 1;
+        int primeiraColuna = 0, ultimaColuna = mapa.getNumColunas() - 1;
+        Rectangle clip = g.getClipBounds();
+        if (clip != null) {
+            primeiraLinha = Math.max(primeiraLinha, clip.y / tamanhoCelula - 1);
+            ultimaLinha = Math.min(ultimaLinha, (clip.y + clip.height) / tamanhoCelula + 1);
+            primeiraColuna = Math.max(primeiraColuna, clip.x / tamanhoCelula - 1);
+            ultimaColuna = Math.min(ultimaColuna, (clip.x + clip.width) / tamanhoCelula + 1);
+        }
+
+        // Desenha em blocos alinhados aos chunks: um bloco sem nenhuma célula revelada
+        // é coberto pela névoa de uma só vez, sem consultar célula por célula
+        for (int by = primeiraLinha; by <= ultimaLinha; by = (by | Chunk.MASCARA) + 1) {
+            int fimY = Math.min(ultimaLinha, by | Chunk.MASCARA);
+            for (int bx = primeiraColuna; bx <= ultimaColuna; bx = (bx | Chunk.MASCARA) + 1) {
+                int fimX = Math.min(ultimaColuna, bx | Chunk.MASCARA);
+                if (mapa.contaRevelados(bx, by, fimX - bx + 1, fimY - by + 1) == 0) {
+                    g.setColor(corNevoa);
+                    g.fillRect(bx * tamanhoCelula, by * tamanhoCelula,
+                            (fimX - bx + 1) * tamanhoCelula, (fimY - by + 1) * tamanhoCelula);
+                } else {
+                    desenhaBloco(g, bx, by, fimX, fimY, tamanhoCelula);
+                }
+            }
+        }
+    }
+
+    // O bloco está dentro de um só chunk: obtido uma vez, sem carregá-lo, e lido só por ele. Se foi
+    // descartado, não há o que desenhar; se for descartado durante o desenho, o objeto lido
+    // continua o mesmo e a EDT nunca o traz de volta à memória
+    private void desenhaBloco(Graphics g, int primeiraColuna, int primeiraLinha, int ultimaColuna, int ultimaLinha,
+                              int tamanhoCelula) {
+        Chunk chunk = mapa.getChunkCarregado(primeiraColuna, primeiraLinha);
+        if (chunk == null)
+            return;
+        for (int i = primeiraLinha; i <= ultimaLinha; i++) {
+            for (int j = primeiraColuna; j <= ultimaColuna; j++) {
+                int posX = j * tamanhoCelula;
+                int posY = (i + 1) * tamanhoCelula;
+                int indice = Chunk.indice(j, i);
+
+                if (chunk.estaRevelado(indice)) {
+                    // Lê o id antes do elemento: se um inimigo sair da célula entre as duas
+                    // leituras, o elemento será nulo e o tile em cache não é corrompido
+                    char id = mapa.getIdCelula(chunk, indice);
+                    ElementoMapa elemento = id != ' ' ? mapa.getElemento(chunk, indice) : null;
+                    if (elemento != null) {
+                        atlas.desenhaElemento(g, id, elemento, posX, posY);
+                    }
+                } else {
+                    // Pinta a área não revelada
+                    atlas.desenhaNevoa(g, j * tamanhoCelula, i * tamanhoCelula);
+                }
+            }
+        }
+    }
+}
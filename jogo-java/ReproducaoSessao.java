@@ -0,0 +1,130 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Refaz, sem interface e o mais rápido possível, uma sessão gravada por DiarioSessao: monta o
+// mesmo mapa e as mesmas moedas e aplica cada comando antes do mesmo tick em que foi aplicado
+// no jogo. Serve para depurar uma partida que deu errado e como carga repetível para medições.
+//
+// java ReproducaoSessao sessao.diario
+public class ReproducaoSessao {
+    private final DataInputStream entrada;
+    private final Simulacao simulacao;
+    private long numComandos;
+    private boolean temFim; // Se o diário termina com o registro FIM
+    private long resumoEsperado;
+
+    public ReproducaoSessao(String arquivo) throws IOException {
+        entrada = new DataInputStream(new BufferedInputStream(new FileInputStream(arquivo), 1 << 16));
+        if (entrada.readInt() != DiarioSessao.MAGICO)
+            throw new IOException("Diário de sessão inválido: " + arquivo);
+        int versao = entrada.readInt();
+        if (versao != DiarioSessao.VERSAO)
+            throw new IOException("Versão de diário de sessão não suportada: " + versao);
+
+        Mapa mapa;
+        int tipo = entrada.readUnsignedByte();
+        if (tipo == DiarioSessao.MAPA_TEXTO) {
+            byte[] texto = new byte[entrada.readInt()];
+            entrada.readFully(texto);
+            Path temporario = Files.createTempFile("mapa", ".txt");
+            temporario.toFile().deleteOnExit();
+            Files.write(temporario, texto);
+            mapa = new Mapa(temporario.toString(), 1);
+        } else if (tipo == DiarioSessao.MAPA_CHUNKS) {
+            String caminho = entrada.readUTF();
+            long tamanho = entrada.readLong();
+            if (new File(caminho).length() != tamanho)
+                throw new IOException("O arquivo de chunks da sessão mudou ou não existe: " + caminho);
+            mapa = new Mapa(caminho, 1);
+        } else if (tipo == DiarioSessao.MAPA_INFINITO) {
+            long semente = entrada.readLong();
+            long orcamento = entrada.readLong();
+            mapa = new MundoInfinito(semente).criaMapa(1, orcamento);
+        } else {
+            throw new IOException("Tipo de mapa desconhecido no diário: " + tipo);
+        }
+        int numMoedas = entrada.readInt();
+        long sementeMoedas = entrada.readLong();
+
+        // Mesma preparação do jogo local (ver Jogo.iniciaLocal)
+        simulacao = new Simulacao(mapa, 0, true);
+        if (numMoedas > 0)
+            simulacao.distribuiMoedas(numMoedas, sementeMoedas);
+    }
+
+    public Simulacao getSimulacao() {
+        return simulacao;
+    }
+
+    public long getNumComandos() {
+        return numComandos;
+    }
+
+    public boolean temFim() {
+        return temFim;
+    }
+
+    public long getResumoEsperado() {
+        return resumoEsperado;
+    }
+
+    // Executa a sessão inteira; retorna se o estado final é o gravado (verdadeiro se o diário
+    // não tem o registro FIM e portanto não há com o que comparar)
+    public boolean executa() throws IOException {
+        Direcao[] direcoes = Direcao.values();
+        long tick = 0;
+        try {
+            while (true) {
+                long registro = DiarioSessao.leVarint(entrada);
+                tick += registro >>> DiarioSessao.BITS_COMANDO;
+                int comando = (int) (registro & ((1 << DiarioSessao.BITS_COMANDO) - 1));
+                while (simulacao.getNumTicks() < tick)
+                    simulacao.executaTick();
+                if (comando == DiarioSessao.FIM) {
+                    resumoEsperado = entrada.readLong();
+                    temFim = true;
+                    break;
+                }
+                if (comando < direcoes.length)
+                    simulacao.move(direcoes[comando]);
+                else if (comando == DiarioSessao.INTERAGE)
+                    simulacao.interage();
+                else if (comando == DiarioSessao.ATACA)
+                    simulacao.ataca();
+                numComandos++;
+            }
+        } catch (EOFException e) {
+            // Sessão interrompida sem o registro FIM
+        } finally {
+            entrada.close();
+        }
+        return !temFim || simulacao.resumoEstado() == resumoEsperado;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Uso: java ReproducaoSessao sessao.diario");
+            System.exit(2);
+        }
+        ReproducaoSessao reproducao = new ReproducaoSessao(args[0]);
+        Simulacao simulacao = reproducao.getSimulacao();
+        long inicio = System.nanoTime();
+        boolean igual = reproducao.executa();
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        System.out.printf("%d ticks e %d comandos em %.2f s (%.0f ticks/s), %d moedas, %d vidas, %d inimigos%n",
+                simulacao.getNumTicks(), reproducao.getNumComandos(), segundos, simulacao.getNumTicks() / segundos,
+                simulacao.getNumMoedas(), simulacao.getVidas(), simulacao.getNumInimigos());
+        if (!reproducao.temFim())
+            System.out.println("Diário sem registro final: reproduzido até o último comando");
+        else
+            System.out.println(igual ? "Estado final igual ao gravado" : "Estado final DIFERENTE do gravado");
+        simulacao.encerra();
+        System.exit(igual ? 0 : 1);
+    }
+}
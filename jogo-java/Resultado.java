@@ -0,0 +1,23 @@
+// Resultado de uma alteração no mapa; quem chama pode inspecioná-lo sem montar mensagens
+public enum Resultado {
+    OK("Ok"),
+    FORA_DO_MAPA("Fora do mapa"),
+    ORIGEM_VAZIA("Não há elemento na origem"),
+    DESTINO_OCUPADO("Já existe um elemento no destino"),
+    BLOQUEADO("Não pode mover"),
+    ELEMENTO_DESCONHECIDO("Elemento não encontrado");
+
+    private final String descricao;
+
+    Resultado(String descricao) {
+        this.descricao = descricao;
+    }
+
+    public String getDescricao() {
+        return descricao;
+    }
+
+    public boolean ok() {
+        return this == OK;
+    }
+}
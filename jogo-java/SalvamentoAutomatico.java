@@ -0,0 +1,69 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Salva a partida periodicamente em uma thread própria (ver SalvamentoMundo): a thread do tick
+// só espera a captura, que marca os chunks em memória, e a interface não espera nada. Um
+// salvamento pedido enquanto outro está em andamento é feito depois dele, nunca junto.
+public class SalvamentoAutomatico implements Closeable {
+    private final Simulacao simulacao;
+    private final String arquivo;
+    private final ScheduledExecutorService executor;
+    private volatile long numSalvamentos;
+    private volatile long duracaoUltimoNanos;
+
+    public SalvamentoAutomatico(Simulacao simulacao, String arquivo, long periodoMillis) {
+        this.simulacao = simulacao;
+        this.arquivo = arquivo;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "salvamento");
+            t.setDaemon(true);
+            return t;
+        });
+        if (periodoMillis > 0)
+            executor.scheduleWithFixedDelay(this::salvaRegistrandoErro, periodoMillis, periodoMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Pede um salvamento, que começa assim que o anterior terminar
+    public Future<?> salvaAgora() {
+        return executor.submit(this::salvaRegistrandoErro);
+    }
+
+    public long getNumSalvamentos() {
+        return numSalvamentos;
+    }
+
+    public long getDuracaoUltimoNanos() {
+        return duracaoUltimoNanos;
+    }
+
+    private void salvaRegistrandoErro() {
+        try {
+            long inicio = System.nanoTime();
+            String destino = SalvamentoMundo.grava(simulacao.capturaEstado(), arquivo);
+            duracaoUltimoNanos = System.nanoTime() - inicio;
+            numSalvamentos++;
+            Registrador.registra(Registrador.Nivel.INFO, "Partida salva em " + destino + " ("
+                    + duracaoUltimoNanos / 1_000_000 + " ms)");
+        } catch (IOException | RuntimeException e) {
+            Registrador.registra(Registrador.Nivel.ERRO, "Falha ao salvar a partida", e);
+        }
+    }
+
+    // Faz um último salvamento e espera que termine
+    @Override
+    public void close() {
+        try {
+            salvaAgora().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Registrador.registra(Registrador.Nivel.ERRO, "Falha ao salvar a partida", e.getCause());
+        }
+        executor.shutdownNow();
+    }
+}
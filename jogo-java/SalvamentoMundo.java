@@ -0,0 +1,434 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Salvamento binário do estado de uma partida local: células e áreas reveladas de cada chunk
+// (as moedas e os inimigos estão nas células), estado dos inimigos em ação, posição do
+// personagem, moedas e vidas.
+//
+// O salvamento é feito em duas etapas. A captura, entre dois ticks, só marca os chunks em
+// memória (ver Chunk.salvamentoPendente) e anota o índice do armazém de chunks descartados; a
+// gravação, em qualquer thread, copia cada chunk e o grava, enquanto o jogo continua: um chunk
+// alterado depois da captura foi copiado antes da alteração e a cópia é que vai para o arquivo.
+// O arquivo é escrito ao lado e renomeado no fim, então um salvamento interrompido não estraga o
+// anterior. Os salvamentos se alternam entre 'arquivo' e 'arquivo.alt' (ver maisRecente): o
+// novo substitui o mais antigo, nunca o arquivo de onde a partida foi restaurada, que continua
+// mapeado em memória (no Windows, um arquivo mapeado não pode ser substituído).
+//
+// Formato (inteiros big-endian): cabeçalho de TAMANHO_CABECALHO bytes com mágico, versão, bits
+// do chunk, colunas, linhas, coluna e linha do personagem, moedas, vidas, número do tick, número
+// de chunks, tipo da fonte original dos chunks (FONTE_*), semente do mundo, orçamento de memória
+// dos chunks (0 sem descarte), geração do salvamento, quantos dos registros eram os chunks em
+// memória na captura e número de inimigos em ação; em seguida um registro por chunk: cx, cy,
+// as Chunk.NUM_CELULAS células de 2 bytes e o bitset das células reveladas, e por fim, para cada
+// inimigo, coluna, linha, estado e posição do alvo (ver Inimigo.getEstado). Na leitura o arquivo
+// é mapeado em memória e serve de FonteChunks: cada chunk só é decodificado quando o Mapa precisa
+// dele, e os que não foram salvos vêm da fonte original (ex.: o MundoInfinito), se houver. Os
+// chunks que estavam em memória são carregados já na criação do mapa, para que os inimigos deles
+// voltem a agir no primeiro tick, como na partida salva.
+public class SalvamentoMundo implements FonteChunks {
+    public static final int MAGICO = 0x53414C56; // "SALV"
+    public static final int VERSAO = 2;
+    public static final int FONTE_NENHUMA = 0; // Mapa em texto, salvo inteiro
+    public static final int FONTE_CHUNKS = 1; // Arquivo de chunks (ver ArquivoChunks), informado ao abrir
+    public static final int FONTE_INFINITO = 2; // MundoInfinito, recriado a partir da semente
+    public static final String SUFIXO_ALTERNATIVO = ".alt";
+    public static final int INTS_INIMIGO = 5;
+    private static final int TAMANHO_CABECALHO = 128;
+    private static final int BYTES_REGISTRO = 8 + Chunk.NUM_CELULAS * 2 + Chunk.NUM_CELULAS / 8; // Múltiplo de 8
+    private static final int REGISTROS_POR_SEGMENTO = (1 << 30) / BYTES_REGISTRO; // Segmentos de 1 GiB
+    private static final int REGISTROS_POR_ESCRITA = 64;
+
+    private final int numColunas;
+    private final int numLinhas;
+    private final int colunaPersonagem;
+    private final int linhaPersonagem;
+    private final int numMoedas;
+    private final int vidas;
+    private final long numTicks;
+    private final int numChunks;
+    private final int tipoFonte;
+    private final long semente;
+    private final long orcamento;
+    private final long geracao;
+    private final int numResidentes; // Registros iniciais com os chunks em memória na captura
+    private final int[] estadosInimigos; // INTS_INIMIGO por inimigo
+    private final Path arquivo;
+    private final FonteChunks base; // Chunks não salvos; nula se o mapa inteiro foi salvo
+    private final Map<Long, Integer> registros = new HashMap<>(); // (cx, cy) -> número do registro
+    private final ByteBuffer[] segmentos;
+    private final CharBuffer[] celulas; // Visões dos segmentos, para leituras em bloco
+    private final LongBuffer[] revelados;
+
+    // Abre um salvamento; 'base' fornece os chunks que não estão nele quando vieram de um arquivo
+    // de chunks. Para mapas em texto, salvos inteiros, e para o mundo infinito, recriado pela
+    // semente, pode ser nula
+    public SalvamentoMundo(String arquivo, FonteChunks base) throws IOException {
+        this.arquivo = Paths.get(arquivo).toAbsolutePath();
+        try (FileChannel canal = FileChannel.open(this.arquivo, StandardOpenOption.READ)) {
+            ByteBuffer cabecalho = ByteBuffer.allocate(TAMANHO_CABECALHO);
+            canal.read(cabecalho, 0);
+            cabecalho.flip();
+            if (cabecalho.remaining() < TAMANHO_CABECALHO || cabecalho.getInt() != MAGICO)
+                throw new IOException("Arquivo de salvamento inválido: " + arquivo);
+            int versao = cabecalho.getInt();
+            int bits = cabecalho.getInt();
+            if (versao != VERSAO || bits != Chunk.BITS)
+                throw new IOException("Versão de salvamento não suportada: " + versao);
+            numColunas = cabecalho.getInt();
+            numLinhas = cabecalho.getInt();
+            colunaPersonagem = cabecalho.getInt();
+            linhaPersonagem = cabecalho.getInt();
+            numMoedas = cabecalho.getInt();
+            vidas = cabecalho.getInt();
+            numTicks = cabecalho.getLong();
+            numChunks = cabecalho.getInt();
+            tipoFonte = cabecalho.getInt();
+            semente = cabecalho.getLong();
+            orcamento = cabecalho.getLong();
+            geracao = cabecalho.getLong();
+            numResidentes = cabecalho.getInt();
+            int numInimigos = cabecalho.getInt();
+            if (tipoFonte == FONTE_CHUNKS && base == null)
+                throw new IOException("O salvamento " + arquivo + " precisa do arquivo de chunks do mapa");
+            this.base = tipoFonte == FONTE_INFINITO ? new MundoInfinito(semente) : base;
+            long fimRegistros = TAMANHO_CABECALHO + (long) numChunks * BYTES_REGISTRO;
+            if (numResidentes < 0 || numResidentes > numChunks || numInimigos < 0
+                    || canal.size() < fimRegistros + (long) numInimigos * INTS_INIMIGO * 4)
+                throw new IOException("Arquivo de salvamento truncado: " + arquivo);
+            ByteBuffer inimigos = ByteBuffer.allocate(numInimigos * INTS_INIMIGO * 4);
+            while (inimigos.hasRemaining())
+                canal.read(inimigos, fimRegistros + inimigos.position());
+            inimigos.flip();
+            estadosInimigos = new int[numInimigos * INTS_INIMIGO];
+            inimigos.asIntBuffer().get(estadosInimigos);
+
+            // O mapeamento continua válido depois que o canal é fechado; os salvamentos seguintes
+            // da partida vão para o outro arquivo (ver grava)
+            int numSegmentos = (numChunks + REGISTROS_POR_SEGMENTO - 1) / REGISTROS_POR_SEGMENTO;
+            segmentos = new ByteBuffer[numSegmentos];
+            celulas = new CharBuffer[numSegmentos];
+            revelados = new LongBuffer[numSegmentos];
+            for (int s = 0; s < numSegmentos; s++) {
+                long inicio = TAMANHO_CABECALHO + (long) s * REGISTROS_POR_SEGMENTO * BYTES_REGISTRO;
+                long tamanho = (long) Math.min(numChunks - s * REGISTROS_POR_SEGMENTO, REGISTROS_POR_SEGMENTO) * BYTES_REGISTRO;
+                MappedByteBuffer trecho = canal.map(FileChannel.MapMode.READ_ONLY, inicio, tamanho);
+                segmentos[s] = trecho;
+                celulas[s] = trecho.asCharBuffer();
+                revelados[s] = trecho.asLongBuffer();
+            }
+        }
+        for (int r = 0; r < numChunks; r++) {
+            ByteBuffer segmento = segmentos[r / REGISTROS_POR_SEGMENTO];
+            int inicio = (r % REGISTROS_POR_SEGMENTO) * BYTES_REGISTRO;
+            registros.put(chave(segmento.getInt(inicio), segmento.getInt(inicio + 4)), r);
+        }
+    }
+
+    private static long chave(int cx, int cy) {
+        return (long) cy << 32 | (cx & 0xFFFFFFFFL);
+    }
+
+    public int getNumColunas() {
+        return numColunas;
+    }
+
+    public int getNumLinhas() {
+        return numLinhas;
+    }
+
+    public int getNumMoedas() {
+        return numMoedas;
+    }
+
+    public int getVidas() {
+        return vidas;
+    }
+
+    public long getNumTicks() {
+        return numTicks;
+    }
+
+    public int getNumChunks() {
+        return numChunks;
+    }
+
+    public int getTipoFonte() {
+        return tipoFonte;
+    }
+
+    public long getSemente() {
+        return semente;
+    }
+
+    public long getGeracao() {
+        return geracao;
+    }
+
+    // Coluna, linha, estado e alvo de cada inimigo em ação na captura (INTS_INIMIGO por inimigo)
+    public int[] getEstadosInimigos() {
+        return estadosInimigos;
+    }
+
+    // Mapa com o estado salvo, carregado sob demanda a partir deste arquivo, com o mesmo
+    // descarte de chunks do mapa salvo e os mesmos chunks em memória
+    public Mapa criaMapa(int tamanhoCelula) throws IOException {
+        Mapa mapa = new Mapa(numColunas, numLinhas, colunaPersonagem, linhaPersonagem, this, tamanhoCelula);
+        if (orcamento > 0)
+            mapa.configuraDescarte(orcamento, new ArmazemChunks());
+        for (int r = 0; r < numResidentes; r++) {
+            ByteBuffer segmento = segmentos[r / REGISTROS_POR_SEGMENTO];
+            int inicio = (r % REGISTROS_POR_SEGMENTO) * BYTES_REGISTRO;
+            mapa.carregaChunkSalvo(segmento.getInt(inicio), segmento.getInt(inicio + 4));
+        }
+        return mapa;
+    }
+
+    // Caminho do salvamento mais recente entre 'arquivo' e sua alternativa; nulo se não há nenhum
+    public static String maisRecente(String arquivo) throws IOException {
+        Path[] caminhos = caminhos(arquivo);
+        long geracao0 = geracao(caminhos[0]);
+        long geracao1 = geracao(caminhos[1]);
+        if (geracao0 < 0 && geracao1 < 0) {
+            // Nenhum válido: se houver um arquivo, abri-lo informa o erro em vez de descartá-lo
+            for (Path caminho : caminhos) {
+                if (Files.exists(caminho))
+                    return caminho.toString();
+            }
+            return null;
+        }
+        return (geracao0 >= geracao1 ? caminhos[0] : caminhos[1]).toString();
+    }
+
+    private static Path[] caminhos(String arquivo) {
+        Path principal = Paths.get(arquivo).toAbsolutePath();
+        return new Path[]{principal, principal.resolveSibling(principal.getFileName() + SUFIXO_ALTERNATIVO)};
+    }
+
+    // Geração gravada no cabeçalho; -1 se o arquivo não existe ou não é um salvamento desta versão
+    private static long geracao(Path caminho) throws IOException {
+        if (!Files.exists(caminho))
+            return -1;
+        try (FileChannel canal = FileChannel.open(caminho, StandardOpenOption.READ)) {
+            ByteBuffer cabecalho = ByteBuffer.allocate(TAMANHO_CABECALHO);
+            canal.read(cabecalho, 0);
+            cabecalho.flip();
+            if (cabecalho.remaining() < TAMANHO_CABECALHO || cabecalho.getInt(0) != MAGICO
+                    || cabecalho.getInt(4) != VERSAO)
+                return -1;
+            return cabecalho.getLong(68);
+        }
+    }
+
+    @Override
+    public Chunk carregaChunk(int cx, int cy) {
+        Integer r = registros.get(chave(cx, cy));
+        if (r == null)
+            return base != null ? base.carregaChunk(cx, cy) : new Chunk();
+        Chunk chunk = new Chunk();
+        lePara(r, chunk.celulas, chunk.revelado);
+        chunk.modificado = true; // Pode ser diferente do que a fonte original geraria
+        return chunk;
+    }
+
+    // Leitura absoluta: não altera a posição dos buffers e pode ocorrer em paralelo
+    private void lePara(int r, char[] celulasSaida, long[] reveladoSaida) {
+        int s = r / REGISTROS_POR_SEGMENTO;
+        int inicio = (r % REGISTROS_POR_SEGMENTO) * BYTES_REGISTRO;
+        celulas[s].get((inicio + 8) / 2, celulasSaida);
+        revelados[s].get((inicio + 8 + Chunk.NUM_CELULAS * 2) / 8, reveladoSaida);
+    }
+
+    // Estado capturado entre dois ticks, ainda por gravar (ver Simulacao.capturaEstado)
+    public static class Captura {
+        private final Mapa mapa;
+        private final int colunaPersonagem;
+        private final int linhaPersonagem;
+        private final int numMoedas;
+        private final int vidas;
+        private final long numTicks;
+        private final int tipoFonte;
+        private final long semente;
+        private final long orcamento;
+        private final int[] estadosInimigos;
+        private final List<Chunk> chunks = new ArrayList<>();
+        private final List<Long> chaves = new ArrayList<>();
+        private final ArmazemChunks armazem;
+        private final long[] registrosArmazem;
+        private final SalvamentoMundo origem; // Salvamento de onde o mapa foi restaurado, se for o caso
+        private boolean gravada;
+
+        // Deve ser criada entre dois ticks
+        Captura(Mapa mapa, int numMoedas, int vidas, long numTicks, List<Inimigo> inimigos) {
+            this.mapa = mapa;
+            this.colunaPersonagem = mapa.getColunaPersonagem();
+            this.linhaPersonagem = mapa.getLinhaPersonagem();
+            this.numMoedas = numMoedas;
+            this.vidas = vidas;
+            this.numTicks = numTicks;
+            synchronized (inimigos) {
+                estadosInimigos = new int[inimigos.size() * INTS_INIMIGO];
+                int i = 0;
+                for (Inimigo inimigo : inimigos) {
+                    estadosInimigos[i++] = inimigo.getX();
+                    estadosInimigos[i++] = inimigo.getY();
+                    estadosInimigos[i++] = inimigo.getEstado();
+                    estadosInimigos[i++] = inimigo.getAlvoX();
+                    estadosInimigos[i++] = inimigo.getAlvoY();
+                }
+            }
+            mapa.capturaChunks((c, cx, cy) -> {
+                chunks.add(c);
+                chaves.add(chave(cx, cy));
+            });
+            armazem = mapa.getArmazem();
+            registrosArmazem = armazem != null ? armazem.capturaRegistros() : new long[0];
+            orcamento = mapa.getOrcamentoDescarte();
+            FonteChunks fonte = mapa.getFonte();
+            origem = fonte instanceof SalvamentoMundo ? (SalvamentoMundo) fonte : null;
+            if (origem != null) {
+                tipoFonte = origem.tipoFonte;
+                semente = origem.semente;
+            } else if (fonte instanceof MundoInfinito) {
+                tipoFonte = FONTE_INFINITO;
+                semente = ((MundoInfinito) fonte).getSemente();
+            } else {
+                tipoFonte = fonte instanceof ArquivoChunks ? FONTE_CHUNKS : FONTE_NENHUMA;
+                semente = 0;
+            }
+        }
+
+        public int getNumChunksEmMemoria() {
+            return chunks.size();
+        }
+    }
+
+    // Grava a captura em 'arquivo' ou na sua alternativa e retorna o caminho usado; pode ser
+    // chamado em qualquer thread, com o jogo em andamento. Os chunks em memória na captura vêm
+    // primeiro; depois os descartados alterados e, para um mapa restaurado, os do salvamento de
+    // origem que não voltaram à memória
+    public static String grava(Captura captura, String arquivo) throws IOException {
+        if (captura.gravada)
+            throw new IllegalStateException("Captura já gravada");
+        captura.gravada = true;
+        Path[] caminhos = caminhos(arquivo);
+        long geracao0 = geracao(caminhos[0]);
+        long geracao1 = geracao(caminhos[1]);
+        Path mapeado = captura.origem != null ? captura.origem.arquivo : null;
+        Path destino;
+        if (caminhos[0].equals(mapeado))
+            destino = caminhos[1];
+        else if (caminhos[1].equals(mapeado))
+            destino = caminhos[0];
+        else
+            destino = geracao0 <= geracao1 ? caminhos[0] : caminhos[1];
+        long geracao = Math.max(Math.max(geracao0, geracao1), mapeado != null ? captura.origem.geracao : 0) + 1;
+        Path temporario = destino.resolveSibling(destino.getFileName() + ".tmp");
+        int proximo = 0;
+        try (FileChannel canal = FileChannel.open(temporario, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Escritor escritor = new Escritor(canal);
+            Set<Long> gravados = new HashSet<>();
+            for (; proximo < captura.chunks.size(); proximo++) {
+                long chave = captura.chaves.get(proximo);
+                captura.chunks.get(proximo).copiaParaSalvamento(escritor.celulas, escritor.revelado);
+                escritor.escreve(chave);
+                gravados.add(chave);
+            }
+            long[] registros = captura.registrosArmazem;
+            for (int i = 0; i < registros.length; i += 2) {
+                long chave = registros[i];
+                if (!gravados.add(chave))
+                    continue;
+                Chunk c = captura.armazem.carregaRegistro(registros[i + 1], (int) chave, (int) (chave >>> 32));
+                System.arraycopy(c.celulas, 0, escritor.celulas, 0, Chunk.NUM_CELULAS);
+                System.arraycopy(c.revelado, 0, escritor.revelado, 0, c.revelado.length);
+                escritor.escreve(chave);
+            }
+            SalvamentoMundo origem = captura.origem;
+            if (origem != null) {
+                for (Map.Entry<Long, Integer> registro : origem.registros.entrySet()) {
+                    if (!gravados.add(registro.getKey()))
+                        continue;
+                    origem.lePara(registro.getValue(), escritor.celulas, escritor.revelado);
+                    escritor.escreve(registro.getKey());
+                }
+            }
+            escritor.termina();
+            escritor.escreveInimigos(captura.estadosInimigos);
+
+            ByteBuffer cabecalho = ByteBuffer.allocate(TAMANHO_CABECALHO);
+            Mapa mapa = captura.mapa;
+            cabecalho.putInt(MAGICO).putInt(VERSAO).putInt(Chunk.BITS)
+                    .putInt(mapa.getNumColunas()).putInt(mapa.getNumLinhas())
+                    .putInt(captura.colunaPersonagem).putInt(captura.linhaPersonagem)
+                    .putInt(captura.numMoedas).putInt(captura.vidas).putLong(captura.numTicks)
+                    .putInt(gravados.size()).putInt(captura.tipoFonte).putLong(captura.semente)
+                    .putLong(captura.orcamento).putLong(geracao).putInt(captura.chunks.size())
+                    .putInt(captura.estadosInimigos.length / INTS_INIMIGO);
+            cabecalho.clear();
+            while (cabecalho.hasRemaining())
+                canal.write(cabecalho, cabecalho.position());
+            canal.force(false);
+        } finally {
+            // Em caso de erro, os chunks ainda não gravados deixam de ser copiados a cada alteração
+            for (; proximo < captura.chunks.size(); proximo++)
+                captura.chunks.get(proximo).descartaSalvamento();
+        }
+        Files.move(temporario, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return destino.toString();
+    }
+
+    // Grava os registros em blocos, depois do espaço reservado para o cabeçalho
+    private static class Escritor {
+        final char[] celulas = new char[Chunk.NUM_CELULAS];
+        final long[] revelado = new long[Chunk.NUM_CELULAS / 64];
+        private final FileChannel canal;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(REGISTROS_POR_ESCRITA * BYTES_REGISTRO);
+        private long posicao = TAMANHO_CABECALHO;
+
+        Escritor(FileChannel canal) {
+            this.canal = canal;
+        }
+
+        void escreve(long chave) throws IOException {
+            int inicio = buffer.position();
+            buffer.putInt((int) chave).putInt((int) (chave >>> 32));
+            buffer.asCharBuffer().put(celulas);
+            buffer.position(inicio + 8 + Chunk.NUM_CELULAS * 2);
+            buffer.asLongBuffer().put(revelado);
+            buffer.position(inicio + BYTES_REGISTRO);
+            if (!buffer.hasRemaining())
+                termina();
+        }
+
+        // Depois dos registros, já terminados
+        void escreveInimigos(int[] estados) throws IOException {
+            ByteBuffer dados = ByteBuffer.allocate(estados.length * 4);
+            dados.asIntBuffer().put(estados);
+            while (dados.hasRemaining())
+                posicao += canal.write(dados, posicao);
+        }
+
+        void termina() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                posicao += canal.write(buffer, posicao);
+            buffer.clear();
+        }
+    }
+}
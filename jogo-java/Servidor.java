@@ -0,0 +1,332 @@
+import java.awt.Color;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Servidor autoritativo para vários jogadores em localhost: é o único dono da Simulacao (mapa,
+// inimigos e regras). Uma única thread de rede atende todas as conexões com um Selector (NIO não
+// bloqueante); a cada tick do Escalonador, depois que os inimigos se movem, o servidor aplica
+// um comando de cada jogador e envia a cada um o estado das entidades ao seu redor.
+//
+// Toda alteração de jogadores acontece na thread do tick; a thread de rede apenas aceita
+// conexões, enfileira comandos recebidos e escreve as mensagens já codificadas.
+public class Servidor {
+    private static final Direcao[] DIRECOES = Direcao.values();
+    public static final long PERIODO_TICK = 100; // ms
+    private static final int LADO_INTERESSE = 2 * Protocolo.RAIO_INTERESSE + 1;
+    private static final int MAX_ENTIDADES_VISIVEIS = LADO_INTERESSE * LADO_INTERESSE;
+    private static final int TAMANHO_SAIDA = Protocolo.TAMANHO_CABECALHO + 20 + CodificadorEstado.TAMANHO_MAXIMO;
+
+    // Estado de uma conexão; 'saida' só é preenchida pelo tick quando não há mensagem pendente
+    private static final class Conexao {
+        final SocketChannel canal;
+        final ByteBuffer entrada = ByteBuffer.allocate(256);
+        final ByteBuffer saida = ByteBuffer.allocateDirect(TAMANHO_SAIDA);
+        final CodificadorEstado codificador = new CodificadorEstado();
+        SelectionKey chave;
+        volatile Jogador jogador; // Nulo até o tick seguinte à conexão
+        volatile boolean fechada;
+        boolean pendente; // Há mensagem em 'saida' ainda não escrita; protegido pela conexão
+        boolean bemVindo; // Já recebeu BOAS_VINDAS; acessado só pelo tick
+        long descartadas; // Estados não enviados porque o anterior ainda estava pendente
+
+        Conexao(SocketChannel canal) {
+            this.canal = canal;
+        }
+    }
+
+    private final Simulacao simulacao;
+    private final Mapa mapa;
+    private final int porta;
+    private final List<Conexao> conexoes = new CopyOnWriteArrayList<>();
+    private final Queue<Conexao> novas = new ConcurrentLinkedQueue<>(); // Aceitas, aguardando o tick
+    private final Queue<Conexao> prontas = new ConcurrentLinkedQueue<>(); // Com mensagem a escrever
+    private final int[] vizinhos = new int[MAX_ENTIDADES_VISIVEIS]; // Reutilizado a cada jogador
+    private ServerSocketChannel canalServidor;
+    private Selector seletor;
+    private Thread threadRede;
+    private volatile boolean ativo;
+
+    public Servidor(String arquivoMapa, int porta, long periodoTick) {
+        this.porta = porta;
+        // Os jogadores são entidades do mapa; não há personagem local
+        this.simulacao = new Simulacao(new Mapa(arquivoMapa, 1), periodoTick, false);
+        this.mapa = simulacao.getMapa();
+        simulacao.distribuiMoedas(100, 1L);
+    }
+
+    public Mapa getMapa() {
+        return mapa;
+    }
+
+    public int getNumJogadores() {
+        return conexoes.size();
+    }
+
+    public long getNumTicks() {
+        return simulacao.getNumTicks();
+    }
+
+    // Porta efetivamente em uso (útil quando o servidor é criado com porta 0)
+    public int getPorta() throws IOException {
+        return ((InetSocketAddress) canalServidor.getLocalAddress()).getPort();
+    }
+
+    public void inicia() throws IOException {
+        seletor = Selector.open();
+        canalServidor = ServerSocketChannel.open();
+        canalServidor.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), porta), 128);
+        canalServidor.configureBlocking(false);
+        canalServidor.register(seletor, SelectionKey.OP_ACCEPT);
+
+        ativo = true;
+        threadRede = new Thread(this::lacoRede, "servidor-rede");
+        threadRede.start();
+
+        simulacao.registraFimDeTick(this::tick);
+        simulacao.inicia();
+    }
+
+    public void encerra() {
+        simulacao.encerra();
+        ativo = false;
+        seletor.wakeup();
+        try {
+            threadRede.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Conexao c : conexoes)
+            fecha(c);
+        try {
+            canalServidor.close();
+            seletor.close();
+        } catch (IOException e) {
+            Registrador.registra(Registrador.Nivel.ERRO, "Falha ao fechar o canal do servidor", e);
+        }
+    }
+
+    // Executado na thread do tick, depois que todos os inimigos se moveram
+    private void tick() {
+        Conexao nova;
+        while ((nova = novas.poll()) != null)
+            entra(nova);
+
+        for (Conexao c : conexoes) {
+            if (c.fechada)
+                sai(c);
+            else
+                aplicaComando(c.jogador);
+        }
+
+        long tick = simulacao.getNumTicks();
+        for (Conexao c : conexoes)
+            enviaEstado(c, tick);
+        seletor.wakeup();
+    }
+
+    // Cria o personagem do novo jogador na célula livre mais próxima da posição inicial do mapa
+    private void entra(Conexao c) {
+        if (c.fechada)
+            return;
+        int[] posicao = posicaoLivre(mapa.getColunaPersonagem(), mapa.getLinhaPersonagem());
+        if (posicao == null) {
+            fecha(c);
+            return;
+        }
+        Jogador jogador = new Jogador('☺', Color.BLUE, posicao[0], posicao[1]);
+        jogador.setIdEntidade(mapa.adicionaEntidade('J', jogador, posicao[0], posicao[1]));
+        c.jogador = jogador;
+        simulacao.adicionaJogador(jogador);
+        conexoes.add(c);
+    }
+
+    private void sai(Conexao c) {
+        conexoes.remove(c);
+        Jogador jogador = c.jogador;
+        if (jogador != null) {
+            simulacao.removeJogador(jogador);
+            mapa.removeEntidade(jogador.getIdEntidade());
+        }
+    }
+
+    // Procura em quadrados concêntricos a célula vazia mais próxima de (x, y)
+    private int[] posicaoLivre(int x, int y) {
+        int raioMaximo = Math.max(mapa.getNumColunas(), mapa.getNumLinhas());
+        for (int r = 0; r < raioMaximo; r++) {
+            for (int py = y - r; py <= y + r; py++) {
+                for (int px = x - r; px <= x + r; px++) {
+                    boolean borda = py == y - r || py == y + r || px == x - r || px == x + r;
+                    if (borda && px >= 0 && py >= 0 && px < mapa.getNumColunas() && py < mapa.getNumLinhas()
+                            && mapa.getIdCelula(px, py) == ' ')
+                        return new int[]{px, py};
+                }
+            }
+        }
+        return null;
+    }
+
+    // Aplica no máximo um comando por tick, com as regras da simulação
+    private void aplicaComando(Jogador jogador) {
+        Direcao direcao = jogador.proximoComando();
+        if (direcao != null)
+            simulacao.moveJogador(jogador, direcao);
+    }
+
+    // Codifica o estado visível ao jogador na saída da conexão e a entrega à thread de rede.
+    // Se a mensagem anterior ainda não foi toda escrita, o cliente está lento e este estado é
+    // descartado: o próximo é codificado em relação ao último que o cliente confirmou
+    private void enviaEstado(Conexao c, long tick) {
+        Jogador jogador = c.jogador;
+        synchronized (c) {
+            if (c.fechada)
+                return;
+            if (c.pendente) {
+                c.descartadas++;
+                return;
+            }
+            ByteBuffer saida = c.saida;
+            saida.clear();
+            if (!c.bemVindo) {
+                saida.putInt(Protocolo.TAMANHO_CABECALHO + 20).put(Protocolo.BOAS_VINDAS)
+                        .putInt(jogador.getIdEntidade()).putInt(mapa.getNumColunas()).putInt(mapa.getNumLinhas())
+                        .putInt(jogador.getX()).putInt(jogador.getY());
+                c.bemVindo = true;
+            }
+
+            c.codificador.codifica(mapa, jogador, (int) tick, saida, vizinhos);
+            saida.flip();
+            c.pendente = true;
+        }
+        prontas.add(c);
+    }
+
+    private void lacoRede() {
+        while (ativo) {
+            try {
+                seletor.select();
+            } catch (IOException e) {
+                Registrador.registra(Registrador.Nivel.ERRO, "Falha na espera por eventos de rede", e);
+                return;
+            }
+
+            Conexao pronta;
+            while ((pronta = prontas.poll()) != null)
+                escreve(pronta);
+
+            Iterator<SelectionKey> chaves = seletor.selectedKeys().iterator();
+            while (chaves.hasNext()) {
+                SelectionKey chave = chaves.next();
+                chaves.remove();
+                if (!chave.isValid())
+                    continue;
+                if (chave.isAcceptable()) {
+                    aceita();
+                    continue;
+                }
+                Conexao c = (Conexao) chave.attachment();
+                if (chave.isReadable())
+                    le(c);
+                if (chave.isValid() && chave.isWritable())
+                    escreve(c);
+            }
+        }
+    }
+
+    private void aceita() {
+        try {
+            SocketChannel canal = canalServidor.accept();
+            if (canal == null)
+                return;
+            canal.configureBlocking(false);
+            canal.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Conexao c = new Conexao(canal);
+            c.chave = canal.register(seletor, SelectionKey.OP_READ, c);
+            novas.add(c);
+        } catch (IOException e) {
+            Registrador.registra(Registrador.Nivel.ERRO, "Falha ao aceitar conexão", e);
+        }
+    }
+
+    // Lê os comandos e confirmações recebidos; bytes que não são uma direção são ignorados.
+    // Uma confirmação incompleta fica na entrada até a próxima leitura
+    private void le(Conexao c) {
+        try {
+            if (c.canal.read(c.entrada) < 0) {
+                fecha(c);
+                return;
+            }
+        } catch (IOException e) {
+            fecha(c);
+            return;
+        }
+        ByteBuffer entrada = c.entrada;
+        entrada.flip();
+        Jogador jogador = c.jogador;
+        while (entrada.hasRemaining()) {
+            int comando = entrada.get(entrada.position());
+            if (comando == Protocolo.CONFIRMA) {
+                if (entrada.remaining() < 5)
+                    break;
+                entrada.get();
+                c.codificador.confirma(entrada.getInt());
+                continue;
+            }
+            entrada.get();
+            if (jogador != null && comando >= 0 && comando < DIRECOES.length)
+                jogador.enfileira(DIRECOES[comando]);
+        }
+        entrada.compact();
+    }
+
+    // Escreve o que couber da mensagem pendente; o restante espera o canal aceitar mais dados
+    private void escreve(Conexao c) {
+        synchronized (c) {
+            if (!c.pendente || c.fechada)
+                return;
+            try {
+                c.canal.write(c.saida);
+            } catch (IOException e) {
+                fecha(c);
+                return;
+            }
+            if (c.saida.hasRemaining()) {
+                c.chave.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            } else {
+                c.pendente = false;
+                c.chave.interestOps(SelectionKey.OP_READ);
+            }
+        }
+    }
+
+    // Fecha o canal; o personagem é removido pelo próximo tick
+    private void fecha(Conexao c) {
+        c.fechada = true;
+        try {
+            c.canal.close();
+        } catch (IOException e) {
+            Registrador.registra(Registrador.Nivel.ERRO, "Falha ao fechar conexão", e);
+        }
+    }
+
+    // java Servidor [mapa] [porta] [período do tick em ms]
+    public static void main(String[] args) throws IOException {
+        String arquivoMapa = args.length > 0 ? args[0] : "mapa.txt";
+        int porta = args.length > 1 ? Integer.parseInt(args[1]) : Protocolo.PORTA_PADRAO;
+        long periodo = args.length > 2 ? Long.parseLong(args[2]) : PERIODO_TICK;
+        Servidor servidor = new Servidor(arquivoMapa, porta, periodo);
+        servidor.inicia();
+        System.out.println("Servidor ouvindo em localhost:" + servidor.getPorta());
+    }
+}
@@ -0,0 +1,363 @@
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Núcleo do jogo sem interface gráfica: mapa, inimigos, estado do personagem e regras
+// (moedas, colisões, vidas). Quem apresenta o jogo (Jogo, Servidor) apenas envia comandos
+// e recebe eventos por OuvinteSimulacao. Os ticks podem ser dados pelo relógio do
+// Escalonador (inicia) ou chamados diretamente (executaTick), o mais rápido possível, em
+// testes de carga e bots. Os inimigos andam em duas fases (AtualizacaoDuasFases) com
+// -Djogo.threads threads (padrão: uma por processador), com o mesmo resultado para qualquer valor.
+public class Simulacao {
+    public static final int VIDAS_INICIAIS = 3;
+    private static final int[] DX = {0, 0, -1, 1}; // Na ordem de Direcao: CIMA, BAIXO, ESQUERDA, DIREITA
+    private static final int[] DY = {-1, 1, 0, 0};
+
+    private final Mapa mapa;
+    private final Escalonador escalonador;
+    private final AtualizacaoDuasFases atualizacao; // Move os inimigos em paralelo a cada tick
+    private final boolean comPersonagem; // Se há um personagem local sujeito a colisões
+    private final List<Inimigo> inimigos = Collections.synchronizedList(new ArrayList<>());
+    private final List<OuvinteSimulacao> ouvintes = new CopyOnWriteArrayList<>();
+    private final int[] vizinhos = new int[16]; // Entidades próximas ao personagem, reutilizado a cada tick
+    private final List<Jogador> jogadores = new CopyOnWriteArrayList<>(); // Jogadores em rede (ver adicionaJogador)
+    private int[] ancorasX = new int[4]; // Reutilizados a cada descarte de chunks
+    private int[] ancorasY = new int[4];
+    private volatile int numMoedas = 0;
+    private volatile int vidas = VIDAS_INICIAIS;
+    private volatile long numColisoesJogadores; // Vidas perdidas pelos jogadores em rede; escrito só pelo tick
+    private volatile DiarioSessao diario; // Recebe os comandos do personagem, se a sessão é gravada
+
+    public Simulacao(Mapa mapa, long periodoTick, boolean comPersonagem) {
+        this.mapa = mapa;
+        this.comPersonagem = comPersonagem;
+        this.escalonador = new Escalonador(periodoTick);
+        this.atualizacao = new AtualizacaoDuasFases(mapa,
+                Integer.getInteger("jogo.threads", Runtime.getRuntime().availableProcessors()));
+        escalonador.registraFase(atualizacao);
+
+        registraElementos(mapa);
+
+        // Inimigo: cada 'I' do mapa vira um inimigo independente quando sua região é carregada
+        mapa.registraEntidade('I', this::criaInimigo);
+
+        // Inimigo cujo chunk foi descartado deixa de agir; volta a ser criado com o chunk
+        mapa.setAoDescartarEntidade(entidade -> {
+            if (entidade instanceof Inimigo) {
+                inimigos.remove(entidade);
+                atualizacao.remove((Inimigo) entidade);
+            }
+        });
+
+        // Revela a área inicial ao redor do personagem, já considerando as paredes registradas
+        mapa.atualizaCelulasReveladas();
+
+        if (comPersonagem)
+            escalonador.registraFimDeTick(this::verificaColisoes);
+        escalonador.registraFimDeTick(this::verificaColisoesJogadores);
+        escalonador.registraFimDeTick(this::descartaChunks);
+        escalonador.registraFimDeTick(() -> {
+            for (OuvinteSimulacao ouvinte : ouvintes)
+                ouvinte.tickConcluido(escalonador.getNumTicks());
+        });
+    }
+
+    // Elementos estáticos do mapa, também usados pela cópia local do mapa de um cliente em rede
+    public static void registraElementos(Mapa mapa) {
+        // Parede
+        mapa.registraElemento('#', new Parede('▣', Mapa.brickColor));
+        // Vegetação
+        mapa.registraElemento('V', new Vegetacao('♣', Mapa.vegetationColor));
+        // Moeda
+        mapa.registraElemento('M', new Moeda('♦', Mapa.goldColor));
+    }
+
+    public Mapa getMapa() {
+        return mapa;
+    }
+
+    public int getNumMoedas() {
+        return numMoedas;
+    }
+
+    public int getVidas() {
+        return vidas;
+    }
+
+    public int getNumInimigos() {
+        return inimigos.size();
+    }
+
+    public long getNumTicks() {
+        return escalonador.getNumTicks();
+    }
+
+    // Vidas perdidas pelos jogadores em rede desde o início
+    public long getNumColisoesJogadores() {
+        return numColisoesJogadores;
+    }
+
+    // Passos dados pelos inimigos desde o início
+    public long getNumMovimentosInimigos() {
+        return atualizacao.getNumMovimentos();
+    }
+
+    public void setDiario(DiarioSessao diario) {
+        this.diario = diario;
+    }
+
+    public void adicionaOuvinte(OuvinteSimulacao ouvinte) {
+        ouvintes.add(ouvinte);
+    }
+
+    // Tarefa executada ao final de cada tick, depois dos inimigos e das colisões
+    public void registraFimDeTick(Runnable tarefa) {
+        escalonador.registraFimDeTick(tarefa);
+    }
+
+    // Jogador em rede, já adicionado ao mapa como entidade: mantém os chunks ao seu redor em
+    // memória, é perseguido pelos inimigos que o veem e perde vidas ao encostar neles. Deve ser
+    // chamado antes dos ticks ou entre eles (ex.: ao final de um tick)
+    public void adicionaJogador(Jogador jogador) {
+        jogador.setCampoFluxo(new CampoFluxo(mapa, mapa.getCampoFluxo().getAlcance(), jogador));
+        jogadores.add(jogador);
+    }
+
+    public void removeJogador(Jogador jogador) {
+        jogadores.remove(jogador);
+    }
+
+    public int getNumJogadores() {
+        return jogadores.size();
+    }
+
+    // Se há um personagem local, perseguido pelos inimigos e sujeito a colisões
+    public boolean temPersonagem() {
+        return comPersonagem;
+    }
+
+    public void inicia() {
+        escalonador.inicia();
+    }
+
+    public void encerra() {
+        escalonador.encerra();
+        atualizacao.encerra();
+    }
+
+    // Executa um tick imediatamente, na thread de quem chama; não deve ser usado com inicia()
+    public void executaTick() {
+        escalonador.executaTick();
+    }
+
+    public void distribuiMoedas(int numMoedas, long seed) {
+        Random random = new Random(seed);
+        for (int i = 0; i < numMoedas; i++) {
+            int x = random.nextInt(mapa.getNumColunas());
+            int y = random.nextInt(mapa.getNumLinhas());
+            if (x >= 0 && x < mapa.getNumColunas() && y >= 0 && y < mapa.getNumLinhas() && mapa.getElemento(x, y) == null) {
+                mapa.setElemento('M', x, y);
+            }
+        }
+    }
+
+    private Inimigo criaInimigo(int x, int y) {
+        Inimigo inimigo = new Inimigo('☠', Color.RED, mapa, this, x, y);
+        inimigos.add(inimigo);
+        atualizacao.registra(inimigo);
+        return inimigo;
+    }
+
+    // Move o personagem local e recolhe a moeda do destino. O movimento acontece entre dois
+    // ticks, para que a sessão possa ser reproduzida a partir do diário
+    public boolean move(Direcao direcao) {
+        return escalonador.entreTicks(() -> {
+            registraComando(direcao.ordinal());
+            return moveEntreTicks(direcao);
+        });
+    }
+
+    public String interage() {
+        return escalonador.entreTicks(() -> {
+            registraComando(DiarioSessao.INTERAGE);
+            return mapa.interage();
+        });
+    }
+
+    public String ataca() {
+        return escalonador.entreTicks(() -> {
+            registraComando(DiarioSessao.ATACA);
+            return mapa.ataca();
+        });
+    }
+
+    private void registraComando(int comando) {
+        DiarioSessao d = diario;
+        if (d != null)
+            d.registra(escalonador.getNumTicks(), comando);
+    }
+
+    private boolean moveEntreTicks(Direcao direcao) {
+        if (!mapa.move(direcao))
+            return false;
+
+        int mapX = mapa.getColunaPersonagem();
+        int mapY = mapa.getLinhaPersonagem();
+        if ((mapa.getFlags(mapX, mapY) & TiposCelula.COLETAVEL) != 0) {
+            numMoedas++;
+            mapa.apagaElemento(mapX, mapY);
+            for (OuvinteSimulacao ouvinte : ouvintes)
+                ouvinte.moedaRecolhida(numMoedas);
+        }
+        return true;
+    }
+
+    // Move um jogador em rede (ver Mapa.podeMoverJogador); ele recolhe a moeda do destino ao entrar nele
+    public boolean moveJogador(Jogador jogador, Direcao direcao) {
+        int x = jogador.getX();
+        int y = jogador.getY();
+        int nx = x + DX[direcao.ordinal()];
+        int ny = y + DY[direcao.ordinal()];
+        if (!mapa.podeMoverJogador(nx, ny)) {
+            if (Metricas.ATIVAS)
+                Metricas.registraMovimento(false);
+            return false;
+        }
+        if ((mapa.getFlags(nx, ny) & TiposCelula.COLETAVEL) != 0 && mapa.apagaElemento(nx, ny))
+            jogador.adicionaMoeda();
+        if (!mapa.moveElemento(x, y, nx, ny))
+            return false;
+        jogador.setPosicao(nx, ny);
+        mapa.carregaChunksProximos(nx, ny);
+        return true;
+    }
+
+    // Captura o estado da partida para um salvamento, entre dois ticks; a gravação pode ser
+    // feita depois, em outra thread, com o jogo em andamento (ver SalvamentoMundo)
+    public SalvamentoMundo.Captura capturaEstado() {
+        return escalonador.entreTicks(() -> new SalvamentoMundo.Captura(mapa, numMoedas, vidas, getNumTicks(), inimigos));
+    }
+
+    // Continua uma partida salva; o mapa deve ter sido criado por SalvamentoMundo.criaMapa
+    public void restauraEstado(SalvamentoMundo salvamento) {
+        numMoedas = salvamento.getNumMoedas();
+        vidas = salvamento.getVidas();
+        escalonador.setNumTicks(salvamento.getNumTicks());
+        // Os inimigos dos chunks em memória já foram criados pelo mapa (ver SalvamentoMundo.criaMapa)
+        int[] estados = salvamento.getEstadosInimigos();
+        for (int i = 0; i < estados.length; i += SalvamentoMundo.INTS_INIMIGO) {
+            ElementoMapa elemento = mapa.getElemento(estados[i], estados[i + 1]);
+            if (elemento instanceof Inimigo)
+                ((Inimigo) elemento).restauraEstado(estados[i + 2], estados[i + 3], estados[i + 4]);
+        }
+    }
+
+    // Resumo do estado da partida (tick, personagem, moedas, vidas e posições das entidades),
+    // igual em duas execuções só se elas chegaram ao mesmo estado. Os identificadores das
+    // entidades dependem da ordem de carregamento dos chunks, por isso as posições entram em uma
+    // soma, que não depende da ordem
+    public long resumoEstado() {
+        return escalonador.entreTicks(() -> {
+            long h = escalonador.getNumTicks();
+            h = h * 31 + mapa.getColunaPersonagem();
+            h = h * 31 + mapa.getLinhaPersonagem();
+            h = h * 31 + numMoedas;
+            h = h * 31 + vidas;
+            long posicoes = 0;
+            for (int id = 1; id <= mapa.getNumEntidades(); id++) {
+                if (mapa.getEntidade(id) != null)
+                    posicoes += MazeGenerator.mistura(0, mapa.getColunaEntidade(id), mapa.getLinhaEntidade(id));
+            }
+            return h * 31 + posicoes;
+        });
+    }
+
+    // Executada ao final de cada tick, com os atores parados: descarta os chunks longe do
+    // personagem e dos jogadores se o mapa tiver um limite de memória (ver Mapa.configuraDescarte)
+    private void descartaChunks() {
+        int n = 0;
+        if (ancorasX.length < jogadores.size() + 1) {
+            ancorasX = new int[2 * (jogadores.size() + 1)];
+            ancorasY = new int[ancorasX.length];
+        }
+        if (comPersonagem) {
+            ancorasX[n] = mapa.getColunaPersonagem();
+            ancorasY[n++] = mapa.getLinhaPersonagem();
+        }
+        for (Jogador jogador : jogadores) {
+            if (n == ancorasX.length)
+                break;
+            ancorasX[n] = jogador.getX();
+            ancorasY[n++] = jogador.getY();
+        }
+        mapa.descartaChunks(ancorasX, ancorasY, n);
+    }
+
+    // Executada ao final de cada tick: consulta o índice espacial do mapa pelas entidades
+    // adjacentes ao personagem, em vez de cada inimigo comparar sua distância a ele
+    private void verificaColisoes() {
+        int n = mapa.entidadesNoRaio(mapa.getColunaPersonagem(), mapa.getLinhaPersonagem(), 1, vizinhos);
+        for (int i = 0; i < n; i++) {
+            if (!mapa.getEntidade(vizinhos[i]).ehHostil())
+                continue;
+            vidas--;
+            for (OuvinteSimulacao ouvinte : ouvintes)
+                ouvinte.vidaPerdida(vidas);
+            if (vidas <= 0) {
+                for (OuvinteSimulacao ouvinte : ouvintes)
+                    ouvinte.fimDeJogo();
+                vidas = 1;
+                return;
+            }
+        }
+    }
+
+    // Executada ao final de cada tick: cada jogador em rede perde uma vida por inimigo adjacente,
+    // como o personagem local; sem vidas, recomeça (ver Jogador.perdeVida)
+    private void verificaColisoesJogadores() {
+        long colisoes = 0;
+        for (Jogador jogador : jogadores) {
+            int n = mapa.entidadesNoRaio(jogador.getX(), jogador.getY(), 1, vizinhos);
+            for (int i = 0; i < n; i++) {
+                if (!mapa.getEntidade(vizinhos[i]).ehHostil())
+                    continue;
+                colisoes++;
+                if (jogador.perdeVida())
+                    break;
+            }
+        }
+        if (colisoes > 0)
+            numColisoesJogadores += colisoes;
+    }
+
+    // Executa a simulação sem interface o mais rápido possível:
+    // java Simulacao [mapa] [número de ticks]
+    public static void main(String[] args) {
+        String arquivoMapa = args.length > 0 ? args[0] : "mapa.txt";
+        int numTicks = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        Simulacao simulacao = new Simulacao(new Mapa(arquivoMapa, 1), 0, true);
+        simulacao.distribuiMoedas(100, 1L);
+
+        Random random = new Random(1L);
+        Direcao[] direcoes = Direcao.values();
+        long inicio = System.nanoTime();
+        for (int i = 0; i < numTicks; i++) {
+            simulacao.move(direcoes[random.nextInt(direcoes.length)]);
+            simulacao.executaTick();
+        }
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        System.out.printf("%d ticks em %.2f s (%.0f ticks/s), %d inimigos, %d moedas%n",
+                numTicks, segundos, numTicks / segundos, simulacao.getNumInimigos(), simulacao.getNumMoedas());
+        if (Metricas.ATIVAS) {
+            Metricas metricas = Metricas.getInstancia();
+            System.out.printf("Tick p50/p99/p999/máx: %d/%d/%d/%d µs, atraso dos atores p99: %d µs, %d movimentos, %d bloqueados%n",
+                    metricas.getTickP50Micros(), metricas.getTickP99Micros(), metricas.getTickP999Micros(),
+                    metricas.getTickMaximoMicros(), metricas.getAtrasoAtorP99Micros(), metricas.getNumMovimentos(),
+                    metricas.getNumBloqueados());
+        }
+        simulacao.encerra();
+    }
+}
@@ -0,0 +1,263 @@
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+// Teste de carga do motor do jogo em uma só máquina, para saber quantos jogadores e inimigos
+// ele aguenta e flagrar regressões de escala. Para cada combinação de parâmetros, cria um mapa
+// como o da Bancada com M inimigos e N jogadores robôs (Jogador, como os do Servidor, mas sem
+// rede) e executa ticks o mais rápido possível durante um tempo fixo, depois de um aquecimento.
+// Os robôs decidem e andam ao final de cada tick, na thread do tick, como os comandos no
+// Servidor: vão até a moeda mais próxima que enxergam ou, sem nenhuma, andam ao acaso. Como
+// no Servidor, os robôs são registrados na Simulacao (adicionaJogador): os inimigos que os
+// veem os perseguem pelo campo de fluxo de cada um e por A*, e eles perdem vidas ao encostar
+// nos inimigos. Rede, desenho, descarte de chunks, diário e salvamento ficam de fora.
+//
+// Relata ticks/s, latência do tick (p50/p99/p999/máx), movimentos/s de robôs e inimigos,
+// recálculos dos campos de fluxo dos robôs, vidas perdidas, moedas recolhidas, heap usado,
+// pico de heap e coletas de lixo no período medido.
+//
+// make carga ou java TesteCarga [-jogadores 0,100,1000] [-inimigos 1000,10000] [-tamanho 1024]
+//                               [-duracao 10] [-aquecimento 3]
+// Os inimigos andam com -Djogo.threads threads (padrão: uma por processador).
+public class TesteCarga {
+    private static final int[] DX = {0, 0, -1, 1}; // Na ordem de Direcao: CIMA, BAIXO, ESQUERDA, DIREITA
+    private static final int[] DY = {-1, 1, 0, 0};
+    private static final Direcao[] DIRECOES = Direcao.values();
+    private static final int RAIO_BUSCA = 6; // Alcance da busca por moedas de cada robô
+    private static final int TICKS_MOEDAS = 100; // Intervalo entre reposições das moedas recolhidas
+
+    // Jogador controlado pelo teste; cada um tem seu gerador, para que a carga seja reprodutível
+    private static final class Robo {
+        final Jogador jogador;
+        final SplittableRandom aleatorio;
+        int direcao; // Direção do passeio aleatório, mantida até bater em algo
+
+        Robo(Jogador jogador, long semente) {
+            this.jogador = jogador;
+            this.aleatorio = new SplittableRandom(semente);
+            this.direcao = aleatorio.nextInt(4);
+        }
+    }
+
+    private final Simulacao simulacao;
+    private final Mapa mapa;
+    private final List<Robo> robos = new ArrayList<>();
+    private final HistogramaLatencia latenciaTick = new HistogramaLatencia();
+    private long movimentosRobos;
+    private long moedasRecolhidas;
+    private int moedasARepor;
+
+    public TesteCarga(int tamanho, int numJogadores, int numInimigos, long semente) throws IOException {
+        File arquivo = Bancada.geraMapa(tamanho, numInimigos, semente);
+        mapa = new Mapa(arquivo.getPath(), 1);
+        arquivo.delete();
+        // Os jogadores são entidades do mapa; não há personagem local (como no Servidor)
+        simulacao = new Simulacao(mapa, 0, false);
+
+        // Os robôs são colocados antes das moedas, para que caibam sempre que houver uma célula
+        // livre para cada um depois dos inimigos
+        if (numInimigos + numJogadores > Bancada.celulasLivres(tamanho, semente))
+            throw new IllegalArgumentException(numJogadores + " jogadores e " + numInimigos
+                    + " inimigos não cabem no mapa " + tamanho + "x" + tamanho);
+        SplittableRandom aleatorio = new SplittableRandom(semente);
+        for (int i = 0; i < numJogadores; i++) {
+            int x, y;
+            do {
+                x = aleatorio.nextInt(tamanho);
+                y = aleatorio.nextInt(tamanho);
+            } while (mapa.getIdCelula(x, y) != ' ');
+            Jogador jogador = new Jogador('☺', Color.BLUE, x, y);
+            jogador.setIdEntidade(mapa.adicionaEntidade('J', jogador, x, y));
+            simulacao.adicionaJogador(jogador);
+            robos.add(new Robo(jogador, aleatorio.nextLong()));
+        }
+        simulacao.distribuiMoedas(Math.max(100, numJogadores), semente);
+        simulacao.registraFimDeTick(this::moveRobos);
+    }
+
+    // Executado na thread do tick, depois dos inimigos
+    private void moveRobos() {
+        for (Robo robo : robos) {
+            Jogador jogador = robo.jogador;
+            int moedas = jogador.getNumMoedas();
+            if (simulacao.moveJogador(jogador, decide(robo)))
+                movimentosRobos++;
+            else
+                robo.direcao = robo.aleatorio.nextInt(4);
+            moedasRecolhidas += jogador.getNumMoedas() - moedas;
+            moedasARepor += jogador.getNumMoedas() - moedas;
+        }
+        // Repõe as moedas recolhidas, para que a busca continue com a mesma densidade
+        if (simulacao.getNumTicks() % TICKS_MOEDAS == 0 && moedasARepor > 0) {
+            simulacao.distribuiMoedas(moedasARepor, simulacao.getNumTicks());
+            moedasARepor = 0;
+        }
+    }
+
+    // Passo em direção à moeda mais próxima no raio de busca, primeiro no eixo mais distante;
+    // sem moeda à vista, segue o passeio aleatório
+    private Direcao decide(Robo robo) {
+        int x = robo.jogador.getX(), y = robo.jogador.getY();
+        int melhorDistancia = Integer.MAX_VALUE, alvoX = 0, alvoY = 0;
+        for (int py = Math.max(0, y - RAIO_BUSCA); py <= Math.min(mapa.getNumLinhas() - 1, y + RAIO_BUSCA); py++) {
+            for (int px = Math.max(0, x - RAIO_BUSCA); px <= Math.min(mapa.getNumColunas() - 1, x + RAIO_BUSCA); px++) {
+                int distancia = Math.abs(px - x) + Math.abs(py - y);
+                if (distancia < melhorDistancia && (mapa.getFlags(px, py) & TiposCelula.COLETAVEL) != 0) {
+                    melhorDistancia = distancia;
+                    alvoX = px;
+                    alvoY = py;
+                }
+            }
+        }
+        if (melhorDistancia != Integer.MAX_VALUE) {
+            int dx = alvoX - x, dy = alvoY - y;
+            Direcao horizontal = dx < 0 ? Direcao.ESQUERDA : Direcao.DIREITA;
+            Direcao vertical = dy < 0 ? Direcao.CIMA : Direcao.BAIXO;
+            Direcao primeira = Math.abs(dx) >= Math.abs(dy) ? horizontal : vertical;
+            Direcao segunda = primeira == horizontal ? vertical : horizontal;
+            if (mapa.podeMoverJogador(x + DX[primeira.ordinal()], y + DY[primeira.ordinal()]))
+                return primeira;
+            if ((primeira == horizontal ? dy : dx) != 0
+                    && mapa.podeMoverJogador(x + DX[segunda.ordinal()], y + DY[segunda.ordinal()]))
+                return segunda;
+        }
+        if (robo.aleatorio.nextInt(8) == 0)
+            robo.direcao = robo.aleatorio.nextInt(4);
+        return DIRECOES[robo.direcao];
+    }
+
+    private void executaPor(long nanos, boolean mede) {
+        long fim = System.nanoTime() + nanos;
+        long agora;
+        do {
+            long inicio = System.nanoTime();
+            simulacao.executaTick();
+            agora = System.nanoTime();
+            if (mede)
+                latenciaTick.registra(agora - inicio);
+        } while (agora < fim);
+    }
+
+    // Executa o aquecimento e a medição e retorna a linha do relatório
+    public String executa(double segundosAquecimento, double segundosMedicao) {
+        executaPor((long) (segundosAquecimento * 1e9), false);
+
+        List<GarbageCollectorMXBean> coletores = ManagementFactory.getGarbageCollectorMXBeans();
+        List<MemoryPoolMXBean> areas = ManagementFactory.getMemoryPoolMXBeans();
+        long coletasInicio = 0, tempoColetaInicio = 0;
+        for (GarbageCollectorMXBean coletor : coletores) {
+            coletasInicio += Math.max(0, coletor.getCollectionCount());
+            tempoColetaInicio += Math.max(0, coletor.getCollectionTime());
+        }
+        for (MemoryPoolMXBean area : areas)
+            area.resetPeakUsage();
+        long ticksInicio = simulacao.getNumTicks();
+        long robosInicio = movimentosRobos;
+        long inimigosInicio = simulacao.getNumMovimentosInimigos();
+        long moedasInicio = moedasRecolhidas;
+        long fluxosInicio = numCalculosFluxo();
+        long colisoesInicio = simulacao.getNumColisoesJogadores();
+        long inicio = System.nanoTime();
+
+        executaPor((long) (segundosMedicao * 1e9), true);
+
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        long coletas = -coletasInicio, tempoColeta = -tempoColetaInicio;
+        for (GarbageCollectorMXBean coletor : coletores) {
+            coletas += Math.max(0, coletor.getCollectionCount());
+            tempoColeta += Math.max(0, coletor.getCollectionTime());
+        }
+        // Soma dos picos de cada área do heap: um limite superior do pico do heap inteiro
+        long picoHeap = 0;
+        for (MemoryPoolMXBean area : areas) {
+            if (area.getType() == MemoryType.HEAP)
+                picoHeap += area.getPeakUsage().getUsed();
+        }
+        long heapUsado = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        long ticks = simulacao.getNumTicks() - ticksInicio;
+
+        return String.format(Locale.ROOT, "%9d %9d %9.0f %7d %7d %7d %8d %10.0f %10.0f %8d %8d %8d %8.1f %8.1f %6d %7d",
+                robos.size(), simulacao.getNumInimigos(), ticks / segundos,
+                latenciaTick.percentil(0.5) / 1000, latenciaTick.percentil(0.99) / 1000,
+                latenciaTick.percentil(0.999) / 1000, latenciaTick.getMaximo() / 1000,
+                (movimentosRobos - robosInicio) / segundos,
+                (simulacao.getNumMovimentosInimigos() - inimigosInicio) / segundos,
+                numCalculosFluxo() - fluxosInicio, simulacao.getNumColisoesJogadores() - colisoesInicio,
+                moedasRecolhidas - moedasInicio, heapUsado / 1e6, picoHeap / 1e6, coletas, tempoColeta);
+    }
+
+    // Recálculos dos campos de fluxo dos robôs: um por movimento de robô visto por algum inimigo
+    private long numCalculosFluxo() {
+        long total = 0;
+        for (Robo robo : robos)
+            total += robo.jogador.getCampoFluxo().getNumCalculos();
+        return total;
+    }
+
+    public void encerra() {
+        simulacao.encerra();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int[] jogadores = {0, 100, 1000};
+        int[] inimigos = {1000, 10000};
+        int tamanho = 1024;
+        double duracao = 10, aquecimento = 3;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-jogadores":
+                    jogadores = Bancada.leLista(args[++i]);
+                    break;
+                case "-inimigos":
+                    inimigos = Bancada.leLista(args[++i]);
+                    break;
+                case "-tamanho":
+                    tamanho = Integer.parseInt(args[++i]);
+                    break;
+                case "-duracao":
+                    duracao = Double.parseDouble(args[++i]);
+                    break;
+                case "-aquecimento":
+                    aquecimento = Double.parseDouble(args[++i]);
+                    break;
+                default:
+                    System.err.println("Opção desconhecida: " + args[i]);
+                    System.exit(2);
+            }
+        }
+        int livres = Bancada.celulasLivres(tamanho, 42);
+        for (int numJogadores : jogadores) {
+            for (int numInimigos : inimigos) {
+                if (numInimigos + numJogadores > livres) {
+                    System.err.println("-jogadores " + numJogadores + " e -inimigos " + numInimigos + ": o mapa "
+                            + tamanho + "x" + tamanho + " tem só " + livres + " células livres");
+                    System.exit(2);
+                }
+            }
+        }
+
+        System.out.printf("Mapa %dx%d, %.0f s de medição após %.0f s de aquecimento, %d processadores%n",
+                tamanho, tamanho, duracao, aquecimento, Runtime.getRuntime().availableProcessors());
+        System.out.println("Exercitado: inimigos em duas fases (patrulha, perseguição dos robôs por campo de fluxo"
+                + " e A*), colisões e vidas dos robôs, coleta de moedas. Fora: rede, desenho, descarte de chunks,"
+                + " diário e salvamento");
+        System.out.println(String.format("%9s %9s %9s %7s %7s %7s %8s %10s %10s %8s %8s %8s %8s %8s %6s %7s",
+                "Jogadores", "Inimigos", "Ticks/s", "p50 µs", "p99 µs", "p999 µs", "máx µs",
+                "Mov/s rob", "Mov/s ini", "Fluxos", "Vidas", "Moedas", "Heap MB", "Pico MB", "GCs", "GC ms"));
+        for (int numJogadores : jogadores) {
+            for (int numInimigos : inimigos) {
+                TesteCarga teste = new TesteCarga(tamanho, numJogadores, numInimigos, 42);
+                System.out.println(teste.executa(aquecimento, duracao));
+                teste.encerra();
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Registro denso dos tipos de célula do mapa: cada símbolo registrado (ex.: '#') recebe um
+// identificador pequeno que indexa o elemento compartilhado (flyweight) do tipo, e as
+// propriedades do tipo ficam pré-calculadas em uma máscara de bits indexada pelo próprio
+// símbolo. Assim, colisões e coletas custam uma leitura de vetor e um E bit a bit, sem
+// Character, hash ou chamada de interface. Símbolos não registrados (e o espaço) têm máscara 0.
+//
+// Os registros são feitos na preparação do mapa, antes de os atores começarem a executar (ver
+// Simulacao.registraElementos); as leituras não usam trava.
+public final class TiposCelula {
+    public static final int ATRAVESSAVEL = 1;
+    public static final int INTERATIVO = 1 << 1;
+    public static final int COLETAVEL = 1 << 2;
+    public static final int HOSTIL = 1 << 3;
+    public static final int OCUPA = 1 << 4; // Elemento fixo: a célula não está livre para entidades
+    public static final int OPACO = 1 << 5; // Bloqueia o campo de visão
+    private static final int MAX_TIPOS = 255; // Identificadores em um byte sem sinal; 0 é a célula vazia
+
+    private final byte[] flags = new byte[Character.MAX_VALUE + 1];
+    private final byte[] tipos = new byte[Character.MAX_VALUE + 1];
+    private final ElementoMapa[] elementos = new ElementoMapa[MAX_TIPOS + 1]; // Por identificador
+    private final char[] simbolos = new char[MAX_TIPOS + 1];
+    private int numTipos = 1;
+    private final Map<ElementoMapa, Character> simboloDe = new ConcurrentHashMap<>(); // Busca reversa
+
+    // Registra (ou substitui) o elemento do símbolo e retorna o identificador do tipo
+    public synchronized int registra(char simbolo, ElementoMapa elemento) {
+        int tipo = tipos[simbolo] & 0xFF;
+        if (tipo == 0) {
+            if (numTipos > MAX_TIPOS)
+                throw new IllegalStateException("Tipos de célula demais: " + numTipos);
+            tipo = numTipos++;
+        } else {
+            simboloDe.remove(elementos[tipo]);
+        }
+        elementos[tipo] = elemento;
+        simbolos[tipo] = simbolo;
+        simboloDe.put(elemento, simbolo);
+        flags[simbolo] = (byte) calculaFlags(elemento);
+        tipos[simbolo] = (byte) tipo;
+        return tipo;
+    }
+
+    private static int calculaFlags(ElementoMapa elemento) {
+        int f = OCUPA;
+        if (elemento.podeSerAtravessado())
+            f |= ATRAVESSAVEL;
+        else
+            f |= OPACO;
+        if (elemento.podeInteragir())
+            f |= INTERATIVO;
+        if (elemento.podeSerColetado())
+            f |= COLETAVEL;
+        if (elemento.ehHostil())
+            f |= HOSTIL;
+        return f;
+    }
+
+    // Máscara de propriedades do símbolo; 0 se não registrado
+    public int getFlags(char simbolo) {
+        return flags[simbolo];
+    }
+
+    public int getTipo(char simbolo) {
+        return tipos[simbolo] & 0xFF;
+    }
+
+    // Elemento compartilhado do símbolo; nulo se não registrado
+    public ElementoMapa getElemento(char simbolo) {
+        return elementos[tipos[simbolo] & 0xFF];
+    }
+
+    public ElementoMapa getElementoDoTipo(int tipo) {
+        return elementos[tipo];
+    }
+
+    public char getSimboloDoTipo(int tipo) {
+        return simbolos[tipo];
+    }
+
+    public int getNumTipos() {
+        return numTipos - 1;
+    }
+
+    // Símbolo com que o elemento foi registrado; -1 se não registrado
+    public int getSimbolo(ElementoMapa elemento) {
+        Character simbolo = simboloDe.get(elemento);
+        return simbolo != null ? simbolo : -1;
+    }
+}